@@ -191,7 +191,7 @@ public final class AppointmentImpl extends SimpleEntity implements Appointment
 		return compareTo;
     }
 
-    transient Date maxDate;
+    transient private volatile Date maxDate;
 
     /** returns the largest date that covers the appointment
         and null if the appointments repeats forever.
@@ -208,9 +208,13 @@ public final class AppointmentImpl extends SimpleEntity implements Appointment
         if (end == 0)
             return null;
 
-        // cache max date object
+        // cache max date object. Read the field only once, the method can be called from multiple threads
+        Date maxDate = this.maxDate;
         if (maxDate == null || maxDate.getTime() != end)
+        {
             maxDate = new Date(end);
+            this.maxDate = maxDate;
+        }
         return maxDate;
     }
 
@@ -356,13 +360,26 @@ public final class AppointmentImpl extends SimpleEntity implements Appointment
         Assert.notNull(blocks);
         Assert.notNull(start,"You must set a startDate");
         Assert.notNull(end, "You must set an endDate");
-        processBlocks(start.getTime(), end.getTime(), blocks, excludeExceptions);
+        processBlocks(start.getTime(), end.getTime(), (blockStart, blockEnd, isException) -> blocks.add(new AppointmentBlock(blockStart, blockEnd, this, isException)), excludeExceptions);
     }
-    
 
-    /* returns true if there is at least one block in an array. If the passed blocks array is not null it will contain all blocks
+    /** receives the start and end of each block, so blocks can be processed without creating {@link AppointmentBlock} objects */
+    public interface BlockHandler
+    {
+        void block(long start, long end, boolean isException);
+    }
+
+    /** passes all blocks that overlap the start, end period to the handler. Exceptions are excluded */
+    public void createBlocks(long start, long end, BlockHandler handler)
+    {
+        Assert.notNull(handler);
+        processBlocks(start, end, handler, true);
+    }
+
+
+    /* returns true if there is at least one block in an array. If the passed blocks handler is not null it will receive all blocks
      * that overlap the start,end period after a call.*/
-    private boolean processBlocks(long start,long end,Collection<AppointmentBlock> blocks, boolean excludeExceptions) {
+    private boolean processBlocks(long start,long end,BlockHandler blocks, boolean excludeExceptions) {
         long c1 = start;
         long c2 = end;
         long s = this.start.getTime();
@@ -378,8 +395,7 @@ public final class AppointmentImpl extends SimpleEntity implements Appointment
                 }
                 else
                 {
-                    AppointmentBlock block = new AppointmentBlock(s,e,this, false);
-                    blocks.add(block);
+                    blocks.block(s,e, false);
                 }
             } 
             return false;
@@ -395,8 +411,7 @@ public final class AppointmentImpl extends SimpleEntity implements Appointment
             } 
             else 
             {
-                AppointmentBlock block = new AppointmentBlock(s,e,this, repeating.isException(s));
-                blocks.add(block);
+                blocks.block(s,e, repeating.isException(s));
             }
         }
         
@@ -433,8 +448,7 @@ public final class AppointmentImpl extends SimpleEntity implements Appointment
                     } 
                     else 
                     {
-                        AppointmentBlock block = new AppointmentBlock(currentPos,currentPos + blockLength,this, isException);
-                        blocks.add( block);
+                        blocks.block(currentPos,currentPos + blockLength, isException);
                     }
                 }
             }
@@ -43,8 +43,8 @@ final class RepeatingImpl implements Repeating,java.io.Serializable {
     private RepeatingType repeatingType;
     private Set<Date> exceptions;
     private Set<Integer> weekdays;
-    transient private Date[] exceptionArray;
-    transient private boolean arrayUpToDate = false;
+    // null if the exceptions changed. volatile because the array is lazily created by concurrent readers
+    transient private volatile Date[] exceptionArray;
     transient private Appointment appointment;
     private int frequency;
     boolean monthly;
@@ -343,7 +343,7 @@ final class RepeatingImpl implements Repeating,java.io.Serializable {
         if (exceptions == null)
             exceptions = new TreeSet<Date>();
         exceptions.add(DateTools.cutDate(date));
-        arrayUpToDate = false;
+        exceptionArray = null;
     }
 
     public void addExceptions(TimeInterval interval) {
@@ -358,7 +358,7 @@ final class RepeatingImpl implements Repeating,java.io.Serializable {
             final long l = DateTools.cutDate(appointmentBlock.getStart());
             exceptions.add(new Date(l));
         }
-        arrayUpToDate = false;
+        exceptionArray = null;
     }
 
     public void removeException(Date date) {
@@ -372,7 +372,7 @@ final class RepeatingImpl implements Repeating,java.io.Serializable {
         exceptions.remove(DateTools.cutDate(date));
         if (exceptions.size()==0)
             exceptions = null;
-        arrayUpToDate = false;
+        exceptionArray = null;
     }
 
     public void clearExceptions() {
@@ -380,7 +380,7 @@ final class RepeatingImpl implements Repeating,java.io.Serializable {
             return;
         exceptions.clear();
         exceptions = null;
-        arrayUpToDate = false;
+        exceptionArray = null;
     }
 
     public String toString() {
@@ -470,14 +470,15 @@ final class RepeatingImpl implements Repeating,java.io.Serializable {
 
     private static Date[] DATE_ARRAY = new Date[0];
     public Date[] getExceptions() {
-        if (!arrayUpToDate) {
+        Date[] exceptionArray = this.exceptionArray;
+        if (exceptionArray == null) {
             if (exceptions != null) {
                 exceptionArray = exceptions.toArray(DATE_ARRAY);
                 Arrays.sort(exceptionArray);
             }
             else
                 exceptionArray = DATE_ARRAY;
-            arrayUpToDate = true;
+            this.exceptionArray = exceptionArray;
         }
         return exceptionArray;
     }
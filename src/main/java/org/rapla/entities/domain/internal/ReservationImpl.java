@@ -67,7 +67,7 @@ public final class ReservationImpl extends SimpleEntity implements Reservation,
     private Date lastChanged;
     private Date createDate;
     
-    transient HashMap<String,AppointmentImpl> appointmentIndex;
+    transient private volatile HashMap<String,AppointmentImpl> appointmentIndex;
         
     ReservationImpl() {
         this (null, null);
@@ -461,23 +461,27 @@ public final class ReservationImpl extends SimpleEntity implements Reservation,
         List<String> restrictionPrivate = getRestrictionPrivate(allocatable.getId());
 		Appointment[] list = new Appointment[restrictionPrivate.size()];
 		int i=0;
-		updateIndex();
+		final Map<String,AppointmentImpl> index = updateIndex();
         for (String id:restrictionPrivate)
         {
-        	list[i++] = appointmentIndex.get( id );
+        	list[i++] = index.get( id );
         }
 		return list;
     }
 
-	private void updateIndex() {
-		if (appointmentIndex == null)
+	// the index is filled before it is assigned, so concurrent readers never see a partially filled index
+	private Map<String,AppointmentImpl> updateIndex() {
+		HashMap<String,AppointmentImpl> index = appointmentIndex;
+		if (index == null)
 		{
-			appointmentIndex = new HashMap<String,AppointmentImpl>();
+			index = new HashMap<String,AppointmentImpl>();
 			for (AppointmentImpl app: appointments)
 			{
-				appointmentIndex.put( app.getId(), app);
+				index.put( app.getId(), app);
 			}
+			appointmentIndex = index;
 		}
+		return index;
 	}
 
 
@@ -628,9 +632,8 @@ public final class ReservationImpl extends SimpleEntity implements Reservation,
     }
 
     public Appointment findAppointment(Appointment copy) {
-		updateIndex();
         String id = copy.getId();
-		return appointmentIndex.get( id);
+		return updateIndex().get( id);
     }
 
 
@@ -5,26 +5,83 @@ import org.rapla.inject.DefaultImplementation;
 import org.rapla.inject.InjectionContext;
 import org.rapla.logger.Logger;
 import org.rapla.scheduler.CommandScheduler;
+import org.rapla.scheduler.CompletablePromise;
+import org.rapla.scheduler.Promise;
 import org.rapla.scheduler.sync.UtilConcurrentCommandScheduler;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
+/**
+ * Server scheduler with separate pools. The scheduled and periodic tasks, e.g. refresh, cleanup, mails and exchange sync, run on the
+ * maintenance pool. Work supplied by requests, e.g. appointment queries and binding calculations, and the promise callbacks run on
+ * the request pool, so a slow periodic task doesn't delay the users.
+ * <p>
+ * The pool sizes can be set with the system properties {@value #MAINTENANCE_THREADS_PROPERTY} and {@value #REQUEST_THREADS_PROPERTY}.
+ */
 @DefaultImplementation(of=CommandScheduler.class,context = {InjectionContext.server})
 @Singleton
 public class DefaultScheduler extends UtilConcurrentCommandScheduler implements Disposable
 {
+	public static final String MAINTENANCE_THREADS_PROPERTY = "org.rapla.scheduler.maintenanceThreads";
+	public static final String REQUEST_THREADS_PROPERTY = "org.rapla.scheduler.requestThreads";
+	static final int DEFAULT_MAINTENANCE_THREADS = 4;
+
+	private final UtilConcurrentCommandScheduler requestScheduler;
+	private final TaskStatistics requestStatistics = new TaskStatistics("request");
+
 	@Inject
 	public DefaultScheduler(Logger logger) {
-	    this(logger, 6);
+	    this(logger, Integer.getInteger(MAINTENANCE_THREADS_PROPERTY, DEFAULT_MAINTENANCE_THREADS),
+	            Integer.getInteger(REQUEST_THREADS_PROPERTY, getDefaultRequestThreads()));
 	}
 
 	public DefaultScheduler(Logger logger, int poolSize) {
-	    super(logger,poolSize);
+	    this(logger, poolSize, getDefaultRequestThreads());
+	}
+
+	public DefaultScheduler(Logger logger, int maintenancePoolSize, int requestPoolSize) {
+	    super(logger, maintenancePoolSize);
+	    requestScheduler = new UtilConcurrentCommandScheduler(logger, requestPoolSize);
+	    logger.info("Scheduler started with " + maintenancePoolSize + " maintenance and " + requestPoolSize + " request threads.");
+	}
+
+	/** the request work is cpu bound, so one thread per core */
+	private static int getDefaultRequestThreads() {
+	    return Math.max(2, Runtime.getRuntime().availableProcessors());
+	}
+
+	@Override
+	public <T> Promise<T> supply(Callable<T> supplier)
+	{
+		final long submitTime = requestStatistics.taskSubmitted();
+		return requestScheduler.supply(() -> {
+			final long startTime = requestStatistics.taskStarted(submitTime);
+			try
+			{
+				return supplier.call();
+			}
+			finally
+			{
+				requestStatistics.taskFinished(startTime);
+			}
+		});
+	}
+
+	@Override
+	public <T> CompletablePromise<T> createCompletable()
+	{
+		return requestScheduler.createCompletable();
+	}
+
+	public TaskStatistics getRequestStatistics()
+	{
+		return requestStatistics;
 	}
 
 	@Override public void dispose()
 	{
 		cancel();
+		requestScheduler.cancel();
 	}
-}
\ No newline at end of file
+}
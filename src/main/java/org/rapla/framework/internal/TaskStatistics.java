@@ -0,0 +1,95 @@
+package org.rapla.framework.internal;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the tasks of a scheduler pool and how long they waited in the queue and ran. Shown on the server status page.
+ */
+public final class TaskStatistics
+{
+    private final String name;
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong finished = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong totalRunNanos = new AtomicLong();
+
+    public TaskStatistics(String name)
+    {
+        this.name = name;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    /** call when the task is passed to the pool. Returns the submit time for {@link #taskStarted(long)} */
+    long taskSubmitted()
+    {
+        submitted.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /** call when a pool thread starts the task. Returns the start time for {@link #taskFinished(long)} */
+    long taskStarted(long submitTime)
+    {
+        final long now = System.nanoTime();
+        final long wait = now - submitTime;
+        started.incrementAndGet();
+        totalWaitNanos.addAndGet(wait);
+        long max;
+        while ((max = maxWaitNanos.get()) < wait && !maxWaitNanos.compareAndSet(max, wait))
+        {
+        }
+        return now;
+    }
+
+    void taskFinished(long startTime)
+    {
+        totalRunNanos.addAndGet(System.nanoTime() - startTime);
+        finished.incrementAndGet();
+    }
+
+    /** number of tasks waiting for a thread of the pool */
+    public long getQueueDepth()
+    {
+        return submitted.get() - started.get();
+    }
+
+    public long getRunning()
+    {
+        return started.get() - finished.get();
+    }
+
+    public long getFinished()
+    {
+        return finished.get();
+    }
+
+    public long getAverageWaitMillis()
+    {
+        final long count = started.get();
+        return count > 0 ? TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.get() / count) : 0;
+    }
+
+    public long getMaxWaitMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get());
+    }
+
+    public long getAverageRunMillis()
+    {
+        final long count = finished.get();
+        return count > 0 ? TimeUnit.NANOSECONDS.toMillis(totalRunNanos.get() / count) : 0;
+    }
+
+    @Override
+    public String toString()
+    {
+        return name + ": " + getQueueDepth() + " queued, " + getRunning() + " running, " + getFinished() + " finished, wait avg " + getAverageWaitMillis()
+                + " ms max " + getMaxWaitMillis() + " ms, run avg " + getAverageRunMillis() + " ms";
+    }
+}
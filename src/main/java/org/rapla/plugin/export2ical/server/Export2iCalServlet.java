@@ -7,9 +7,11 @@ import org.rapla.RaplaResources;
 import org.rapla.components.util.DateTools;
 import org.rapla.components.util.TimeInterval;
 import org.rapla.entities.EntityNotFoundException;
+import org.rapla.entities.RaplaObject;
 import org.rapla.entities.User;
 import org.rapla.entities.configuration.Preferences;
 import org.rapla.entities.configuration.RaplaConfiguration;
+import org.rapla.entities.domain.Allocatable;
 import org.rapla.entities.domain.Appointment;
 import org.rapla.entities.domain.Reservation;
 import org.rapla.facade.CalendarModel;
@@ -22,7 +24,10 @@ import org.rapla.framework.RaplaLocale;
 import org.rapla.logger.Logger;
 import org.rapla.plugin.export2ical.Export2iCalPlugin;
 import org.rapla.scheduler.Promise;
+import org.rapla.scheduler.ResolvedPromise;
 import org.rapla.server.PromiseWait;
+import org.rapla.server.provider.resteasy.AsyncPromiseResponse;
+import org.rapla.storage.CachableStorageOperator;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -35,12 +40,17 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.Locale;
+import java.util.Set;
 import java.util.SimpleTimeZone;
 
 @Path(Export2iCalPlugin.GENERATOR)
@@ -65,6 +75,8 @@ public class Export2iCalServlet
 	private Date firstPluginStartDate = new Date(0);
 	//private TimeZone pluginTimeZone;
 	private int lastModifiedIntervall;
+	/** maximum time to render a feed. Was the timeout of each of the two queries before they were answered asynchronously */
+	private static final int ASYNC_RESPONSE_TIMEOUT = 20000;
 	@Inject
 	Export2iCalConverter converter;
 	RaplaFacade facade;
@@ -75,6 +87,7 @@ public class Export2iCalServlet
 	RaplaResources i18n;
 	@Inject
 	PromiseWait promiseWait;
+	ICalFeedCache feedCache;
 
 	@Inject
     public Export2iCalServlet()
@@ -110,6 +123,21 @@ public class Export2iCalServlet
     {
         this.logger = logger.getChildLogger("ical");
     }
+
+    @Inject
+    void setOperator(CachableStorageOperator operator, Logger logger)
+    {
+        this.feedCache = new ICalFeedCache(operator, logger.getChildLogger("ical.cache"));
+    }
+
+    private String formatHttpDate(Date date)
+    {
+        // SimpleDateFormat is not thread safe
+        synchronized (rfc1123DateFormat)
+        {
+            return rfc1123DateFormat.format(date);
+        }
+    }
     
 	private Logger getLogger()
 	{
@@ -118,7 +146,7 @@ public class Export2iCalServlet
 
 	@GET
 	@Produces(MediaType.TEXT_HTML)
-	public void generatePage(@Context HttpServletRequest request, @Context HttpServletResponse response, @QueryParam("file") final String filename, @QueryParam("user") final String username) throws IOException, ServletException {
+	public Response generatePage(@Context HttpServletRequest request, @Context HttpServletResponse response, @QueryParam("file") final String filename, @QueryParam("user") final String username) throws IOException, ServletException {
 
 		//this.response = response;
         getLogger().debug("File: "+filename);
@@ -128,6 +156,13 @@ public class Export2iCalServlet
 		// if param COMPLETE is given, retrieve all appointments
 
 		try {
+            final String key = username + ";" + filename;
+            ICalFeedCache.Feed feed = feedCache.get(key);
+            if (feed != null)
+            {
+                return createResponse(request, feed, filename);
+            }
+            final long changeCount = feedCache.getChangeCount();
             final User user;
             String message = "The calendar '" + filename + "' you tried to retrieve is not published or available for the user " + username + ".";
 			try
@@ -140,7 +175,7 @@ public class Export2iCalServlet
 				response.getWriter().close();
     			getLogger().getChildLogger("404").warn(message);
                 response.setStatus( 404);
-                return;
+                return null;
             }
             final Preferences preferences = facade.getPreferences(user);
 
@@ -151,10 +186,9 @@ public class Export2iCalServlet
 				response.getWriter().close();
     		    response.setStatus( 404);
     			getLogger().getChildLogger("404").warn(message);
-                return;
+                return null;
             }
 
-			response.setHeader("Last-Modified", rfc1123DateFormat.format(getLastModified(calModel)));
 			final Object isSet = calModel.getOption(Export2iCalPlugin.ICAL_EXPORT);
             
 			if((isSet == null || isSet.equals("false")))
@@ -163,24 +197,43 @@ public class Export2iCalServlet
 				response.getWriter().close();
     			getLogger().getChildLogger("404").warn(message);
                 response.setStatus( 404);
-				return;
-			}
-			
-			if (request.getMethod().equals("HEAD")) {
-				return;
+				return null;
 			}
 
-			Promise<Collection<Appointment>> appointments = calModel.queryAppointments(new TimeInterval(null, null));
-			write(response, promiseWait.waitForWithRaplaException(appointments, 10000), filename,user, null);
+			final boolean head = request.getMethod().equals("HEAD");
+			final Promise<Response> responsePromise = getLastModified(calModel).thenCompose((lastModified) -> {
+				if (head) {
+					return new ResolvedPromise<Response>(Response.ok().header("Last-Modified", formatHttpDate(lastModified)).build());
+				}
+				return calModel.queryAppointments(new TimeInterval(null, null)).thenApply((appointments) -> {
+					final String content = render(appointments, filename, user, null);
+					final ICalFeedCache.Feed newFeed = new ICalFeedCache.Feed(content, lastModified, user.getId(), getAllocatableIds(calModel));
+					feedCache.put(key, newFeed, changeCount);
+					return createResponse(request, newFeed, filename);
+				});
+			}).exceptionally((e) -> createErrorResponse(e, username, filename));
+			// the request thread is released while the appointments are queried
+			if (AsyncPromiseResponse.suspend(responsePromise, ASYNC_RESPONSE_TIMEOUT)) {
+				return null;
+			}
+			return promiseWait.waitForWithRaplaException(responsePromise, ASYNC_RESPONSE_TIMEOUT);
 		} catch (Exception e) {
-			response.getWriter().println(("An error occured giving you the Calendarview for user " + username + " named " + filename));
-			response.getWriter().println();
-			e.printStackTrace(response.getWriter());
-			response.getWriter().close();
-			getLogger().error( e.getMessage(), e);
+			return createErrorResponse(e, username, filename);
 		}
 	}
 
+	private Response createErrorResponse(Throwable e, String username, String filename)
+	{
+		getLogger().error( e.getMessage(), e);
+		final StringWriter writer = new StringWriter();
+		final PrintWriter printWriter = new PrintWriter(writer);
+		printWriter.println(("An error occured giving you the Calendarview for user " + username + " named " + filename));
+		printWriter.println();
+		e.printStackTrace(printWriter);
+		printWriter.flush();
+		return Response.ok(writer.toString(), MediaType.TEXT_PLAIN).build();
+	}
+
 
 	/**
 	 * Retrieves CalendarModel by username && filename, sets appropriate before
@@ -231,29 +284,91 @@ public class Export2iCalServlet
 		}
 	}
 
-	private void write(final HttpServletResponse response, final Collection<Appointment> appointments, String filename, User user,final Preferences preferences) throws RaplaException, IOException {
-
-	    if (filename == null )
-	    {
-	        filename = i18n.getString("default");
-	    }
-		response.setContentType("text/calendar; charset=" + raplaLocale.getCharsetNonUtf());
-		response.setHeader("Content-Disposition", "attachment; filename=" + filename + ".ics");
+	private String render(final Collection<Appointment> appointments, String filename, User user, final Preferences preferences) throws RaplaException, IOException {
 
 		if (appointments == null) {
 			throw new RaplaException("Error with returning '" + filename);
 		}
 		final Calendar iCal = converter.createiCalender(appointments,preferences, user);
 		final CalendarOutputter calOutputter = new CalendarOutputter();
-		final PrintWriter responseWriter = response.getWriter();
+		final StringWriter writer = new StringWriter();
 		try {
-			calOutputter.output(iCal, responseWriter);
+			calOutputter.output(iCal, writer);
 		} catch (ValidationException e) {
 			getLogger().error("The calendar file is invalid!\n" + e);
-		} finally
+		}
+		return writer.toString();
+	}
+
+	/** returns the feed or only the status 304 if the client already has the current version */
+	private Response createResponse(final HttpServletRequest request, final ICalFeedCache.Feed feed, String filename) {
+
+	    if (filename == null )
+	    {
+	        filename = i18n.getString("default");
+	    }
+		final Response.ResponseBuilder builder;
+		if (isNotModified(request, feed))
+		{
+			builder = Response.notModified();
+		}
+		else if (request.getMethod().equals("HEAD")) {
+			builder = Response.ok();
+		}
+		else
+		{
+			builder = Response.ok(feed.content, "text/calendar; charset=" + raplaLocale.getCharsetNonUtf());
+			builder.header("Content-Disposition", "attachment; filename=" + filename + ".ics");
+		}
+		builder.header("Last-Modified", formatHttpDate(feed.lastModified));
+		builder.header("ETag", feed.etag);
+		return builder.build();
+	}
+
+	/** only the etag is compared. The last modified date is calculated from the future reservations, so it doesn't change if a
+	 * reservation is removed or a past one is changed */
+	private boolean isNotModified(HttpServletRequest request, ICalFeedCache.Feed feed)
+	{
+		final String ifNoneMatch = request.getHeader("If-None-Match");
+		if (ifNoneMatch == null)
 		{
-		    responseWriter.close();
+			return false;
 		}
+		for (String etag : ifNoneMatch.split(","))
+		{
+			etag = etag.trim();
+			if (etag.equals("*") || etag.equals(feed.etag) || etag.equals("W/" + feed.etag))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** returns the ids of the selected allocatables or null if the model selects other objects as well*/
+	private Set<String> getAllocatableIds(CalendarModel calModel)
+	{
+		final Collection<RaplaObject> selectedObjects = calModel.getSelectedObjects();
+		if (selectedObjects == null || selectedObjects.isEmpty())
+		{
+			return null;
+		}
+		final Collection<Allocatable> allocatables = new ArrayList<Allocatable>();
+		for (RaplaObject object : selectedObjects)
+		{
+			if (!(object instanceof Allocatable))
+			{
+				return null;
+			}
+			allocatables.add((Allocatable) object);
+		}
+		// the feed also shows the reservations of the parts, packages and parents of the selected allocatables
+		final Set<String> result = new HashSet<String>();
+		for (Allocatable allocatable : facade.getOperator().getDependent(allocatables))
+		{
+			result.add(allocatable.getId());
+		}
+		return result;
 	}
 	
 	/**
@@ -278,12 +393,15 @@ public class Export2iCalServlet
 	 * Get last modified if a list of allocatables
 	 * 
 	 */
-	private Date getLastModified(CalendarModel calModel) throws RaplaException {
+	private Promise<Date> getLastModified(CalendarModel calModel) {
 
 		Date endDate = null;
         Date startDate = facade.today();
         final Promise<Collection<Reservation>> reservationsPromise = calModel.queryReservations(new TimeInterval(startDate, endDate));
-		final Collection<Reservation> reservations = promiseWait.waitForWithRaplaException(reservationsPromise, 10000);
+		return reservationsPromise.thenApply((reservations) -> getLastModified(reservations));
+	}
+
+	private Date getLastModified(Collection<Reservation> reservations) {
 		// set to minvalue
 		Date maxDate = new Date();
 		maxDate.setTime(0);
@@ -0,0 +1,237 @@
+package org.rapla.plugin.export2ical.server;
+
+import org.rapla.components.util.DateTools;
+import org.rapla.entities.Entity;
+import org.rapla.entities.User;
+import org.rapla.entities.configuration.Preferences;
+import org.rapla.entities.domain.Allocatable;
+import org.rapla.entities.domain.Reservation;
+import org.rapla.entities.storage.EntityReferencer;
+import org.rapla.entities.storage.ReferenceInfo;
+import org.rapla.entities.storage.internal.SimpleEntity;
+import org.rapla.facade.Conflict;
+import org.rapla.framework.RaplaException;
+import org.rapla.logger.Logger;
+import org.rapla.storage.CachableStorageOperator;
+import org.rapla.storage.UpdateOperation;
+import org.rapla.storage.UpdateResult;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Caches the rendered iCal feeds per user and file. Before each lookup the changes in the storage since the last lookup are
+ * checked and all feeds that show a changed reservation or allocatable, or belong to a user with changed preferences, are removed.
+ */
+final class ICalFeedCache
+{
+    /** maximum number of cached feeds */
+    static final int MAX_FEEDS = 2000;
+    /** feeds are rendered again after that time, even without changes */
+    static final long MAX_AGE = DateTools.MILLISECONDS_PER_HOUR;
+
+    static final class Feed
+    {
+        final String content;
+        final Date lastModified;
+        final String etag;
+        final String userId;
+        // the selected allocatables with their dependencies, e.g. parts and packages, or null if the feed can contain reservations of all allocatables
+        final Set<String> allocatableIds;
+        final long created;
+
+        Feed(String content, Date lastModified, String userId, Set<String> allocatableIds)
+        {
+            this.content = content;
+            this.lastModified = lastModified;
+            this.userId = userId;
+            this.allocatableIds = allocatableIds;
+            this.etag = "\"" + Integer.toHexString(content.hashCode()) + "-" + Integer.toHexString(content.length()) + "\"";
+            this.created = System.currentTimeMillis();
+        }
+    }
+
+    private final CachableStorageOperator operator;
+    private final Logger logger;
+    private final Map<String, Feed> feeds = new LinkedHashMap<String, Feed>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Feed> eldest)
+        {
+            return size() > MAX_FEEDS;
+        }
+    };
+    private long validatedChangeCount = -1;
+    private Date validatedUntil;
+
+    ICalFeedCache(CachableStorageOperator operator, Logger logger)
+    {
+        this.operator = operator;
+        this.logger = logger;
+    }
+
+    /** returns the cached feed or null if the feed must be rendered*/
+    synchronized Feed get(String key)
+    {
+        validate();
+        final Feed feed = feeds.get(key);
+        if (feed == null)
+        {
+            return null;
+        }
+        final long now = System.currentTimeMillis();
+        // the last modified date and the time interval of the feed depend on the current day
+        if (feed.created + MAX_AGE < now || DateTools.cutDate(feed.created) != DateTools.cutDate(now))
+        {
+            feeds.remove(key);
+            return null;
+        }
+        return feed;
+    }
+
+    /** returns the change count of the storage. Pass it to {@link #put(String, Feed, long)} after rendering the feed*/
+    synchronized long getChangeCount()
+    {
+        validate();
+        return validatedChangeCount;
+    }
+
+    /** stores the feed, if nothing has changed in the storage since changeCount was retrieved */
+    synchronized void put(String key, Feed feed, long changeCount)
+    {
+        if (operator.getChangeCount() != changeCount || validatedChangeCount != changeCount)
+        {
+            return;
+        }
+        feeds.put(key, feed);
+    }
+
+    private void validate()
+    {
+        final long changeCount = operator.getChangeCount();
+        if (changeCount == validatedChangeCount)
+        {
+            return;
+        }
+        try
+        {
+            if (feeds.isEmpty() || validatedUntil == null || validatedUntil.before(operator.getHistoryValidStart()))
+            {
+                feeds.clear();
+                validatedUntil = operator.getUpdateResult(operator.getCurrentTimestamp()).getUntil();
+            }
+            else
+            {
+                final UpdateResult updateResult = operator.getUpdateResult(validatedUntil);
+                removeChanged(updateResult);
+                validatedUntil = updateResult.getUntil();
+            }
+        }
+        catch (RaplaException ex)
+        {
+            logger.warn("Could not check changes for cached ical feeds: " + ex.getMessage());
+            feeds.clear();
+            validatedUntil = null;
+        }
+        validatedChangeCount = changeCount;
+    }
+
+    private void removeChanged(UpdateResult updateResult)
+    {
+        boolean removeAll = false;
+        boolean allocationsChanged = false;
+        final Set<String> changedAllocatableIds = new HashSet<String>();
+        final Set<String> changedUserIds = new HashSet<String>();
+        for (UpdateOperation operation : updateResult.getOperations())
+        {
+            final ReferenceInfo reference = operation.getReference();
+            final Class<? extends Entity> type = reference.getType();
+            if (type == Reservation.class)
+            {
+                allocationsChanged = true;
+                addAllocatableIds(updateResult.getLastKnown(reference), changedAllocatableIds);
+                addAllocatableIds(updateResult.getLastEntryBeforeUpdate(reference), changedAllocatableIds);
+            }
+            else if (type == Allocatable.class)
+            {
+                allocationsChanged = true;
+                changedAllocatableIds.add(reference.getId());
+                // a new or moved part or package member changes the feeds of its new parents and packages
+                final Entity allocatable = updateResult.getLastKnown(reference);
+                if (allocatable != null)
+                {
+                    for (Allocatable dependent : operator.getDependent(Collections.singleton((Allocatable) allocatable)))
+                    {
+                        changedAllocatableIds.add(dependent.getId());
+                    }
+                }
+            }
+            else if (type == Preferences.class)
+            {
+                final Entity preferences = updateResult.getLastKnown(reference);
+                final ReferenceInfo<User> owner = preferences != null ? ((SimpleEntity) preferences).getOwnerRef() : null;
+                if (owner == null)
+                {
+                    // system preferences can change the export of all users
+                    removeAll = true;
+                }
+                else
+                {
+                    changedUserIds.add(owner.getId());
+                }
+            }
+            else if (type != Conflict.class)
+            {
+                // changes to types, categories or users are rare and can affect every feed
+                removeAll = true;
+            }
+        }
+        if (removeAll)
+        {
+            feeds.clear();
+            return;
+        }
+        for (Iterator<Feed> it = feeds.values().iterator(); it.hasNext(); )
+        {
+            final Feed feed = it.next();
+            if (changedUserIds.contains(feed.userId) || (allocationsChanged && (feed.allocatableIds == null || containsAny(feed.allocatableIds,
+                    changedAllocatableIds))))
+            {
+                it.remove();
+            }
+        }
+    }
+
+    private static void addAllocatableIds(Entity reservation, Collection<String> result)
+    {
+        if (reservation == null)
+        {
+            return;
+        }
+        for (ReferenceInfo reference : ((EntityReferencer) reservation).getReferenceInfo())
+        {
+            if (reference.getType() == Allocatable.class)
+            {
+                result.add(reference.getId());
+            }
+        }
+    }
+
+    private static boolean containsAny(Set<String> set, Collection<String> ids)
+    {
+        for (String id : ids)
+        {
+            if (set.contains(id))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,150 @@
+package org.rapla.plugin.notification.server;
+
+import org.rapla.entities.Entity;
+import org.rapla.entities.User;
+import org.rapla.entities.configuration.Preferences;
+import org.rapla.entities.domain.Allocatable;
+import org.rapla.entities.storage.ReferenceInfo;
+import org.rapla.entities.storage.internal.SimpleEntity;
+import org.rapla.framework.RaplaException;
+import org.rapla.plugin.notification.NotificationPlugin;
+import org.rapla.storage.CachableStorageOperator;
+import org.rapla.storage.UpdateOperation;
+import org.rapla.storage.UpdateResult;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index from the allocatables to the users that listen to their allocation changes. The index is built from the preferences of all
+ * users on first use and afterwards only the changed preferences are read again.
+ */
+final class AllocationListenerIndex
+{
+    static final class Subscription
+    {
+        final ReferenceInfo<User> userRef;
+        final Set<String> allocatableIds;
+        final boolean notifyIfOwner;
+
+        Subscription(ReferenceInfo<User> userRef, Set<String> allocatableIds, boolean notifyIfOwner)
+        {
+            this.userRef = userRef;
+            this.allocatableIds = allocatableIds;
+            this.notifyIfOwner = notifyIfOwner;
+        }
+    }
+
+    private final CachableStorageOperator operator;
+    private final Map<String, Subscription> subscriptions = new HashMap<String, Subscription>();
+    private final Map<String, Set<String>> listenersByAllocatable = new HashMap<String, Set<String>>();
+    private Date validatedUntil;
+
+    AllocationListenerIndex(CachableStorageOperator operator)
+    {
+        this.operator = operator;
+    }
+
+    /** reads the preferences that changed since the last call, or all preferences on the first call */
+    @SuppressWarnings("unchecked")
+    synchronized void update() throws RaplaException
+    {
+        if (validatedUntil == null || validatedUntil.before(operator.getHistoryValidStart()))
+        {
+            final Date until = operator.getUpdateResult(operator.getCurrentTimestamp()).getUntil();
+            subscriptions.clear();
+            listenersByAllocatable.clear();
+            for (User user : operator.getUsers())
+            {
+                put(user.getReference(), operator.getPreferences(user, false));
+            }
+            validatedUntil = until;
+            return;
+        }
+        final UpdateResult updateResult = operator.getUpdateResult(validatedUntil);
+        for (UpdateOperation operation : updateResult.getOperations())
+        {
+            final ReferenceInfo reference = operation.getReference();
+            if (reference.getType() == User.class && operation instanceof UpdateResult.Remove)
+            {
+                // the preferences of a removed user are not always in the update result
+                put((ReferenceInfo<User>) reference, null);
+                continue;
+            }
+            if (reference.getType() != Preferences.class)
+            {
+                continue;
+            }
+            final Entity preferences = updateResult.getLastKnown(reference);
+            final ReferenceInfo<User> userRef = preferences != null ? ((SimpleEntity) preferences).getOwnerRef() : null;
+            if (userRef == null)
+            {
+                continue;
+            }
+            final User user = operator.tryResolve(userRef);
+            put(userRef, user != null ? operator.getPreferences(user, false) : null);
+        }
+        validatedUntil = updateResult.getUntil();
+    }
+
+    /** returns the ids of the users listening to the allocatable */
+    synchronized Collection<String> getListeners(String allocatableId)
+    {
+        final Set<String> userIds = listenersByAllocatable.get(allocatableId);
+        return userIds != null ? new HashSet<String>(userIds) : Collections.<String>emptySet();
+    }
+
+    synchronized Subscription getSubscription(String userId)
+    {
+        return subscriptions.get(userId);
+    }
+
+    private void put(ReferenceInfo<User> userRef, Preferences preferences)
+    {
+        final String userId = userRef.getId();
+        final Subscription old = subscriptions.remove(userId);
+        if (old != null)
+        {
+            for (String allocatableId : old.allocatableIds)
+            {
+                final Set<String> userIds = listenersByAllocatable.get(allocatableId);
+                userIds.remove(userId);
+                if (userIds.isEmpty())
+                {
+                    listenersByAllocatable.remove(allocatableId);
+                }
+            }
+        }
+        if (preferences == null)
+        {
+            return;
+        }
+        final Map<String, Allocatable> allocatableMap = preferences.getEntry(NotificationPlugin.ALLOCATIONLISTENERS_CONFIG);
+        if (allocatableMap == null || allocatableMap.isEmpty())
+        {
+            return;
+        }
+        final Set<String> allocatableIds = new HashSet<String>();
+        for (Allocatable allocatable : allocatableMap.values())
+        {
+            allocatableIds.add(allocatable.getId());
+        }
+        final boolean notifyIfOwner = preferences.getEntryAsBoolean(NotificationPlugin.NOTIFY_IF_OWNER_CONFIG, false);
+        subscriptions.put(userId, new Subscription(userRef, allocatableIds, notifyIfOwner));
+        for (String allocatableId : allocatableIds)
+        {
+            Set<String> userIds = listenersByAllocatable.get(allocatableId);
+            if (userIds == null)
+            {
+                userIds = new HashSet<String>();
+                listenersByAllocatable.put(allocatableId, userIds);
+            }
+            userIds.add(userId);
+        }
+    }
+}
@@ -18,7 +18,6 @@ import org.rapla.RaplaResources;
 import org.rapla.client.swing.toolkit.FrameControllerList;
 import org.rapla.components.util.DateTools;
 import org.rapla.entities.User;
-import org.rapla.entities.configuration.Preferences;
 import org.rapla.entities.domain.Allocatable;
 import org.rapla.entities.domain.Appointment;
 import org.rapla.entities.domain.AppointmentFormater;
@@ -54,6 +53,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -76,6 +76,7 @@ public class NotificationService implements ServerExtension
 
     private final Logger logger;
     private final NotificationStorage notificationStorage;
+    private final AllocationListenerIndex listenerIndex;
     private List<Disposable> scheduleList = new ArrayList<>();
 
     @Inject
@@ -94,7 +95,7 @@ public class NotificationService implements ServerExtension
         //raplaFacade.addAllocationChangedListener(this);
         this.appointmentFormater = appointmentFormater;
         this.operator = (CachableStorageOperator) facade.getOperator();
-
+        this.listenerIndex = new AllocationListenerIndex(operator);
     }
 
     @Override
@@ -171,37 +172,44 @@ public class NotificationService implements ServerExtension
         try
         {
             getLogger().debug("Mail check triggered");
-            User[] users = raplaFacade.getUsers();
+            if (updateResult == null || !updateResult.getOperations().iterator().hasNext())
+            {
+                return;
+            }
+            listenerIndex.update();
+            // the change events are computed once and routed to the users that listen to the allocatables
+            final List<AllocationChangeEvent> changeEvents = AllocationChangeFinder.getTriggerEvents(updateResult, null, logger, operator);
+            final Map<String, List<AllocationChangeEvent>> eventsPerUser = new LinkedHashMap<String, List<AllocationChangeEvent>>();
+            for (AllocationChangeEvent event : changeEvents)
+            {
+                for (String userId : listenerIndex.getListeners(event.getAllocatable().getId()))
+                {
+                    List<AllocationChangeEvent> events = eventsPerUser.get(userId);
+                    if (events == null)
+                    {
+                        events = new ArrayList<AllocationChangeEvent>();
+                        eventsPerUser.put(userId, events);
+                    }
+                    events.add(event);
+                }
+            }
             List<AllocationMail> mailList = new ArrayList<AllocationMail>();
-            // we check for each user if a mail must be sent
-            for (int i = 0; i < users.length; i++)
+            for (Map.Entry<String, List<AllocationChangeEvent>> entry : eventsPerUser.entrySet())
             {
-                User user = users[i];
-                if (user.getEmail().trim().length() == 0)
-                    continue;
-
-                Preferences preferences = raplaFacade.getPreferences(user);
-                Map<String, Allocatable> allocatableMap = null;
-
-                if (preferences != null && preferences.getEntry(NotificationPlugin.ALLOCATIONLISTENERS_CONFIG) != null)
+                final AllocationListenerIndex.Subscription subscription = listenerIndex.getSubscription(entry.getKey());
+                if (subscription == null)
                 {
-                    allocatableMap = preferences.getEntry(NotificationPlugin.ALLOCATIONLISTENERS_CONFIG);
+                    continue;
                 }
-                else
+                final User owner = operator.tryResolve(subscription.userRef);
+                if (owner == null || owner.getEmail().trim().length() == 0)
                 {
                     continue;
                 }
-                if (allocatableMap != null && allocatableMap.size() > 0)
+                AllocationMail mail = getAllocationMail(entry.getValue(), owner, subscription.notifyIfOwner);
+                if (mail != null)
                 {
-                    boolean notifyIfOwner = preferences.getEntryAsBoolean(NotificationPlugin.NOTIFY_IF_OWNER_CONFIG, false);
-                    final ReferenceInfo<User> ownerId = preferences.getOwnerRef();
-                    final User owner = ownerId != null ? raplaFacade.getOperator().resolve(ownerId) : null;
-                    AllocationMail mail = getAllocationMail(new HashSet<Allocatable>(allocatableMap.values()), updateResult, owner, notifyIfOwner);
-                    if (mail != null)
-                    {
-                        mailList.add(mail);
-                    }
-
+                    mailList.add(mail);
                 }
             }
             if (!mailList.isEmpty())
@@ -240,16 +248,11 @@ public class NotificationService implements ServerExtension
         }
     }
 
-    AllocationMail getAllocationMail(Collection<Allocatable> allocatablesTheUsersListensTo, UpdateResult updateResult, User owner, boolean notifyIfOwner)
-            throws RaplaException
+    /** @param changeEvents the events for the allocatables the user listens to */
+    AllocationMail getAllocationMail(List<AllocationChangeEvent> changeEvents, User owner, boolean notifyIfOwner) throws RaplaException
     {
-        if (updateResult == null || !updateResult.getOperations().iterator().hasNext())
-        {
-            return null;
-        }
         final HashMap<Reservation, List<AllocationChangeEvent>> reservationMap = new HashMap<Reservation, List<AllocationChangeEvent>>(4);
         final HashSet<Allocatable> changedAllocatables = new HashSet<Allocatable>();
-        final List<AllocationChangeEvent> changeEvents = AllocationChangeFinder.getTriggerEvents(updateResult, owner, logger, operator);
         for (int i = 0; i < changeEvents.size(); i++)
         {
             AllocationChangeEvent event = changeEvents.get(i);
@@ -260,9 +263,6 @@ public class NotificationService implements ServerExtension
             {
                 continue;
             }
-            // Did the user opt in for the resource?
-            if (!allocatablesTheUsersListensTo.contains(allocatable))
-                continue;
             if (!notifyIfOwner && (reservation.getLastChangedBy() != null && owner.getReference().equals(reservation.getLastChangedBy())))
                 continue;
             List<AllocationChangeEvent> eventList = reservationMap.get(reservation);
@@ -289,7 +289,7 @@ public class NotificationService implements ServerExtension
         for (Reservation reservation : keySet)
         {
             List<AllocationChangeEvent> eventList = reservationMap.get(reservation);
-            String eventBlock = printEvents(reservation, eventList);
+            String eventBlock = printEvents(reservation, eventList, owner);
             buf.append(eventBlock);
             buf.append("\n\n");
         }
@@ -312,7 +312,7 @@ public class NotificationService implements ServerExtension
         return mail;
     }
 
-    private String printEvents(Reservation reservation, List<AllocationChangeEvent> eventList)
+    private String printEvents(Reservation reservation, List<AllocationChangeEvent> eventList, User eventUser)
     {
         StringBuilder buf = new StringBuilder();
         buf.append("\n");
@@ -381,7 +381,6 @@ public class NotificationService implements ServerExtension
             Reservation newReservation = event.getNewReservation();
             if (newReservation != null && changed == false)
             {
-                User eventUser = event.getUser();
                 ReferenceInfo<User> lastChangedBy = newReservation.getLastChangedBy();
                 String name;
                 if (lastChangedBy != null)
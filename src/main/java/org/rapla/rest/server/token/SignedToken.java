@@ -167,7 +167,8 @@ public class SignedToken {
       return null;
     }
 
-    return new ValidToken(maxAge > 0 && c + (maxAge >> 1) <= n, recvText);
+    final long validUntil = maxAge > 0 ? ((long) c + maxAge) * 5000L : Long.MAX_VALUE;
+    return new ValidToken(maxAge > 0 && c + (maxAge >> 1) <= n, recvText, validUntil);
   }
 
   private void computeToken(final byte[] buf, final String text)
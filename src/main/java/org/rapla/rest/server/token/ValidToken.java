@@ -19,10 +19,16 @@ package org.rapla.rest.server.token;
 public class ValidToken {
   private final boolean refresh;
   private final String data;
+  private final long validUntil;
 
   public ValidToken(final boolean ref, final String d) {
+    this(ref, d, Long.MAX_VALUE);
+  }
+
+  public ValidToken(final boolean ref, final String d, final long until) {
     refresh = ref;
     data = d;
+    validUntil = until;
   }
 
   /** The text protected by the token's encryption key. */
@@ -30,6 +36,11 @@ public class ValidToken {
     return data;
   }
 
+  /** The time in milliseconds until the token is accepted, Long.MAX_VALUE if it doesn't expire. */
+  public long getValidUntil() {
+    return validUntil;
+  }
+
   /** True if the token's life span is almost half-over and should be renewed. */
   public boolean needsRefresh() {
     return refresh;
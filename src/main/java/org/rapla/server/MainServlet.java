@@ -12,6 +12,7 @@
  *--------------------------------------------------------------------------*/
 package org.rapla.server;
 
+import org.jboss.resteasy.plugins.server.servlet.HttpServlet30Dispatcher;
 import org.jboss.resteasy.plugins.server.servlet.HttpServletDispatcher;
 import org.rapla.components.util.IOUtil;
 import org.rapla.framework.RaplaException;
@@ -55,7 +56,8 @@ public class MainServlet extends HttpServlet
 
     public MainServlet()
     {
-        dispatcher = new HttpServletDispatcher();
+        // supports suspended requests, that are answered when the promise of a resource method is resolved
+        dispatcher = new HttpServlet30Dispatcher();
     }
 
     public static ServerContainerContext createBackendContext(Logger logger, RaplaJNDIContext jndi) throws ServletException
@@ -134,6 +136,14 @@ public class MainServlet extends HttpServlet
                 }
             }
         }
+        {
+            // optional snapshot of the cache for faster restarts with a database
+            String snapshot = jndi.lookupEnvString("raplasnapshot", false);
+            if (snapshot != null)
+            {
+                backendContext.addFileDatasource("raplasnapshot", snapshot);
+            }
+        }
         env_raplamail = jndi.lookupResource("mail/Session", false);
         if (env_raplamail != null)
         {
@@ -424,8 +434,12 @@ public class MainServlet extends HttpServlet
             }
             try
             {
-                ServletOutputStream outputStream = response.getOutputStream();
-                outputStream.close();
+                // suspended requests are completed by the async response
+                if (!request.isAsyncStarted())
+                {
+                    ServletOutputStream outputStream = response.getOutputStream();
+                    outputStream.close();
+                }
             }
             catch (Exception ex)
             {
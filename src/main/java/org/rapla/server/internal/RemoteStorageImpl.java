@@ -37,6 +37,7 @@ import org.rapla.scheduler.sync.SynchronizedCompletablePromise;
 import org.rapla.server.AuthenticationStore;
 import org.rapla.server.PrePostDispatchProcessor;
 import org.rapla.server.RemoteSession;
+import org.rapla.server.provider.resteasy.AsyncPromiseResponse;
 import org.rapla.storage.CachableStorageOperator;
 import org.rapla.storage.PermissionController;
 import org.rapla.storage.PreferencePatch;
@@ -65,6 +66,10 @@ import java.util.Set;
 
 @DefaultImplementation(context = InjectionContext.server, of = RemoteStorage.class) public class RemoteStorageImpl implements RemoteStorage
 {
+    /** maximum time a refreshWait request is held on the server. Must be below the client refresh interval, so the client doesn't consider its cache outdated*/
+    static final long REFRESH_WAIT_TIMEOUT = 20000;
+    /** maximum time a suspended request waits for the promise of the operator */
+    static final int ASYNC_RESPONSE_TIMEOUT = 50000;
     @Inject RemoteSession session;
     @Inject CachableStorageOperator operator;
     @Inject SecurityManager security;
@@ -193,12 +198,18 @@ import java.util.Set;
             }
         }
         ClassificationFilter[] classificationFilters = null;
-        final Promise<Map<Allocatable, Collection<Appointment>>> mapFutureResult = operator
-                .queryAppointments(user, allocatables, start, end, classificationFilters, annotationQuery);
-        Map<Allocatable, Collection<Appointment>> reservations = operator.waitForWithRaplaException(mapFutureResult, 50000);
-        AppointmentMap list = new AppointmentMap(reservations);
-        getLogger().debug("Get reservations " + start + " " + end + ": " + reservations.size() + "," + list.toString());
-        return new ResolvedPromise<AppointmentMap>(list);
+        final Logger logger = getLogger();
+        final Promise<AppointmentMap> promise = operator.queryAppointments(user, allocatables, start, end, classificationFilters, annotationQuery)
+                .thenApply((reservations) -> {
+                    AppointmentMap list = new AppointmentMap(reservations, job.getKnownReservations());
+                    logger.debug("Get reservations " + start + " " + end + ": " + reservations.size() + "," + list.toString());
+                    return list;
+                });
+        if (AsyncPromiseResponse.suspend(promise, ASYNC_RESPONSE_TIMEOUT))
+        {
+            return promise;
+        }
+        return new ResolvedPromise<AppointmentMap>(operator.waitForWithRaplaException(promise, ASYNC_RESPONSE_TIMEOUT));
     }
 
     private ReservationImpl checkAndMakeReservationsAnonymous(User sessionUser, Entity entity)
@@ -256,7 +267,9 @@ import java.util.Set;
         dispatch_(event);
         getLogger().info("Change for user " + sessionUser + " dispatched.");
 
-        UpdateEvent result = updateDataManager.createUpdateEvent(sessionUser, lastSynced);
+        // the post processors can modify the event, so it must not be the cached one shared with other requests
+        UpdateEvent result = prePostDispatchProcessors.isEmpty() ? updateDataManager.createUpdateEvent(sessionUser, lastSynced)
+                : updateDataManager.createUncachedUpdateEvent(sessionUser, lastSynced);
         for ( PrePostDispatchProcessor processor:prePostDispatchProcessors)
         {
             processor.postProcess(sessionUser, result);
@@ -400,6 +413,42 @@ import java.util.Set;
         }
     }
 
+    public Promise<UpdateEvent> refreshWait(String lastSyncedTime)
+    {
+        final User user;
+        final Date clientRepoVersion;
+        final UpdateEvent event;
+        final long changeCount = operator.getChangeCount();
+        try
+        {
+            user = checkSessionUser();
+            clientRepoVersion = SerializableDateTimeFormat.INSTANCE.parseTimestamp(lastSyncedTime);
+            event = updateDataManager.createUpdateEvent(user, clientRepoVersion);
+        }
+        catch (ParseDateException e)
+        {
+            return new ResolvedPromise<UpdateEvent>(new RaplaException("Illegal last synced date " + lastSyncedTime + " caused " + e.getMessage(), e));
+        }
+        catch (RaplaException e)
+        {
+            return new ResolvedPromise<UpdateEvent>(e);
+        }
+        if (!isEmpty(event))
+        {
+            return new ResolvedPromise<>(event);
+        }
+        // nothing to send yet, so we wait for the next change in the operator
+        final Promise<UpdateEvent> promise = operator.waitForChange(changeCount, REFRESH_WAIT_TIMEOUT)
+                .thenApply((newChangeCount) -> updateDataManager.createUpdateEvent(user, clientRepoVersion));
+        AsyncPromiseResponse.suspend(promise, ASYNC_RESPONSE_TIMEOUT);
+        return promise;
+    }
+
+    private boolean isEmpty(UpdateEvent event)
+    {
+        return event.isEmpty() && event.getPreferencePatches().isEmpty() && !event.isNeedResourcesRefresh();
+    }
+
     public Logger getLogger()
     {
         return session.getLogger();
@@ -530,6 +579,7 @@ import java.util.Set;
         Collection<Reservation> ignoreList = resolveReservations(reservationIds);
         final Promise<Date> nextAllocatableDate = operator
                 .getNextAllocatableDate(allocatables, appointment, ignoreList, worktimestartMinutes, worktimeendMinutes, excludedDays, rowsPerHour);
+        AsyncPromiseResponse.suspend(nextAllocatableDate, ASYNC_RESPONSE_TIMEOUT);
         return nextAllocatableDate;
 
     }
@@ -576,6 +626,7 @@ import java.util.Set;
             }
             return new BindingMap(result);
         });
+        AsyncPromiseResponse.suspend(promise, ASYNC_RESPONSE_TIMEOUT);
         return promise;
     }
 
@@ -632,6 +683,7 @@ import java.util.Set;
             }
             return new ArrayList<ReservationImpl>(result);
         });
+        AsyncPromiseResponse.suspend(promise, ASYNC_RESPONSE_TIMEOUT);
         return promise;
     }
 
@@ -18,6 +18,7 @@ import javax.inject.Inject;
 import javax.inject.Provider;
 import javax.inject.Singleton;
 import javax.sql.DataSource;
+import java.io.File;
 import java.util.Map;
 import java.util.Set;
 
@@ -83,7 +84,13 @@ public class ServerStorageSelector implements Provider<CachableStorageOperator>
     {
         Provider<ImportExportManager> importExportMananger = getImportExportManager();
         final DataSource dbDatasource = containerContext.getMainDbDatasource();
-        return new DBOperator(logger, promiseWait,i18n, raplaLocale, scheduler, functionFactoryMap, importExportMananger, dbDatasource, permissionExtensions);
+        final DBOperator operator = new DBOperator(logger, promiseWait,i18n, raplaLocale, scheduler, functionFactoryMap, importExportMananger, dbDatasource, permissionExtensions);
+        final String snapshotFile = containerContext.getFileDatasource("raplasnapshot");
+        if (snapshotFile != null)
+        {
+            operator.setSnapshotFile(new File(snapshotFile));
+        }
+        return operator;
     }
 
 
@@ -18,6 +18,8 @@ import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.util.Collection;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 @Singleton
 public class TokenHandler
@@ -29,6 +31,31 @@ public class TokenHandler
 
     // 1 Hour until the token expires
     int accessTokenValiditySeconds = 60 * 60;
+    /** maximum number of validated access tokens that are remembered */
+    static final int MAX_VALIDATED_TOKENS = 2000;
+
+    /** an access token that passed the signature check, with the user it was resolved to */
+    static final class ValidatedToken
+    {
+        final long validUntil;
+        final User user;
+
+        ValidatedToken(long validUntil, User user)
+        {
+            this.validUntil = validUntil;
+            this.user = user;
+        }
+    }
+
+    // access order, so the least recently used tokens are removed first
+    private final Map<String, ValidatedToken> validatedTokens = new LinkedHashMap<String, ValidatedToken>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ValidatedToken> eldest)
+        {
+            return size() > MAX_VALIDATED_TOKENS;
+        }
+    };
 
     @Inject public TokenHandler(RaplaKeyStorage keyStorage, StorageOperator operator) throws RaplaInitializationException
     {
@@ -47,8 +74,31 @@ public class TokenHandler
 
     }
 
+    /** Validated access tokens are cached, so the signature is only checked on the first request with the token. A cached
+     * token is checked again if it has expired or the user has been changed or removed since, e.g. with a new password. */
     public User getUserWithAccessToken(String tokenString) throws EntityNotFoundException, RaplaInvalidTokenException
     {
+        if (tokenString == null)
+        {
+            return null;
+        }
+        final ValidatedToken validated;
+        synchronized (validatedTokens)
+        {
+            validated = validatedTokens.get(tokenString);
+        }
+        if (validated != null)
+        {
+            final User user = validated.user;
+            if (operator.getCurrentTimestamp().getTime() <= validated.validUntil && operator.tryResolve(user.getReference()) == user)
+            {
+                return user;
+            }
+            synchronized (validatedTokens)
+            {
+                validatedTokens.remove(tokenString);
+            }
+        }
         return getUserWithToken(tokenString, accessTokenSigner);
     }
 
@@ -72,10 +122,11 @@ public class TokenHandler
         }
 
         final String recvText = tokenString.substring(s + 1);
+        final ValidToken checkToken;
         try
         {
             Date now = operator.getCurrentTimestamp();
-            ValidToken checkToken = tokenSigner.checkToken(tokenString, recvText, now);
+            checkToken = tokenSigner.checkToken(tokenString, recvText, now);
             if (checkToken == null)
             {
                 throw new RaplaInvalidTokenException(RemoteStorage.USER_WAS_NOT_AUTHENTIFIED + " InvalidToken " + tokenString);
@@ -87,6 +138,13 @@ public class TokenHandler
         }
         String userId = recvText;
         User user = operator.resolve(userId, User.class);
+        if (tokenSigner == accessTokenSigner)
+        {
+            synchronized (validatedTokens)
+            {
+                validatedTokens.put(tokenString, new ValidatedToken(checkToken.getValidUntil(), user));
+            }
+        }
         return user;
 
     }
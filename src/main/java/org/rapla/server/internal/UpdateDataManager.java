@@ -11,5 +11,9 @@ import java.util.Date;
  */
 public interface UpdateDataManager
 {
+    /** The returned event can be shared with other requests and must not be modified */
     UpdateEvent createUpdateEvent(User user, Date lastSynced) throws RaplaException;
+
+    /** Creates a new event, that is not cached, so the caller may modify it */
+    UpdateEvent createUncachedUpdateEvent(User user, Date lastSynced) throws RaplaException;
 }
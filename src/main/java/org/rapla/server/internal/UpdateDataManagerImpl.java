@@ -12,6 +12,7 @@
  *--------------------------------------------------------------------------*/
 package org.rapla.server.internal;
 
+import org.rapla.components.util.DateTools;
 import org.rapla.components.util.IOUtil;
 import org.rapla.components.util.TimeInterval;
 import org.rapla.entities.Category;
@@ -53,6 +54,8 @@ import javax.inject.Singleton;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
 
@@ -71,6 +74,37 @@ public class UpdateDataManagerImpl implements  UpdateDataManager
 
     private final PermissionController permissionController;
 
+    /** maximum number of cached update events */
+    static final int MAX_CACHED_EVENTS = 1000;
+    /** cached events are recalculated after that time, so idle clients get a new lastValidated before their history expires */
+    static final long MAX_CACHE_AGE = DateTools.MILLISECONDS_PER_MINUTE;
+
+    // Update events for user and lastSynced. Clients that poll without changes in between send the same lastSynced,
+    // so they get the cached event until the next change in the operator
+    private final Map<String, CachedUpdateEvent> eventCache = new LinkedHashMap<String, CachedUpdateEvent>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedUpdateEvent> eldest)
+        {
+            return size() > MAX_CACHED_EVENTS;
+        }
+    };
+    private long eventCacheChangeCount = -1;
+
+    static private class CachedUpdateEvent
+    {
+        final UpdateEvent event;
+        final long changeCount;
+        final long created;
+
+        CachedUpdateEvent(UpdateEvent event, long changeCount, long created)
+        {
+            this.event = event;
+            this.changeCount = changeCount;
+            this.created = created;
+        }
+    }
+
 
     @Inject public UpdateDataManagerImpl(Logger logger, CachableStorageOperator operator, SecurityManager securityManager)
     {
@@ -115,17 +149,62 @@ public class UpdateDataManagerImpl implements  UpdateDataManager
         return currentInterval;
     }
 
+    /** Returns the cached event if there was no change since it was created. The returned event must not be modified*/
     public UpdateEvent createUpdateEvent(User user, Date lastSynced) throws RaplaException
     {
         Date currentTimestamp = operator.getCurrentTimestamp();
-        Date historyValidStart = operator.getHistoryValidStart();
-        Date conflictValidStart = operator.getConnectStart();
+        lastSynced = checkLastSynced(lastSynced, currentTimestamp);
+        // the change count must be read before the event is created, so that changes during the creation invalidate the cached event
+        final long changeCount = operator.getChangeCount();
+        // the user is part of the key, because the result depends on the user and its groups. Changes to the user also change the changeCount
+        final String key = (user != null ? user.getId() : null) + ";" + lastSynced.getTime();
+        final long now = System.currentTimeMillis();
+        synchronized (eventCache)
+        {
+            if (changeCount != eventCacheChangeCount)
+            {
+                eventCache.clear();
+                eventCacheChangeCount = changeCount;
+            }
+            final CachedUpdateEvent cached = eventCache.get(key);
+            // the history could have been cleaned up since the event was created
+            if (cached != null && cached.changeCount == changeCount && now - cached.created < MAX_CACHE_AGE && !lastSynced.before(operator.getHistoryValidStart()))
+            {
+                return cached.event;
+            }
+        }
+        final UpdateEvent event = createUpdateEvent_(user, lastSynced, currentTimestamp);
+        synchronized (eventCache)
+        {
+            if (changeCount == eventCacheChangeCount)
+            {
+                eventCache.put(key, new CachedUpdateEvent(event, changeCount, now));
+            }
+        }
+        return event;
+    }
+
+    public UpdateEvent createUncachedUpdateEvent(User user, Date lastSynced) throws RaplaException
+    {
+        Date currentTimestamp = operator.getCurrentTimestamp();
+        return createUpdateEvent_(user, checkLastSynced(lastSynced, currentTimestamp), currentTimestamp);
+    }
+
+    private Date checkLastSynced(Date lastSynced, Date currentTimestamp)
+    {
         if (lastSynced.after(currentTimestamp))
         {
             long diff = lastSynced.getTime() - currentTimestamp.getTime();
             getLogger().warn("Timestamp of client " + diff + " ms  after server ");
-            lastSynced = currentTimestamp;
+            return currentTimestamp;
         }
+        return lastSynced;
+    }
+
+    private UpdateEvent createUpdateEvent_(User user, Date lastSynced, Date currentTimestamp) throws RaplaException
+    {
+        Date historyValidStart = operator.getHistoryValidStart();
+        Date conflictValidStart = operator.getConnectStart();
         final UpdateEvent safeResultEvent = new UpdateEvent();
         TimeZone systemTimeZone = operator.getTimeZone();
         int timezoneOffset = TimeZoneConverterImpl.getOffset(IOUtil.getTimeZone(), systemTimeZone, currentTimestamp.getTime());
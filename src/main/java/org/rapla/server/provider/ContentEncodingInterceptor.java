@@ -0,0 +1,160 @@
+package org.rapla.server.provider;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses the rest responses with gzip or deflate, if the client accepts it. The deflate encoding is written without zlib
+ * header, as expected by the HTTPConnector of the client. Exceptions and other responses with a status other than 2xx are not
+ * compressed, because the client reads them from the error stream without decoding.
+ */
+@Provider
+public class ContentEncodingInterceptor implements WriterInterceptor
+{
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+    static final int BUFFER_SIZE = 8192;
+
+    HttpServletRequest request;
+    HttpServletResponse response;
+
+    public ContentEncodingInterceptor(@Context HttpServletRequest request, @Context HttpServletResponse response)
+    {
+        this.request = request;
+        this.response = response;
+    }
+
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext context) throws IOException, WebApplicationException
+    {
+        final MultivaluedMap<String, Object> headers = context.getHeaders();
+        final String encoding = isCompressable(context) ? selectEncoding(request.getHeader(HttpHeaders.ACCEPT_ENCODING)) : null;
+        if (encoding == null)
+        {
+            context.proceed();
+            return;
+        }
+        headers.putSingle(HttpHeaders.CONTENT_ENCODING, encoding);
+        headers.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        // the servlet closes the response stream itself
+        final OutputStream original = new FilterOutputStream(context.getOutputStream())
+        {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException
+            {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException
+            {
+                flush();
+            }
+        };
+        final Deflater deflater = encoding.equals(GZIP) ? null : new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        final DeflaterOutputStream compressed = deflater == null ? new GZIPOutputStream(original, BUFFER_SIZE) : new DeflaterOutputStream(original, deflater,
+                BUFFER_SIZE);
+        context.setOutputStream(compressed);
+        try
+        {
+            context.proceed();
+            compressed.close();
+        }
+        finally
+        {
+            if (deflater != null)
+            {
+                deflater.end();
+            }
+        }
+    }
+
+    private boolean isCompressable(WriterInterceptorContext context)
+    {
+        if (context.getHeaders().containsKey(HttpHeaders.CONTENT_ENCODING))
+        {
+            return false;
+        }
+        if (context.getType() != null && Throwable.class.isAssignableFrom(context.getType()))
+        {
+            return false;
+        }
+        // the status is set before the entity is written
+        final int status = response.getStatus();
+        return status >= 200 && status < 300;
+    }
+
+    /** returns gzip or deflate if accepted by the Accept-Encoding header with gzip preferred, or null for no compression */
+    public static String selectEncoding(String acceptEncoding)
+    {
+        if (acceptEncoding == null)
+        {
+            return null;
+        }
+        // null if not listed in the header
+        Boolean gzip = null;
+        boolean deflate = false;
+        boolean any = false;
+        for (String part : acceptEncoding.split(","))
+        {
+            final String[] params = part.split(";");
+            final String name = params[0].trim().toLowerCase(Locale.ENGLISH);
+            final boolean accepted = getQuality(params) > 0;
+            if (name.equals(GZIP) || name.equals("x-gzip"))
+            {
+                gzip = accepted;
+            }
+            else if (name.equals(DEFLATE))
+            {
+                deflate = accepted;
+            }
+            else if (name.equals("*"))
+            {
+                any = accepted;
+            }
+        }
+        if (gzip != null ? gzip : any)
+        {
+            return GZIP;
+        }
+        if (deflate)
+        {
+            return DEFLATE;
+        }
+        return null;
+    }
+
+    private static float getQuality(String[] params)
+    {
+        for (int i = 1; i < params.length; i++)
+        {
+            final String param = params[i].trim();
+            if (param.startsWith("q="))
+            {
+                try
+                {
+                    return Float.parseFloat(param.substring(2).trim());
+                }
+                catch (NumberFormatException ex)
+                {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+}
@@ -0,0 +1,58 @@
+package org.rapla.server.provider;
+
+import com.google.gson.Gson;
+import org.rapla.rest.JsonParserWrapper;
+import org.rapla.storage.UpdateEvent;
+
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes update events, e.g. all resources sent on login, directly to the response stream instead of serializing them to a string
+ * first. The json is the same as written by the generic JsonWriter.
+ */
+@Provider
+@Produces({ MediaType.APPLICATION_JSON })
+public class UpdateEventJsonWriter implements MessageBodyWriter<UpdateEvent>
+{
+    final Gson gson = JsonParserWrapper.defaultGsonBuilder().create();
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType)
+    {
+        return UpdateEvent.class.isAssignableFrom(type) && mediaType.isCompatible(MediaType.APPLICATION_JSON_TYPE);
+    }
+
+    @Override
+    public long getSize(UpdateEvent updateEvent, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType)
+    {
+        return -1;
+    }
+
+    @Override
+    public void writeTo(UpdateEvent updateEvent, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+            MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) throws IOException, WebApplicationException
+    {
+        write(updateEvent, entityStream);
+    }
+
+    void write(UpdateEvent updateEvent, OutputStream entityStream) throws IOException
+    {
+        // the entity stream is closed by the container
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(entityStream, StandardCharsets.UTF_8));
+        gson.toJson(updateEvent, updateEvent.getClass(), writer);
+        writer.flush();
+    }
+}
@@ -0,0 +1,63 @@
+package org.rapla.server.provider.resteasy;
+
+import org.jboss.resteasy.core.ResourceMethodInvoker;
+import org.jboss.resteasy.core.SynchronousExecutionContext;
+import org.jboss.resteasy.spi.ApplicationException;
+import org.jboss.resteasy.spi.HttpRequest;
+import org.jboss.resteasy.spi.ResteasyAsynchronousContext;
+import org.jboss.resteasy.spi.ResteasyAsynchronousResponse;
+import org.jboss.resteasy.spi.ResteasyProviderFactory;
+import org.rapla.scheduler.Promise;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Answers a rest request with the result of a promise without blocking the request thread. The request is suspended with a servlet
+ * async context and resumed from the promise callback, so the container thread is free while the work runs on the scheduler.
+ */
+public final class AsyncPromiseResponse
+{
+    private AsyncPromiseResponse()
+    {
+    }
+
+    /**
+     * Suspends the current rest request and resumes it with the result or the exception of the promise. The value returned by the
+     * resource method is ignored for suspended requests. Returns false if the request can't be suspended, e.g. outside a rest call
+     * or if the servlet doesn't support async requests. Then the caller must answer the request as usual.
+     */
+    public static boolean suspend(Promise<?> promise, long timeoutInMillis)
+    {
+        final HttpRequest request = ResteasyProviderFactory.getContextData(HttpRequest.class);
+        final HttpServletRequest servletRequest = ResteasyProviderFactory.getContextData(HttpServletRequest.class);
+        if (request == null || servletRequest == null || !servletRequest.isAsyncSupported())
+        {
+            return false;
+        }
+        final ResteasyAsynchronousContext asyncContext = request.getAsyncContext();
+        if (asyncContext instanceof SynchronousExecutionContext || asyncContext.isSuspended())
+        {
+            return false;
+        }
+        final ResteasyAsynchronousResponse response = asyncContext.suspend(timeoutInMillis, TimeUnit.MILLISECONDS);
+        // the same interceptors and annotations as for a synchronous result, e.g. for the content encoding and the media type
+        final ResourceMethodInvoker invoker = (ResourceMethodInvoker) request.getAttribute(ResourceMethodInvoker.class.getName());
+        if (invoker != null)
+        {
+            invoker.initializeAsync(response);
+        }
+        promise.whenComplete((result, ex) -> {
+            if (ex != null)
+            {
+                // wrapped as if thrown by the resource method, so the same exception mappers apply
+                response.resume(new ApplicationException(ex));
+            }
+            else
+            {
+                response.resume(result);
+            }
+        });
+        return true;
+    }
+}
@@ -4,6 +4,8 @@
 package org.rapla.server.servletpages;
 
 import org.rapla.RaplaSystemInfo;
+import org.rapla.framework.internal.DefaultScheduler;
+import org.rapla.scheduler.CommandScheduler;
 import org.rapla.server.internal.RaplaStatusEntry;
 import org.rapla.server.internal.ServerContainerContext;
 
@@ -23,6 +25,7 @@ import java.io.IOException;
 public class RaplaStatusPageGenerator  {
     @Inject RaplaSystemInfo m_i18n;
     @Inject ServerContainerContext serverContainerContext;
+    @Inject CommandScheduler scheduler;
     @Inject
     public RaplaStatusPageGenerator()
     {
@@ -51,6 +54,10 @@ public class RaplaStatusPageGenerator  {
         out.println( "<body>" );
         String javaversion = System.getProperty("java.version");
      	out.println( "<p>Server running </p>" +  m_i18n.infoText( javaversion));
+        if ( scheduler instanceof DefaultScheduler)
+        {
+            out.println( "<p>Scheduler " + ((DefaultScheduler) scheduler).getRequestStatistics() + "</p>");
+        }
         out.println( "<hr>" );
         out.println( "</body>" );
         out.println( "</html>" );
@@ -52,6 +52,12 @@ public interface CachableStorageOperator extends StorageOperator {
 
     Date getHistoryValidStart();
     Date getConnectStart();
+    /** returns a number that changes with every change to the stored entities or conflicts. Results computed from
+     * {@link #getUpdateResult(Date, User)} stay valid as long as the number doesn't change.*/
+    long getChangeCount();
+    /** returns a promise that completes with the current change count as soon as it differs from the passed changeCount,
+     * or after the timeout in milliseconds if nothing changes. Used to hold client refresh requests until there is something to send.*/
+    Promise<Long> waitForChange(long changeCount, long timeout);
 
     Map<String, ImportExportEntity> getImportExportEntities(String systemId, int importExportDirection) throws RaplaException;
     
@@ -73,6 +79,11 @@ public interface CachableStorageOperator extends StorageOperator {
     Collection<ReferenceInfo<User>> findUsersThatExport(Allocatable allocatable) throws RaplaException;
 
     <T> T  waitForWithRaplaException(Promise<T> promise, int millis) throws RaplaException;
+
+    /** removes all reservations, except templates, whose appointments all end before the passed date. The candidates are
+     * selected in the cache and removed in large batches.
+     * @return the number of removed reservations */
+    int removeReservationsEndingBefore(Date endDate) throws RaplaException;
 }
 
 
@@ -49,6 +49,7 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class LocalCache implements EntityResolver
 {
@@ -72,7 +73,8 @@ public class LocalCache implements EntityResolver
     public LocalCache(PermissionController permissionController)
     {
         this.permissionController = permissionController;
-        entities = new HashMap<String, Entity>();
+        // the id lookup can be used without the operator lock, e.g. while dispatches write to the database
+        entities = new ConcurrentHashMap<String, Entity>();
         // top-level-entities
         reservations = new LinkedHashMap<String, ReservationImpl>();
         users = new LinkedHashMap<String, UserImpl>();
@@ -110,14 +112,14 @@ public class LocalCache implements EntityResolver
     public boolean removeWithId(ReferenceInfo info)
     {
         String entityId = info.getId();
+        if (entityId == null)
+            return false;
         Class<? extends Entity> typeClass = info.getType();
         boolean bResult = true;
         bResult = entities.remove(entityId) != null;
         Map<String, ? extends Entity> entitySet = getMap(typeClass);
         if (entitySet != null)
         {
-            if (entityId == null)
-                return false;
             entitySet.remove(entityId);
         }
         else if (typeClass == Conflict.class)
@@ -34,6 +34,9 @@ import org.rapla.entities.dynamictype.Classification;
 import org.rapla.entities.extensionpoints.FunctionFactory;
 import org.rapla.entities.internal.CategoryImpl;
 import org.rapla.entities.internal.ModifiableTimestamp;
+import org.rapla.entities.dynamictype.DynamicType;
+import org.rapla.entities.dynamictype.internal.DynamicTypeImpl;
+import org.rapla.entities.storage.EntityReferencer;
 import org.rapla.entities.storage.ImportExportEntity;
 import org.rapla.entities.storage.RefEntity;
 import org.rapla.entities.storage.ReferenceInfo;
@@ -44,6 +47,7 @@ import org.rapla.framework.RaplaInitializationException;
 import org.rapla.framework.RaplaLocale;
 import org.rapla.framework.TypedComponentRole;
 import org.rapla.logger.Logger;
+import org.rapla.rest.JsonParserWrapper;
 import org.rapla.scheduler.CommandScheduler;
 import org.rapla.server.PromiseWait;
 import org.rapla.server.ServerService;
@@ -75,6 +79,8 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -113,6 +119,24 @@ final public class FileOperator extends LocalAbstractCachableOperator
     {
         InputSource getInputSource(URI storageURL) throws IOException;
         void write(RaplaWriter writer, URI storageURL) throws IOException;
+
+        /** appends a record to the journal of the storage file and returns after the record is on the disk.
+         * @return false if journals are not supported. Then the whole file is written after each change */
+        default boolean appendJournal(String record, URI storageURL) throws IOException
+        {
+            return false;
+        }
+
+        /** returns the records of the journal in the order they were appended */
+        default List<String> readJournal(URI storageURL) throws IOException
+        {
+            return Collections.emptyList();
+        }
+
+        /** removes all records from the journal, called after the storage file is written */
+        default void clearJournal(URI storageURL) throws IOException
+        {
+        }
     }
     static  public class DefaultFileIO implements FileIO
     {
@@ -151,10 +175,65 @@ final public class FileOperator extends LocalAbstractCachableOperator
             file.renameTo(backupFile);
         }
 
+        public boolean appendJournal(String record, URI storageURL) throws IOException
+        {
+            final File journalFile = getJournalFile(storageURL);
+            File parentFile = journalFile.getParentFile();
+            if (!parentFile.exists())
+            {
+                parentFile.mkdirs();
+            }
+            try (FileOutputStream out = new FileOutputStream(journalFile, true))
+            {
+                out.write((record + "\n").getBytes(StandardCharsets.UTF_8));
+                out.getChannel().force(false);
+            }
+            return true;
+        }
+
+        public List<String> readJournal(URI storageURL) throws IOException
+        {
+            final File journalFile = getJournalFile(storageURL);
+            if (!journalFile.exists())
+            {
+                return Collections.emptyList();
+            }
+            return Files.readAllLines(journalFile.toPath(), StandardCharsets.UTF_8);
+        }
+
+        public void clearJournal(URI storageURL) throws IOException
+        {
+            final File journalFile = getJournalFile(storageURL);
+            if (journalFile.exists() && !journalFile.delete())
+            {
+                throw new IOException("Can't delete journal " + journalFile);
+            }
+        }
+
+        private File getJournalFile(URI storageURL)
+        {
+            return new File(new File(storageURL).getPath() + ".journal");
+        }
+
     }
 
     private final Map<ImportExportMapKey, Map<String,ImportExportEntity>> importExportEntities = new LinkedHashMap<>();
 
+    /** the journal is written into the storage file in this interval */
+    static final long JOURNAL_COMPACTION_PERIOD = DateTools.MILLISECONDS_PER_MINUTE * 5;
+    // number of changes in the journal, that are not in the storage file. Changed under the write lock or while saving
+    private volatile int journalRecords;
+    private final JsonParserWrapper.JsonParser journalJson = JsonParserWrapper.defaultJson().get();
+
+    /** a dispatched change in the journal */
+    static class JournalRecord
+    {
+        Date timestamp;
+        UpdateEvent event;
+        // passwords of the stored users, because they are not part of the user entity
+        Map<String, String> passwords;
+    }
+
     public FileOperator(Logger logger, PromiseWait promiseWait,RaplaResources i18n, RaplaLocale raplaLocale, CommandScheduler scheduler,
             Map<String, FunctionFactory> functionFactoryMap, @Named(ServerService.ENV_RAPLAFILE_ID) String resolvedPath,
             Set<PermissionExtension> permissionExtensions) throws RaplaInitializationException
@@ -208,6 +287,8 @@ final public class FileOperator extends LocalAbstractCachableOperator
             changeStatus(InitStatus.Loaded);
             initIndizes();
             changeStatus(InitStatus.Connected);
+            replayJournal();
+            scheduleConnectedTasks(() -> compactJournal(), JOURNAL_COMPACTION_PERIOD, JOURNAL_COMPACTION_PERIOD);
 
         }
         /*
@@ -230,6 +311,17 @@ final public class FileOperator extends LocalAbstractCachableOperator
     @Override
     final public void disconnect() throws RaplaException
     {
+        if (isConnected())
+        {
+            try
+            {
+                compactJournal();
+            }
+            catch (RaplaException ex)
+            {
+                getLogger().error("Could not write journal to " + getURL() + ". Changes will be restored from the journal on the next start. " + ex.getMessage(), ex);
+            }
+        }
         super.disconnect();
         importExportEntities.clear();
     }
@@ -449,33 +541,187 @@ final public class FileOperator extends LocalAbstractCachableOperator
             // this since is for the server and used to check if an entity is new created in this write transaction so set it to the current timestamp
             // the since for the client will be used later when requesting the update event
             // call of update must be first to update the cache.
-            // then saveData() saves all the data in the cache
+            // then the changes are appended to the journal, or saveData() saves all the data in the cache if there is no journal
             final Collection<ReferenceInfo> removeIds = evt.getRemoveIds();
             final List<PreferencePatch> preferencePatches = evt.getPreferencePatches();
             final Collection<Entity> storeObjects = new ArrayList<>(evt.getStoreObjects());
-            for (Iterator<Entity> iterator = storeObjects.iterator(); iterator.hasNext();)
+            applyChanges(since, until, storeObjects, preferencePatches, removeIds);
+            if (!appendJournal(evt, until))
             {
-                Entity entity = iterator.next();
-                if(entity instanceof ImportExportEntity)
+                saveData(cache, null, includeIds);
+            }
+        }
+        finally
+        {
+            lockManager.unlock(writeLock);
+        }
+    }
+
+    private void applyChanges(Date since, Date until, Collection<Entity> storeObjects, List<PreferencePatch> preferencePatches,
+            Collection<ReferenceInfo> removeIds) throws RaplaException
+    {
+        for (Iterator<Entity> iterator = storeObjects.iterator(); iterator.hasNext();)
+        {
+            Entity entity = iterator.next();
+            if(entity instanceof ImportExportEntity)
+            {
+                iterator.remove();
+                ImportExportEntity cast = (ImportExportEntity) entity;
+                insertIntoImportExportCache(cast);
+            }
+        }
+        Set<ReferenceInfo<ImportExportEntity>> removedImports = new HashSet<ReferenceInfo<ImportExportEntity>>();
+        for (Iterator<ReferenceInfo> iterator = removeIds.iterator(); iterator.hasNext();)
+        {
+            ReferenceInfo referenceInfo = iterator.next();
+            if(referenceInfo.getType() == ImportExportEntity.class)
+            {
+                iterator.remove();
+                removedImports.add( referenceInfo);
+            }
+        }
+        removeFromImportExportCache(removedImports);
+        refresh(since, until, storeObjects, preferencePatches, removeIds);
+    }
+
+    /** appends the dispatched changes to the journal, so only the changes and not the whole file is written.
+     * @return false if the changes could not be appended */
+    private boolean appendJournal(UpdateEvent evt, Date timestamp)
+    {
+        final JournalRecord record = new JournalRecord();
+        record.timestamp = timestamp;
+        record.event = evt;
+        for (Entity entity : evt.getStoreObjects())
+        {
+            if (entity instanceof User)
+            {
+                final String password = cache.getPassword(((User) entity).getReference());
+                if (password != null)
                 {
-                    iterator.remove();
-                    ImportExportEntity cast = (ImportExportEntity) entity;
-                    insertIntoImportExportCache(cast);
+                    if (record.passwords == null)
+                    {
+                        record.passwords = new LinkedHashMap<>();
+                    }
+                    record.passwords.put(entity.getId(), password);
                 }
             }
-            Set<ReferenceInfo<ImportExportEntity>> removedImports = new HashSet<ReferenceInfo<ImportExportEntity>>();
-            for (Iterator<ReferenceInfo> iterator = removeIds.iterator(); iterator.hasNext();)
+        }
+        try
+        {
+            if (!FileIO.appendJournal(journalJson.toJson(record), storageURL))
             {
-                ReferenceInfo referenceInfo = iterator.next();
-                if(referenceInfo.getType() == ImportExportEntity.class)
+                return false;
+            }
+            journalRecords++;
+            return true;
+        }
+        catch (Exception ex)
+        {
+            getLogger().error("Could not append to journal of " + getURL() + ". Writing the whole file instead. " + ex.getMessage(), ex);
+            return false;
+        }
+    }
+
+    /** applies the changes from the journal, that were not written to the storage file before the last shutdown */
+    private void replayJournal() throws RaplaException
+    {
+        final List<String> records;
+        try
+        {
+            records = FileIO.readJournal(storageURL);
+        }
+        catch (IOException ex)
+        {
+            throw new RaplaException("Can't read journal of " + getURL() + ": " + ex.getMessage(), ex);
+        }
+        if (records.isEmpty())
+        {
+            return;
+        }
+        getLogger().info("Restoring " + records.size() + " changes from the journal of " + getURL());
+        for (int i = 0; i < records.size(); i++)
+        {
+            final JournalRecord record;
+            try
+            {
+                record = (JournalRecord) journalJson.fromJson(records.get(i), JournalRecord.class);
+            }
+            catch (Exception ex)
+            {
+                if (i == records.size() - 1)
                 {
-                    iterator.remove();
-                    removedImports.add( referenceInfo);
+                    // the last record can be incomplete if the server was killed while writing it
+                    getLogger().warn("Ignoring incomplete last record in journal of " + getURL() + ": " + ex.getMessage());
+                    break;
                 }
+                throw new RaplaException("Can't read record " + (i + 1) + " in journal of " + getURL() + ": " + ex.getMessage(), ex);
             }
-            removeFromImportExportCache(removedImports);
-            refresh(since, until, storeObjects, preferencePatches, removeIds);
-            saveData(cache, null, includeIds);
+            replay(record);
+        }
+        journalRecords = records.size();
+        // write the journal to the storage file, so it is not replayed again
+        try
+        {
+            compactJournal();
+        }
+        catch (RaplaException ex)
+        {
+            getLogger().error("Could not write journal to " + getURL() + ". " + ex.getMessage(), ex);
+        }
+    }
+
+    private void replay(JournalRecord record) throws RaplaException
+    {
+        final UpdateEvent evt = record.event;
+        final Date timestamp = record.timestamp;
+        final RaplaLock.WriteLock writeLock = writeLockIfLoaded();
+        try
+        {
+            final Collection<Entity> storeObjects = new ArrayList<>(evt.getStoreObjects());
+            final EntityStore store = new EntityStore(this);
+            for (Entity entity : storeObjects)
+            {
+                store.put(entity);
+            }
+            for (Entity entity : storeObjects)
+            {
+                ((EntityReferencer) entity).setResolver(store);
+                if (entity instanceof DynamicType)
+                {
+                    ((DynamicTypeImpl) entity).setOperator(this);
+                }
+                if (EntityHistory.isSupportedEntity(entity.getTypeClass()))
+                {
+                    history.addHistoryEntry(entity, timestamp, false);
+                }
+            }
+            if (record.passwords != null)
+            {
+                for (Map.Entry<String, String> entry : record.passwords.entrySet())
+                {
+                    cache.putPassword(new ReferenceInfo<User>(entry.getKey(), User.class), entry.getValue());
+                }
+            }
+            // the changes can already be in the storage file, if the server stopped after writing the file but before clearing the journal
+            final Collection<ReferenceInfo> removeIds = new ArrayList<>();
+            for (ReferenceInfo id : evt.getRemoveIds())
+            {
+                if (id.getType() == ImportExportEntity.class)
+                {
+                    removeIds.add(id);
+                    continue;
+                }
+                final Entity entity = tryResolve(id);
+                if (entity != null)
+                {
+                    removeIds.add(id);
+                    if (EntityHistory.isSupportedEntity(id.getType()))
+                    {
+                        history.addHistoryEntry(entity, timestamp, true);
+                    }
+                }
+            }
+            applyChanges(timestamp, timestamp, storeObjects, evt.getPreferencePatches(), removeIds);
         }
         finally
         {
@@ -483,6 +729,31 @@ final public class FileOperator extends LocalAbstractCachableOperator
         }
     }
 
+    /** writes the storage file if there are changes in the journal. Only changes are blocked while writing, reading is still possible*/
+    private void compactJournal() throws RaplaException
+    {
+        if (journalRecords == 0)
+        {
+            return;
+        }
+        final RaplaLock.ReadLock readLock = lockManager.readLock();
+        try
+        {
+            if (journalRecords == 0)
+            {
+                return;
+            }
+            final long start = System.currentTimeMillis();
+            final int records = journalRecords;
+            saveData(cache, null, includeIds);
+            getLogger().info("Wrote " + records + " changes from the journal to " + getURL() + " in " + (System.currentTimeMillis() - start) + " ms");
+        }
+        finally
+        {
+            lockManager.unlock(readLock);
+        }
+    }
+
 
 
     static class ImportExportMapKey
@@ -637,6 +908,9 @@ final public class FileOperator extends LocalAbstractCachableOperator
                     }
                 }
             }, storageURL);
+            // all changes in the journal are now in the file
+            FileIO.clearJournal(storageURL);
+            journalRecords = 0;
         }
         catch (IOException e)
         {
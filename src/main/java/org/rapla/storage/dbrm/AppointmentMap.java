@@ -10,6 +10,8 @@ import org.rapla.entities.storage.EntityResolver;
 import org.rapla.entities.storage.ReferenceInfo;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.Map;
@@ -20,6 +22,8 @@ public class AppointmentMap
     private Set<ReservationImpl> reservations;
     private Map<String, Set<String>> allocatableIdToAppointmentIds;
     private transient EntityResolver resolver;
+    // reservations the client already had, so the server only sent their appointment ids
+    private transient Collection<? extends Reservation> knownReservations = Collections.emptyList();
 
     public AppointmentMap()
     {
@@ -27,8 +31,15 @@ public class AppointmentMap
     }
 
     public void init(EntityResolver resolver)
+    {
+        init(resolver, Collections.<Reservation>emptyList());
+    }
+
+    /** @param knownReservations the reservations that were passed as known in the query */
+    public void init(EntityResolver resolver, Collection<? extends Reservation> knownReservations)
     {
         this.resolver = resolver;
+        this.knownReservations = knownReservations;
         for ( ReservationImpl reservation:reservations)
         {
             reservation.setResolver( resolver);
@@ -37,6 +48,13 @@ public class AppointmentMap
     }
 
     public AppointmentMap(Map<Allocatable, Collection<Appointment>> map)
+    {
+        this(map, null);
+    }
+
+    /** reservations that are contained in knownReservations with the same last changed timestamp are not added, only the ids
+     * of their appointments */
+    public AppointmentMap(Map<Allocatable, Collection<Appointment>> map, Map<String, Date> knownReservations)
     {
         this.allocatableIdToAppointmentIds = new LinkedHashMap<>();
         this.reservations = new LinkedHashSet<>();
@@ -54,15 +72,36 @@ public class AppointmentMap
             final Collection<Appointment> value = entry.getValue();
             for (Appointment app : value)
             {
-                reservations.add((ReservationImpl) app.getReservation());
+                final ReservationImpl reservation = (ReservationImpl) app.getReservation();
+                if (!isKnown(reservation, knownReservations))
+                {
+                    reservations.add(reservation);
+                }
                 ids.add(app.getId());
             }
         }
     }
 
+    static boolean isKnown(Reservation reservation, Map<String, Date> knownReservations)
+    {
+        if (knownReservations == null)
+        {
+            return false;
+        }
+        final Date lastChanged = knownReservations.get(reservation.getId());
+        return lastChanged != null && lastChanged.equals(reservation.getLastChanged());
+    }
+
     public Map<Allocatable, Collection<Appointment>> getResult(ClassificationFilter[] filters)
     {
         Map<String, Appointment> appointmentIdToAppointment = new LinkedHashMap<>();
+        for (Reservation reservation : knownReservations)
+        {
+            for (Appointment app : reservation.getAppointments())
+            {
+                appointmentIdToAppointment.put(app.getId(), app);
+            }
+        }
         for (ReservationImpl reservation : reservations)
         {
             final Appointment[] appointments = reservation.getAppointments();
@@ -0,0 +1,213 @@
+package org.rapla.storage.dbrm;
+
+import org.rapla.components.util.TimeInterval;
+import org.rapla.entities.domain.Appointment;
+import org.rapla.entities.domain.AppointmentStartComparator;
+import org.rapla.entities.domain.Reservation;
+import org.rapla.entities.domain.internal.AppointmentImpl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Client side cache of the appointments the server returned for an allocatable, together with the time windows that were queried.
+ * A query for a window that is covered by the already queried windows can be answered without a server call. The server sends the
+ * time interval of all changed reservations with each refresh, and the cached windows that overlap it are invalidated. The
+ * appointments of invalidated windows are kept until the next query of the allocatable, so their reservations can be passed as
+ * known to the server. Appointments that lie outside of every queried window are removed when the result of the query is stored.
+ */
+final class AppointmentWindowCache
+{
+    /** maximum number of allocatables with cached appointments */
+    static final int MAX_ALLOCATABLES = 500;
+
+    static final class Entry
+    {
+        // the queried windows, merged if they overlap or touch
+        final List<TimeInterval> covered = new ArrayList<TimeInterval>();
+        final Map<String, Appointment> appointments = new HashMap<String, Appointment>();
+    }
+
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest)
+        {
+            return size() > MAX_ALLOCATABLES;
+        }
+    };
+    private long generation;
+
+    /** returns a number that changes with every invalidation. Pass it to {@link #put(String, Date, Date, Collection, long)} */
+    synchronized long getGeneration()
+    {
+        return generation;
+    }
+
+    /** returns the cached appointments of the allocatable in the window sorted by start, or null if the window is not covered */
+    synchronized Collection<Appointment> get(String allocatableId, Date start, Date end)
+    {
+        final Entry entry = entries.get(allocatableId);
+        if (entry == null)
+        {
+            return null;
+        }
+        final TimeInterval window = new TimeInterval(start, end);
+        boolean covered = false;
+        for (TimeInterval interval : entry.covered)
+        {
+            if (contains(interval, window))
+            {
+                covered = true;
+                break;
+            }
+        }
+        if (!covered)
+        {
+            return null;
+        }
+        final TreeSet<Appointment> result = new TreeSet<Appointment>(new AppointmentStartComparator());
+        for (Appointment appointment : entry.appointments.values())
+        {
+            if (((AppointmentImpl) appointment).overlaps(start, end, false))
+            {
+                result.add(appointment);
+            }
+        }
+        return new LinkedHashSet<Appointment>(result);
+    }
+
+    /** stores the appointments the server returned for the window, if the cache wasn't invalidated since generation was retrieved */
+    synchronized void put(String allocatableId, Date start, Date end, Collection<Appointment> appointments, long generation)
+    {
+        if (this.generation != generation)
+        {
+            return;
+        }
+        Entry entry = entries.get(allocatableId);
+        if (entry == null)
+        {
+            entry = new Entry();
+            entries.put(allocatableId, entry);
+        }
+        for (Iterator<Appointment> it = entry.appointments.values().iterator(); it.hasNext(); )
+        {
+            if (((AppointmentImpl) it.next()).overlaps(start, end, false))
+            {
+                it.remove();
+            }
+        }
+        for (Appointment appointment : appointments)
+        {
+            entry.appointments.put(appointment.getId(), appointment);
+        }
+        TimeInterval merged = new TimeInterval(start, end);
+        for (Iterator<TimeInterval> it = entry.covered.iterator(); it.hasNext(); )
+        {
+            final TimeInterval interval = it.next();
+            if (touches(interval, merged))
+            {
+                merged = merged.union(interval);
+                it.remove();
+            }
+        }
+        entry.covered.add(merged);
+        // the appointments of invalidated windows were passed as known with the query, so they aren't needed anymore
+        for (Iterator<Appointment> it = entry.appointments.values().iterator(); it.hasNext(); )
+        {
+            if (!isCovered(entry, (AppointmentImpl) it.next()))
+            {
+                it.remove();
+            }
+        }
+    }
+
+    /** returns the reservations of the cached appointments of the allocatables */
+    synchronized Map<String, Reservation> getReservations(Collection<String> allocatableIds)
+    {
+        final Map<String, Reservation> result = new HashMap<String, Reservation>();
+        for (String allocatableId : allocatableIds)
+        {
+            final Entry entry = entries.get(allocatableId);
+            if (entry == null)
+            {
+                continue;
+            }
+            for (Appointment appointment : entry.appointments.values())
+            {
+                final Reservation reservation = appointment.getReservation();
+                if (reservation != null)
+                {
+                    result.put(reservation.getId(), reservation);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** removes the windows that overlap the interval. An interval with start and end null invalidates everything */
+    synchronized void invalidate(TimeInterval interval)
+    {
+        generation++;
+        if (interval.getStart() == null && interval.getEnd() == null)
+        {
+            entries.clear();
+            return;
+        }
+        for (Iterator<Entry> entryIt = entries.values().iterator(); entryIt.hasNext(); )
+        {
+            final Entry entry = entryIt.next();
+            for (Iterator<TimeInterval> it = entry.covered.iterator(); it.hasNext(); )
+            {
+                if (it.next().overlaps(interval))
+                {
+                    it.remove();
+                }
+            }
+            if (entry.covered.isEmpty() && entry.appointments.isEmpty())
+            {
+                entryIt.remove();
+            }
+        }
+    }
+
+    synchronized void clear()
+    {
+        generation++;
+        entries.clear();
+    }
+
+    private static boolean isCovered(Entry entry, AppointmentImpl appointment)
+    {
+        for (TimeInterval interval : entry.covered)
+        {
+            if (appointment.overlaps(interval.getStart(), interval.getEnd(), false))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean contains(TimeInterval interval, TimeInterval window)
+    {
+        final boolean startContained = interval.getStart() == null || (window.getStart() != null && !window.getStart().before(interval.getStart()));
+        final boolean endContained = interval.getEnd() == null || (window.getEnd() != null && !window.getEnd().after(interval.getEnd()));
+        return startContained && endContained;
+    }
+
+    private static boolean touches(TimeInterval interval1, TimeInterval interval2)
+    {
+        final boolean startBeforeEnd = interval1.getStart() == null || interval2.getEnd() == null || !interval1.getStart().after(interval2.getEnd());
+        final boolean endAfterStart = interval1.getEnd() == null || interval2.getStart() == null || !interval2.getStart().after(interval1.getEnd());
+        return startBeforeEnd && endAfterStart;
+    }
+}
@@ -80,6 +80,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
@@ -113,6 +114,7 @@ public class RemoteOperator
     int timezoneOffset;
     RemoteConnectionInfo connectionInfo;
     io.reactivex.disposables.Disposable schedule;
+    private final AppointmentWindowCache appointmentCache = new AppointmentWindowCache();
 
     @Inject
     public RemoteOperator(Logger logger, RaplaResources i18n, RaplaLocale locale, CommandScheduler scheduler,
@@ -301,6 +303,10 @@ public class RemoteOperator
 
     boolean refreshInProgress;
 
+    /**
+     * The server holds the refresh request until there are changes, so the next request is sent as soon as the last one returns
+     * and changes are pushed to the client. The refresh task only restarts the requests after an error.
+     */
     synchronized private void refreshAsync() {
         if (refreshInProgress) {
             return;
@@ -308,7 +314,7 @@ public class RemoteOperator
         String clientRepoVersion = getLastSyncedTime();
         RemoteStorage serv = getRemoteStorage();
         refreshInProgress = true;
-        final Promise<UpdateEvent> updateEventPromise = serv.refreshAsync(clientRepoVersion);
+        final Promise<UpdateEvent> updateEventPromise = serv.refreshWait(clientRepoVersion);
         updateEventPromise.thenAccept((evt) -> {
             refreshInProgress = false;
             try {
@@ -317,6 +323,9 @@ public class RemoteOperator
                 getLogger().error("Refreshing all resources due to " + ex.getMessage(), ex);
                 refreshAll();
             }
+            if (isConnected()) {
+                refreshAsync();
+            }
         }).exceptionally((caught) -> {
             refreshInProgress = false;
             getLogger().error("Error refreshing.", caught);
@@ -372,6 +381,7 @@ public class RemoteOperator
         try {
             bSessionActive = false;
             cache.clearAll();
+            appointmentCache.clear();
         } catch (Exception e) {
             throw new RaplaException("Could not disconnect", e);
         }
@@ -491,6 +501,7 @@ public class RemoteOperator
             updateTimestamps(evt);
             Collection<Entity> storeObjects = evt.getStoreObjects();
             cache.clearAll();
+            appointmentCache.clear();
             testResolveInitial(storeObjects);
             setResolver(storeObjects);
             for (Entity entity : storeObjects) {
@@ -728,6 +739,9 @@ public class RemoteOperator
                 return false;
             }
         }).thenCompose((refreshed) -> {
+            if (isCacheable(allocatables, annotationQuery)) {
+                return queryAppointmentsCached(allocatables, start, end, filters);
+            }
             String[] allocatableId = getIdList(allocatables);
             return serv.queryAppointments(new QueryAppointments(allocatableId, start, end, annotationQuery)).thenApply(list -> {
                 Map<Allocatable, Collection<Appointment>> filtered;
@@ -747,12 +761,91 @@ public class RemoteOperator
         return result;
     }
 
+    /** queries without annotations for normal allocatables are answered from the appointment cache. Templates are excluded
+     * because the server returns different appointments if a template is queried alone*/
+    private boolean isCacheable(Collection<Allocatable> allocatables, Map<String, String> annotationQuery) {
+        if (allocatables == null || allocatables.isEmpty() || (annotationQuery != null && !annotationQuery.isEmpty())) {
+            return false;
+        }
+        for (Allocatable allocatable : allocatables) {
+            if (allocatable == null || allocatable.getClassification().getType().getKey().equals(RAPLA_TEMPLATE)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** only the allocatables whose appointments are not cached for the window are queried from the server */
+    private Promise<Map<Allocatable, Collection<Appointment>>> queryAppointmentsCached(Collection<Allocatable> allocatables, Date start, Date end,
+                                                                                       ClassificationFilter[] filters) {
+        final long generation = appointmentCache.getGeneration();
+        final Map<Allocatable, Collection<Appointment>> cached = new HashMap<Allocatable, Collection<Appointment>>();
+        final List<Allocatable> uncovered = new ArrayList<Allocatable>();
+        for (Allocatable allocatable : allocatables) {
+            final Collection<Appointment> appointments = appointmentCache.get(allocatable.getId(), start, end);
+            if (appointments != null) {
+                cached.put(allocatable, appointments);
+            } else {
+                uncovered.add(allocatable);
+            }
+        }
+        final Promise<Map<Allocatable, Collection<Appointment>>> fetched;
+        if (uncovered.isEmpty()) {
+            fetched = new ResolvedPromise<Map<Allocatable, Collection<Appointment>>>(Collections.emptyMap());
+        } else {
+            final RemoteStorage serv = getRemoteStorage();
+            final String[] uncoveredIds = getIdList(uncovered);
+            // the reservations cached for other windows, e.g. of a weekly event, are only sent again if they have changed
+            final Map<String, Reservation> knownReservations = appointmentCache.getReservations(Arrays.asList(uncoveredIds));
+            final Map<String, Date> knownTimestamps = new HashMap<String, Date>();
+            for (Reservation reservation : knownReservations.values()) {
+                knownTimestamps.put(reservation.getId(), reservation.getLastChanged());
+            }
+            final QueryAppointments query = new QueryAppointments(uncoveredIds, start, end, null);
+            query.setKnownReservations(knownTimestamps);
+            fetched = serv.queryAppointments(query).thenApply(list -> {
+                final Map<Allocatable, Collection<Appointment>> result = processReservationResult(list, null, knownReservations.values());
+                for (Allocatable allocatable : uncovered) {
+                    final Collection<Appointment> appointments = result.get(allocatable);
+                    appointmentCache.put(allocatable.getId(), start, end,
+                            appointments != null ? appointments : Collections.<Appointment>emptyList(), generation);
+                }
+                return result;
+            });
+        }
+        return fetched.thenApply(result -> {
+            final Map<Allocatable, Collection<Appointment>> filtered = new LinkedHashMap<Allocatable, Collection<Appointment>>();
+            for (Allocatable allocatable : allocatables) {
+                Collection<Appointment> appointments = cached.get(allocatable);
+                if (appointments == null) {
+                    appointments = result.get(allocatable);
+                }
+                if (appointments == null || appointments.isEmpty()) {
+                    continue;
+                }
+                final Collection<Appointment> matching = new LinkedHashSet<Appointment>();
+                for (Appointment appointment : appointments) {
+                    if (filters == null || ClassificationFilter.Util.matches(filters, appointment.getReservation())) {
+                        matching.add(appointment);
+                    }
+                }
+                filtered.put(allocatable, matching);
+            }
+            return filtered;
+        });
+    }
+
     private Map<Allocatable, Collection<Appointment>> processReservationResult(AppointmentMap appointmentMap, ClassificationFilter[] filters)
             throws RaplaException {
+        return processReservationResult(appointmentMap, filters, Collections.<Reservation>emptyList());
+    }
+
+    private Map<Allocatable, Collection<Appointment>> processReservationResult(AppointmentMap appointmentMap, ClassificationFilter[] filters,
+                                                                              Collection<Reservation> knownReservations) throws RaplaException {
         RaplaLock.ReadLock lock = lockManager.readLock();
         try {
             final RemoteOperator resolver = this;
-            appointmentMap.init(resolver);
+            appointmentMap.init(resolver, knownReservations);
             return appointmentMap.getResult(filters);
         } finally {
             lockManager.unlock(lock);
@@ -792,6 +885,13 @@ public class RemoteOperator
     synchronized private void refresh(UpdateEvent evt) throws RaplaException {
 
         updateTimestamps(evt);
+        final TimeInterval invalidateInterval = evt.getInvalidateInterval();
+        if (containsAllocatableChange(evt)) {
+            // the cached appointments of other allocatables can depend on the changed ones, e.g. of their parents or packages
+            appointmentCache.clear();
+        } else if (invalidateInterval != null) {
+            appointmentCache.invalidate(invalidateInterval);
+        }
         if (evt.isNeedResourcesRefresh()) {
             refreshAll();
             return;
@@ -826,6 +926,20 @@ public class RemoteOperator
         }
     }
 
+    private boolean containsAllocatableChange(UpdateEvent evt) throws RaplaException {
+        for (Entity entity : evt.getStoreObjects()) {
+            if (entity.getTypeClass() == Allocatable.class) {
+                return true;
+            }
+        }
+        for (ReferenceInfo removeId : evt.getRemoveIds()) {
+            if (removeId.getType() == Allocatable.class) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     protected void refreshAll() throws RaplaException {
         UpdateResult result;
         Collection<Entity> oldEntities;
@@ -119,6 +119,8 @@ public interface RemoteStorage
         private Date start;
         private Date end;
         private Map<String, String> annotations;
+        // ids and last changed timestamps of the reservations the client already has. They are not sent again if unchanged
+        private Map<String, Date> knownReservations;
 
         public QueryAppointments(String[] resources, Date start, Date end, Map<String, String> annotations)
         {
@@ -152,6 +154,16 @@ public interface RemoteStorage
         {
             return annotations;
         }
+
+        public Map<String, Date> getKnownReservations()
+        {
+            return knownReservations;
+        }
+
+        public void setKnownReservations(Map<String, Date> knownReservations)
+        {
+            this.knownReservations = knownReservations;
+        }
     }
 
     @POST
@@ -170,6 +182,13 @@ public interface RemoteStorage
     @Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
     Promise<UpdateEvent> refreshAsync(@QueryParam("lastSynched") String lastSyncedTime);
 
+    /** like refreshAsync but the server holds the request until there are changes for the client or a timeout is reached.
+     * So clients can issue one request after the other and get changes pushed without polling in short intervals.*/
+    @POST
+    @Path("refreshWait")
+    @Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
+    Promise<UpdateEvent> refreshWait(@QueryParam("lastSynched") String lastSyncedTime);
+
     @POST
     @Path("restart")
     void restartServer() throws RaplaException;
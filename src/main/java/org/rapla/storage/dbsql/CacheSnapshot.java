@@ -0,0 +1,181 @@
+package org.rapla.storage.dbsql;
+
+import org.rapla.entities.Entity;
+import org.rapla.rest.JsonParserWrapper;
+import org.rapla.storage.UpdateEvent;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Snapshot of all entities in the cache, used to restart the server without reading and parsing all tables. The file starts with a
+ * header containing a magic number, the format version, the time of the last refresh and a CRC32 checksum, followed by the
+ * deflated json of the entities. Only the changes after the snapshot time need to be read from the database on startup.
+ */
+final class CacheSnapshot
+{
+    static final int MAGIC = 0x52415053;
+    /** increase if the json format of the entities changes */
+    static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4;
+
+    static class Content
+    {
+        UpdateEvent entities;
+        // passwords of the users, because they are not part of the user entity
+        Map<String, String> passwords;
+    }
+
+    private final Date timestamp;
+    private final Content content;
+
+    private CacheSnapshot(Date timestamp, Content content)
+    {
+        this.timestamp = timestamp;
+        this.content = content;
+    }
+
+    /** the time of the last refresh from the database, when the snapshot was taken */
+    public Date getTimestamp()
+    {
+        return timestamp;
+    }
+
+    public Collection<Entity> getEntities()
+    {
+        return content.entities.getStoreObjects();
+    }
+
+    public Map<String, String> getPasswords()
+    {
+        return content.passwords;
+    }
+
+    /** writes the snapshot to a temporary file first, so an existing snapshot is only replaced by a complete one */
+    static void write(File file, Date timestamp, Collection<Entity> entities, Map<String, String> passwords) throws IOException
+    {
+        final Content content = new Content();
+        content.entities = new UpdateEvent();
+        for (Entity entity : entities)
+        {
+            content.entities.addStore(entity);
+        }
+        content.passwords = passwords;
+        final JsonParserWrapper.JsonParser gson = JsonParserWrapper.defaultJson().get();
+        final byte[] json = gson.toJson(content).getBytes(StandardCharsets.UTF_8);
+        final ByteArrayOutputStream deflated = new ByteArrayOutputStream(json.length / 4 + 16);
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (OutputStream out = new DeflaterOutputStream(deflated, deflater))
+        {
+            out.write(json);
+        }
+        finally
+        {
+            deflater.end();
+        }
+        final byte[] payload = deflated.toByteArray();
+        final CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        final File tempFile = new File(file.getPath() + ".tmp");
+        try (FileOutputStream fileOut = new FileOutputStream(tempFile); DataOutputStream out = new DataOutputStream(fileOut))
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(timestamp.getTime());
+            out.writeLong(crc.getValue());
+            out.writeInt(payload.length);
+            out.write(payload);
+            out.flush();
+            fileOut.getChannel().force(false);
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** @return the snapshot or null if the file doesn't exist
+     * @throws IOException if the file can't be read, has a different format version or a wrong checksum */
+    static CacheSnapshot read(File file) throws IOException
+    {
+        if (!file.exists())
+        {
+            return null;
+        }
+        final byte[] payload;
+        final long timestamp;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            final long size = channel.size();
+            if (size < HEADER_SIZE)
+            {
+                throw new IOException("Snapshot " + file + " is truncated");
+            }
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt() != MAGIC)
+            {
+                throw new IOException(file + " is not a snapshot file");
+            }
+            final int version = buffer.getInt();
+            if (version != FORMAT_VERSION)
+            {
+                throw new IOException("Snapshot " + file + " has version " + version + " but " + FORMAT_VERSION + " is expected");
+            }
+            timestamp = buffer.getLong();
+            final long checksum = buffer.getLong();
+            final int length = buffer.getInt();
+            if (length < 0 || length != size - HEADER_SIZE)
+            {
+                throw new IOException("Snapshot " + file + " is truncated");
+            }
+            payload = new byte[length];
+            buffer.get(payload);
+            final CRC32 crc = new CRC32();
+            crc.update(payload);
+            if (crc.getValue() != checksum)
+            {
+                throw new IOException("Snapshot " + file + " has a wrong checksum");
+            }
+        }
+        final String json = inflate(payload);
+        final JsonParserWrapper.JsonParser gson = JsonParserWrapper.defaultJson().get();
+        final Content content = (Content) gson.fromJson(json, Content.class);
+        if (content == null || content.entities == null)
+        {
+            throw new IOException("Snapshot " + file + " contains no entities");
+        }
+        return new CacheSnapshot(new Date(timestamp), content);
+    }
+
+    private static String inflate(byte[] payload) throws IOException
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(payload.length * 4);
+        try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(payload)))
+        {
+            final byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) > 0)
+            {
+                out.write(buffer, 0, count);
+            }
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -21,6 +21,7 @@ import org.rapla.entities.User;
 import org.rapla.entities.domain.permission.PermissionExtension;
 import org.rapla.entities.dynamictype.DynamicType;
 import org.rapla.entities.extensionpoints.FunctionFactory;
+import org.rapla.entities.configuration.internal.PreferencesImpl;
 import org.rapla.entities.internal.CategoryImpl;
 import org.rapla.entities.internal.ModifiableTimestamp;
 import org.rapla.entities.storage.ImportExportEntity;
@@ -51,6 +52,7 @@ import org.rapla.storage.xml.RaplaDefaultXMLContext;
 import javax.inject.Provider;
 import javax.inject.Singleton;
 import javax.sql.DataSource;
+import java.io.File;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
@@ -84,6 +86,12 @@ import java.util.Set;
     DataSource lookup;
 
     private String connectionName;
+    /** interval for writing the cache snapshot */
+    static final long SNAPSHOT_PERIOD = DateTools.MILLISECONDS_PER_MINUTE * 30;
+    private File snapshotFile;
+    private boolean loadedFromSnapshot;
+    /** the change sequence number of the last refresh, -1 if the changes must be selected by timestamp */
+    private long lastSeqNr = -1;
     Provider<ImportExportManager> importExportManager;
 
     public DBOperator(Logger logger, PromiseWait promiseWait,RaplaResources i18n, RaplaLocale locale, final CommandScheduler scheduler, Map<String, FunctionFactory> functionFactoryMap,
@@ -115,8 +123,18 @@ import java.util.Set;
 
     }
 
+    /** enables the snapshot of the cache, that is written periodically and on disconnect and used for faster restarts. See {@link CacheSnapshot}*/
+    public void setSnapshotFile(File snapshotFile)
+    {
+        this.snapshotFile = snapshotFile;
+    }
+
     private void scheduleCleanupAndRefresh()
     {
+        if (snapshotFile != null)
+        {
+            scheduleConnectedTasks(() -> writeSnapshot(), SNAPSHOT_PERIOD, SNAPSHOT_PERIOD);
+        }
         {
             final int delay = 30000;
             final int period = 15000;
@@ -288,6 +306,11 @@ import java.util.Set;
             changeStatus(InitStatus.Loaded);
             initIndizes();
             changeStatus(InitStatus.Connected);
+            if (loadedFromSnapshot)
+            {
+                // reads the changes in the database after the snapshot was taken
+                refresh();
+            }
             scheduleCleanupAndRefresh();
         }
         /*
@@ -307,6 +330,23 @@ import java.util.Set;
         }*/
     }
 
+    @Override public void refresh() throws RaplaException
+    {
+        if (!isConnected())
+        {
+            return;
+        }
+        try (Connection c = createConnection())
+        {
+            refreshInTwoPhases(c);
+        }
+        catch (SQLException e)
+        {
+            Date lastUpdated = getLastRefreshed();
+            logger.error("Error updating model from DB. Last success was at " + lastUpdated, e);
+        }
+    }
+
     @Override protected void refreshWithoutLock()
     {
         if (!isConnected())
@@ -324,20 +364,73 @@ import java.util.Set;
         }
     }
 
+    /** polling is cheap because only the change sequence is read if nothing has changed */
+    @Override protected long getRefreshPeriod()
+    {
+        return 1000 * 2;
+    }
+
+    /** Reads the changes from the database while holding only the read lock, so readers are not blocked by the database
+     * roundtrips. The write lock is only held while the changes are applied to the history and the cache. */
+    private void refreshInTwoPhases(Connection c) throws SQLException, RaplaException
+    {
+        final RaplaSQL raplaSQLInput;
+        final RaplaSQL.Changes changes;
+        final RaplaLock.ReadLock readLock = lockManager.readLock();
+        try
+        {
+            raplaSQLInput = createRefreshInput();
+            changes = raplaSQLInput.readChanges(c, getLastRefreshed(), lastSeqNr);
+        }
+        finally
+        {
+            lockManager.unlock(readLock);
+        }
+        final RaplaLock.WriteLock writeLock = writeLockIfLoaded();
+        try
+        {
+            if (changes != null && (!changes.getSince().equals(getLastRefreshed()) || changes.getSinceSeqNr() != lastSeqNr))
+            {
+                // another refresh was applied in the meantime, so the changes must be read again
+                refreshWithoutLock(c);
+            }
+            else
+            {
+                applyChanges(raplaSQLInput, changes);
+            }
+        }
+        finally
+        {
+            lockManager.unlock(writeLock);
+        }
+    }
+
     private void refreshWithoutLock(Connection c) throws SQLException, RaplaException
+    {
+        final RaplaSQL raplaSQLInput = createRefreshInput();
+        final RaplaSQL.Changes changes = raplaSQLInput.readChanges(c, getLastRefreshed(), lastSeqNr);
+        applyChanges(raplaSQLInput, changes);
+    }
+
+    private RaplaSQL createRefreshInput() throws RaplaException
     {
         final EntityStore entityStore = new EntityStore(cache);
         final Category superCategory = cache.getSuperCategory();
-        final RaplaSQL raplaSQLInput = new RaplaSQL(createInputContext(entityStore, DBOperator.this, superCategory));
-        Date lastUpdated = getLastRefreshed();
-        Date connectionTime = raplaSQLInput.getLastUpdated(c);
+        return new RaplaSQL(createInputContext(entityStore, DBOperator.this, superCategory));
+    }
 
-        if (connectionTime.before(lastUpdated))
+    /** applies the changes read from the database. Must be called with the write lock */
+    private void applyChanges(RaplaSQL raplaSQLInput, RaplaSQL.Changes changes) throws RaplaException
+    {
+        if (changes == null)
         {
             return;
         }
-        final Collection<ReferenceInfo> allIds = raplaSQLInput.update(c, lastUpdated, connectionTime);
-        List<PreferencePatch> patches = raplaSQLInput.getPatches(c, lastUpdated);
+        final Date lastUpdated = changes.getSince();
+        final Date connectionTime = changes.getUntil();
+        lastSeqNr = changes.getUntilSeqNr();
+        final Collection<ReferenceInfo> allIds = raplaSQLInput.addToHistory(changes);
+        List<PreferencePatch> patches = changes.getPatches();
         Collection<Entity> toStore = new LinkedHashSet<Entity>();
         Set<ReferenceInfo> toRemove = new HashSet<>();
         for (ReferenceInfo id : allIds)
@@ -355,12 +448,15 @@ import java.util.Set;
             }
         }
         refresh(lastUpdated, connectionTime, toStore, patches, toRemove);
-        return;
     }
 
     @Override
     synchronized public void disconnect() throws RaplaException
     {
+        if (isConnected() && snapshotFile != null)
+        {
+            writeSnapshot();
+        }
         super.disconnect();
 
         // HSQLDB Special
@@ -394,6 +490,7 @@ import java.util.Set;
             getLogger().info("Using datasource " + c.getMetaData().getDatabaseProductName() + ": " + connectionName);
             if (upgradeDatabase(c))
             {
+                deleteSnapshot();
                 close(c);
                 c = null;
                 c = createConnection();
@@ -655,14 +752,28 @@ import java.util.Set;
 
     public void dispatch(UpdateEvent evt) throws RaplaException
     {
-        RaplaLock.WriteLock writeLock = writeLockIfLoaded();
+        // Dispatches that change different allocatables and reservations only block each other on the db level (see LockStorage).
+        // The write lock is only needed while the changes are applied to the cache, so readers don't wait for the db.
+        RaplaLock.WriteLock allocatableLock = writeLockAffectedAllocatables(evt);
         try
         {
-            //Date since = lastUpdated;
-            preprocessEventStorage(evt);
-            Collection<Entity> storeObjects = evt.getStoreObjects();
-            List<PreferencePatch> preferencePatches = evt.getPreferencePatches();
-            Collection<ReferenceInfo> removeObjects = evt.getRemoveIds();
+            final Collection<Entity> storeObjects;
+            final List<PreferencePatch> preferencePatches;
+            final Collection<ReferenceInfo> removeObjects;
+            RaplaLock.ReadLock readLock = lockManager.readLock();
+            try
+            {
+                checkLoaded();
+                //Date since = lastUpdated;
+                preprocessEventStorage(evt);
+                storeObjects = evt.getStoreObjects();
+                preferencePatches = evt.getPreferencePatches();
+                removeObjects = evt.getRemoveIds();
+            }
+            finally
+            {
+                lockManager.unlock(readLock);
+            }
             if (storeObjects.isEmpty() && preferencePatches.isEmpty() && removeObjects.isEmpty())
             {
                 return;
@@ -673,7 +784,7 @@ import java.util.Set;
                 dbStore(storeObjects, preferencePatches, removeObjects, connection, evt.getUserId());
                 try
                 {
-                    refreshWithoutLock(connection);
+                    refreshInTwoPhases(connection);
                 }
                 catch (SQLException e)
                 {
@@ -687,7 +798,7 @@ import java.util.Set;
         }
         finally
         {
-            lockManager.unlock(writeLock);
+            allocatableLocks.unlock(allocatableLock);
         }
         // TODO check if still needed
         //fireStorageUpdated(result);
@@ -748,6 +859,8 @@ import java.util.Set;
             getLogger().debug("Locks requested storing");
             raplaSQLOutput.store(connection, storeObjects, connectionTimestamp);
             raplaSQLOutput.storePatches(connection, preferencePatches, connectionTimestamp);
+            // the history is written last, so the change sequence is locked only until the commit
+            raplaSQLOutput.writeHistory(connection, connectionTimestamp, preferencePatches);
             if (bSupportsTransactions)
             {
                 getLogger().debug("Commiting");
@@ -859,6 +972,7 @@ import java.util.Set;
                 RaplaSQL raplaSQLOutput = new RaplaSQL(createOutputContext(cache));
                 raplaSQLOutput.removeAll(connection);
                 connection.commit();
+                deleteSnapshot();
                 // do something here
                 getLogger().info("DB cleared");
             }
@@ -919,6 +1033,7 @@ import java.util.Set;
         {
             connection.commit();
         }
+        deleteSnapshot();
         // do something here
         getLogger().info("Import complete for " + connectionName);
     }
@@ -961,8 +1076,11 @@ import java.util.Set;
     protected void loadData(Connection connection, LocalCache cache) throws RaplaException, SQLException
     {
         final Date lastUpdated = loadInitialLastUpdateFromDb(connection);
-        setLastRefreshed(lastUpdated);
-        setConnectStart(lastUpdated);
+        final CacheSnapshot snapshot = readSnapshot(lastUpdated);
+        loadedFromSnapshot = snapshot != null;
+        final Date loadedUntil = loadedFromSnapshot ? snapshot.getTimestamp() : lastUpdated;
+        setLastRefreshed(loadedUntil);
+        setConnectStart(loadedUntil);
         EntityStore entityStore = new EntityStore(cache);
         CategoryImpl superCategory = new CategoryImpl();
         superCategory.setId(Category.SUPER_CATEGORY_REF);
@@ -972,7 +1090,35 @@ import java.util.Set;
         entityStore.put( superCategory);
         final RaplaDefaultXMLContext inputContext = createInputContext(entityStore, this, superCategory);
         RaplaSQL raplaSQLInput = new RaplaSQL(inputContext);
-        raplaSQLInput.loadAll(connection);
+        // changes committed while the tables are read have a higher sequence number and are read again on the first refresh.
+        // The snapshot can be older than the sequence so the first refresh after loading a snapshot selects by timestamp
+        lastSeqNr = loadedFromSnapshot ? -1 : raplaSQLInput.readLastSeqNr(connection);
+        if (loadedFromSnapshot)
+        {
+            raplaSQLInput.loadHistory(connection);
+            putSnapshot(snapshot, entityStore);
+        }
+        else
+        {
+            // the history is read on a second connection while the other tables are loaded
+            Connection historyConnection = null;
+            try
+            {
+                historyConnection = createConnection();
+            }
+            catch (RaplaException ex)
+            {
+                getLogger().warn("Can't open second connection, loading history sequentially: " + ex.getMessage());
+            }
+            try
+            {
+                raplaSQLInput.loadAll(connection, historyConnection);
+            }
+            finally
+            {
+                close(historyConnection);
+            }
+        }
         final Collection<ReferenceInfo> entitiesToRemove = removeInconsistentReservations(entityStore);
 
         Collection<Entity> list = entityStore.getList();
@@ -1012,6 +1158,117 @@ import java.util.Set;
         }
     }
 
+    /** returns the snapshot if it exists and all changes after it are still in the history of the database, null otherwise*/
+    private CacheSnapshot readSnapshot(Date lastUpdated)
+    {
+        if (snapshotFile == null)
+        {
+            return null;
+        }
+        try
+        {
+            final CacheSnapshot snapshot = CacheSnapshot.read(snapshotFile);
+            if (snapshot == null)
+            {
+                return null;
+            }
+            final Date timestamp = snapshot.getTimestamp();
+            if (timestamp.after(lastUpdated) || timestamp.getTime() < lastUpdated.getTime() - HISTORY_DURATION)
+            {
+                getLogger().info("Ignoring snapshot " + snapshotFile + " from " + timestamp + ". Loading all data from database.");
+                return null;
+            }
+            getLogger().info("Using snapshot " + snapshotFile + " from " + timestamp);
+            return snapshot;
+        }
+        catch (Exception ex)
+        {
+            getLogger().warn("Can't read snapshot " + snapshotFile + ". Loading all data from database. " + ex.getMessage());
+            return null;
+        }
+    }
+
+    private void putSnapshot(CacheSnapshot snapshot, EntityStore entityStore)
+    {
+        for (Entity entity : snapshot.getEntities())
+        {
+            // internal types are already in the cache
+            if (cache.tryResolve(entity.getReference()) == null)
+            {
+                entityStore.put(entity);
+            }
+        }
+        final Map<String, String> passwords = snapshot.getPasswords();
+        if (passwords != null)
+        {
+            for (Map.Entry<String, String> entry : passwords.entrySet())
+            {
+                entityStore.putPassword(new ReferenceInfo<User>(entry.getKey(), User.class), entry.getValue());
+            }
+        }
+    }
+
+    private void writeSnapshot()
+    {
+        final long start = System.currentTimeMillis();
+        try
+        {
+            // the cached entities are replaced on a change and not modified, so only the collections are copied under the lock
+            // and the copies are serialized without blocking the writers
+            final Collection<Entity> entities = new ArrayList<Entity>();
+            final Map<String, String> passwords = new LinkedHashMap<String, String>();
+            final Date lastRefreshed;
+            final RaplaLock.ReadLock readLock = lockManager.readLock();
+            try
+            {
+                entities.addAll(CategoryImpl.getRecursive(cache.getSuperCategory()));
+                entities.addAll(cache.getDynamicTypes());
+                final PreferencesImpl systemPreferences = cache.getPreferencesForUserId(null);
+                if (systemPreferences != null)
+                {
+                    entities.add(systemPreferences);
+                }
+                for (User user : cache.getUsers())
+                {
+                    entities.add(user);
+                    final PreferencesImpl preferences = cache.getPreferencesForUserId(user.getId());
+                    if (preferences != null)
+                    {
+                        entities.add(preferences);
+                    }
+                    final String password = cache.getPassword(user.getReference());
+                    if (password != null)
+                    {
+                        passwords.put(user.getId(), password);
+                    }
+                }
+                entities.addAll(cache.getAllocatables());
+                entities.addAll(cache.getReservations());
+                entities.addAll(cache.getDisabledConflicts());
+                lastRefreshed = getLastRefreshed();
+            }
+            finally
+            {
+                lockManager.unlock(readLock);
+            }
+            CacheSnapshot.write(snapshotFile, lastRefreshed, entities, passwords);
+            getLogger().info("Snapshot written to " + snapshotFile + " in " + (System.currentTimeMillis() - start) + " ms");
+        }
+        catch (Exception ex)
+        {
+            getLogger().error("Can't write snapshot " + snapshotFile, ex);
+        }
+    }
+
+    /** called when the data in the database is replaced, so the snapshot is no longer valid */
+    private void deleteSnapshot()
+    {
+        if (snapshotFile != null && snapshotFile.exists() && !snapshotFile.delete())
+        {
+            getLogger().warn("Can't delete outdated snapshot " + snapshotFile);
+        }
+    }
+
     private RaplaDefaultXMLContext createInputContext(EntityStore store, IdCreator idCreator, Category superCategory) throws RaplaException
     {
         RaplaDefaultXMLContext inputContext = new IOContext().createInputContext(logger, raplaLocale, i18n, store, idCreator, superCategory);
@@ -38,10 +38,15 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
 import java.util.Set;
 
 abstract class EntityStorage<T extends Entity<T>> extends AbstractTableStorage implements Storage<T> {
+    /** rows fetched per roundtrip when loading complete tables */
+    static final int LOAD_FETCH_SIZE = 1000;
+    /** maximum number of ids in one IN list, some databases limit the number of list entries or parameters */
+    static final int IN_LIST_SIZE = 500;
 	//String searchForIdSql;
 
     protected LocalCache cache;
@@ -51,6 +56,8 @@ abstract class EntityStorage<T extends Entity<T>> extends AbstractTableStorage i
     protected final EntityHistory history;
     protected Collection<SubStorage<T>> subStores = new ArrayList<SubStorage<T>>();
 	private int lastParameterIndex;
+	// the column used for deleting rows by id, the foreign id for sub stores
+	private String deleteColumn;
     RaplaXMLContext context;
 
     protected EntityStorage( RaplaXMLContext context, String table,String[] entries) throws RaplaException {
@@ -96,6 +103,7 @@ abstract class EntityStorage<T extends Entity<T>> extends AbstractTableStorage i
 	{
 		selectUpdateSql = selectUpdateSql.replace("where "+idName,"where " + foreignId);
 		deleteSql = deleteSql.replace("where "+ idName, "where " + foreignId);
+		deleteColumn = foreignId;
 	}
 
 	public void updateWithForeignId( String foreignId) throws SQLException, RaplaException
@@ -220,6 +228,7 @@ abstract class EntityStorage<T extends Entity<T>> extends AbstractTableStorage i
 
         try (Statement stmt = con.createStatement())
 		{
+			stmt.setFetchSize(LOAD_FETCH_SIZE);
 			try (ResultSet rset = stmt.executeQuery(selectSql))
 			{
 				while (rset.next())
@@ -247,6 +256,10 @@ abstract class EntityStorage<T extends Entity<T>> extends AbstractTableStorage i
             if ( count > 0)
             {
                 stmt.executeBatch();
+                if (getLogger().isDebugEnabled())
+                {
+                    getLogger().debug("Inserted " + count + " rows into " + tableName);
+                }
             }
         } catch (SQLException ex) {
             throw ex;
@@ -337,6 +350,7 @@ abstract class EntityStorage<T extends Entity<T>> extends AbstractTableStorage i
         deleteFromSubStores(ids);
         if(checkLastChanged)
         {
+            final Set<String> existingIds = getExistingIds(ids);
             PreparedStatement stmt = null;
             try
             {
@@ -345,7 +359,7 @@ abstract class EntityStorage<T extends Entity<T>> extends AbstractTableStorage i
                 for (ReferenceInfo referenceInfo : entities)
                 {
                     final Timestamp castedEntity = (Timestamp)cache.get(referenceInfo.getId());
-                    if(has(referenceInfo.getId()))
+                    if(existingIds.contains(referenceInfo.getId()))
                     {
                         stmt.setString(1, referenceInfo.getId());
                         setTimestamp(stmt, 2, castedEntity.getLastChanged());
@@ -388,25 +402,72 @@ abstract class EntityStorage<T extends Entity<T>> extends AbstractTableStorage i
         }
     }
 
-	public void deleteIds(Collection<String> ids) throws SQLException, RaplaException {
-    	PreparedStatement stmt = null;
-        try {
-            stmt = con.prepareStatement(deleteSql);
-            for ( String id: ids)
+    /** returns the ids that have a row in the table, queried with IN lists instead of one query per id */
+    protected Set<String> getExistingIds(Collection<String> ids) throws SQLException
+    {
+        final Set<String> result = new HashSet<String>();
+        for (List<String> chunk : splitInLists(ids))
+        {
+            final String sql = "select " + idName + " from " + tableName + " where " + idName + " in (" + getMarkerList(chunk.size()) + ")";
+            try (PreparedStatement stmt = con.prepareStatement(sql))
             {
-                stmt.setString(1,id);
-                stmt.addBatch();
+                setStrings(stmt, chunk);
+                try (ResultSet rset = stmt.executeQuery())
+                {
+                    while (rset.next())
+                    {
+                        result.add(rset.getString(1));
+                    }
+                }
             }
-            if ( ids.size() > 0)
+        }
+        return result;
+    }
+
+    /** deletes the rows with the ids, or the foreign ids for sub stores, with one statement per IN list */
+	public void deleteIds(Collection<String> ids) throws SQLException, RaplaException {
+        final String column = deleteColumn != null ? deleteColumn : idName;
+        int count = 0;
+        for (List<String> chunk : splitInLists(ids))
+        {
+            final String sql = "delete from " + tableName + " where " + column + " in (" + getMarkerList(chunk.size()) + ")";
+            try (PreparedStatement stmt = con.prepareStatement(sql))
             {
-                stmt.executeBatch();
+                setStrings(stmt, chunk);
+                count += stmt.executeUpdate();
             }
-        } finally {
-            if (stmt!=null)
-                stmt.close();
+        }
+        if (getLogger().isDebugEnabled() && !ids.isEmpty())
+        {
+            getLogger().debug("Deleted " + count + " rows from " + tableName + " for " + ids.size() + " ids");
         }
 	}
 
+    static List<List<String>> splitInLists(Collection<String> ids)
+    {
+        final List<List<String>> result = new ArrayList<List<String>>();
+        List<String> chunk = null;
+        for (String id : ids)
+        {
+            if (chunk == null || chunk.size() == IN_LIST_SIZE)
+            {
+                chunk = new ArrayList<String>(Math.min(IN_LIST_SIZE, ids.size()));
+                result.add(chunk);
+            }
+            chunk.add(id);
+        }
+        return result;
+    }
+
+    private static void setStrings(PreparedStatement stmt, List<String> values) throws SQLException
+    {
+        int column = 1;
+        for (String value : values)
+        {
+            stmt.setString(column++, value);
+        }
+    }
+
     public void deleteAll() throws SQLException {
 		for (Storage<T> subStore: subStores)
 		{
@@ -97,6 +97,8 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 class RaplaSQL
 {
@@ -106,6 +108,7 @@ class RaplaSQL
     RaplaXMLContext context;
     PreferenceStorage preferencesStorage;
     LockStorage lockStorage;
+    ChangeSequenceStorage changeSequenceStorage;
     private final ImportExportStorage importExportStorage;
 
     RaplaSQL(RaplaXMLContext context) throws RaplaException
@@ -113,6 +116,7 @@ class RaplaSQL
         this.context = context;
         logger = context.lookup(Logger.class);
         lockStorage = new LockStorage(logger);
+        changeSequenceStorage = new ChangeSequenceStorage(logger);
         // The order is important. e.g. appointments can only be loaded if the reservation they are refering to are already loaded.
         stores.add(new CategoryStorage(context));
         stores.add(new UserStorage(context));
@@ -127,6 +131,7 @@ class RaplaSQL
         stores.add(new ConflictStorage(context));
         //stores.add(new DeleteStorage( context));
         history = new HistoryStorage(context);
+        history.setChangeSequence(changeSequenceStorage);
         stores.add(history);
 
         importExportStorage = new ImportExportStorage(context);
@@ -211,18 +216,112 @@ class RaplaSQL
 
     synchronized public void loadAll(Connection con) throws SQLException, RaplaException
     {
-        Date connectionTimestamp = getDatabaseTimestamp(con);
-        for (Storage storage : stores)
+        loadAll(con, null);
+    }
+
+    /**
+     * loads all tables in the order of the stores. If a historyConnection is passed, the history table, usually the largest one,
+     * is read on that connection in parallel. Entities that changed after the connection timestamp are restored from the history
+     * after all other tables are loaded.
+     */
+    synchronized public void loadAll(Connection con, Connection historyConnection) throws SQLException, RaplaException
+    {
+        final Date connectionTimestamp = getDatabaseTimestamp(con);
+        final long start = System.currentTimeMillis();
+        FutureTask<Long> historyLoad = null;
+        if (historyConnection != null)
         {
-            storage.setConnection(con, connectionTimestamp);
-            try
+            historyLoad = new FutureTask<Long>(() -> {
+                final long historyStart = System.currentTimeMillis();
+                history.setConnection(historyConnection, connectionTimestamp);
+                try
+                {
+                    history.loadEntries();
+                }
+                finally
+                {
+                    history.removeConnection();
+                }
+                return System.currentTimeMillis() - historyStart;
+            });
+            final Thread thread = new Thread(historyLoad, "rapla-history-load");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        for (RaplaTypeStorage storage : stores)
+        {
+            final long storeStart = System.currentTimeMillis();
+            if (storage == history && historyLoad != null)
             {
-                storage.loadAll();
+                final long historyTime = waitFor(historyLoad);
+                logger.info("Loaded " + history.getTableName() + " in parallel in " + historyTime + " ms");
+                history.setConnection(con, connectionTimestamp);
+                try
+                {
+                    history.restoreFromHistory();
+                }
+                finally
+                {
+                    history.removeConnection();
+                }
             }
-            finally
+            else
             {
-                storage.removeConnection();
+                storage.setConnection(con, connectionTimestamp);
+                try
+                {
+                    storage.loadAll();
+                }
+                finally
+                {
+                    storage.removeConnection();
+                }
             }
+            logger.info("Loaded " + storage.getTableName() + " in " + (System.currentTimeMillis() - storeStart) + " ms");
+        }
+        logger.info("Loaded all tables in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /** reads only the history table, used when the entities are restored from a snapshot */
+    synchronized public void loadHistory(Connection con) throws SQLException, RaplaException
+    {
+        final Date connectionTimestamp = getDatabaseTimestamp(con);
+        final long start = System.currentTimeMillis();
+        history.setConnection(con, connectionTimestamp);
+        try
+        {
+            history.loadEntries();
+        }
+        finally
+        {
+            history.removeConnection();
+        }
+        logger.info("Loaded " + history.getTableName() + " in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    private Long waitFor(FutureTask<Long> task) throws SQLException, RaplaException
+    {
+        try
+        {
+            return task.get();
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new RaplaException("Interrupted while loading the history", ex);
+        }
+        catch (ExecutionException ex)
+        {
+            final Throwable cause = ex.getCause();
+            if (cause instanceof SQLException)
+            {
+                throw (SQLException) cause;
+            }
+            if (cause instanceof RaplaException)
+            {
+                throw (RaplaException) cause;
+            }
+            throw new RaplaException(cause);
         }
     }
 
@@ -306,6 +405,7 @@ class RaplaSQL
     private void store(Connection con, Date connectionTimestamp, Map<Storage, List<Entity>> store, Storage storage) throws SQLException, RaplaException
     {
         List<Entity> list = store.get(storage);
+        final long start = System.currentTimeMillis();
         storage.setConnection(con, connectionTimestamp);
         try
         {
@@ -315,6 +415,10 @@ class RaplaSQL
         {
             storage.removeConnection();
         }
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Stored " + list.size() + " entities in " + storage.getTableName() + " in " + (System.currentTimeMillis() - start) + " ms");
+        }
     }
 
     public void createOrUpdateIfNecessary(Connection con, Map<String, TableDef> schema) throws SQLException, RaplaException
@@ -343,6 +447,7 @@ class RaplaSQL
         final List<TableStorage> storesWithChildren = new ArrayList<>();
         storesWithChildren.addAll(getStoresWithChildren());
         storesWithChildren.add(lockStorage);
+        storesWithChildren.add(changeSequenceStorage);
         return storesWithChildren;
     }
 
@@ -360,17 +465,141 @@ class RaplaSQL
         }
     }
 
-    public Collection<ReferenceInfo> update(Connection c, Date lastUpdated, Date connectionTimestamp) throws SQLException, RaplaException
+    /** writes the history rows of the stored and removed entities with their sequence numbers. Must be the last statement before the
+     * commit, because the sequence stays locked until the commit and blocks the other writers. The stored preference patches are not
+     * written to the history, so one more number is reserved and set on their rows. The rows are already locked by this transaction, so the
+     * update can't wait for another writer */
+    synchronized public void writeHistory(Connection con, Date connectionTimestamp, List<PreferencePatch> storedPatches) throws SQLException
+    {
+        final long patchSeqNr;
+        history.setConnection(con, connectionTimestamp);
+        try
+        {
+            patchSeqNr = history.writePendingChanges(!storedPatches.isEmpty());
+        }
+        finally
+        {
+            history.removeConnection();
+        }
+        if (patchSeqNr < 0)
+        {
+            return;
+        }
+        preferencesStorage.setConnection(con, connectionTimestamp);
+        try
+        {
+            preferencesStorage.setSeqNr(storedPatches, patchSeqNr);
+        }
+        finally
+        {
+            preferencesStorage.removeConnection();
+        }
+    }
+
+    /** the changes in the database between two refreshes. They are read without modifying the entity history or the cache */
+    static final class Changes
+    {
+        private final Date since;
+        private final Date until;
+        private final List<HistoryStorage.Change> historyChanges;
+        private final List<PreferencePatch> patches;
+        private final long sinceSeqNr;
+        private final long untilSeqNr;
+
+        Changes(Date since, Date until, long sinceSeqNr, long untilSeqNr, List<HistoryStorage.Change> historyChanges, List<PreferencePatch> patches)
+        {
+            this.since = since;
+            this.until = until;
+            this.sinceSeqNr = sinceSeqNr;
+            this.untilSeqNr = untilSeqNr;
+            this.historyChanges = historyChanges;
+            this.patches = patches;
+        }
+
+        public Date getSince()
+        {
+            return since;
+        }
+
+        public Date getUntil()
+        {
+            return until;
+        }
+
+        public List<PreferencePatch> getPatches()
+        {
+            return patches;
+        }
+
+        public long getSinceSeqNr()
+        {
+            return sinceSeqNr;
+        }
+
+        /** the last committed change sequence number when the changes were read */
+        public long getUntilSeqNr()
+        {
+            return untilSeqNr;
+        }
+    }
+
+    /** reads the changes since lastUpdated. If lastSeqNr is known only the changes with a higher sequence number are read, and
+     * nothing is read if the sequence hasn't changed. Otherwise the changes are selected by timestamp.
+     * Returns null if the database timestamp is before lastUpdated*/
+    public Changes readChanges(Connection c, Date lastUpdated, long lastSeqNr) throws SQLException, RaplaException
     {
+        final Date connectionTimestamp = getLastUpdated(c);
+        if (connectionTimestamp.before(lastUpdated))
+        {
+            return null;
+        }
+        final long untilSeqNr;
+        final List<HistoryStorage.Change> historyChanges;
         history.setConnection(c, connectionTimestamp);
         try
         {
-            return history.update(lastUpdated);
+            // read the sequence first, changes committed after that are read again on the next refresh
+            untilSeqNr = history.readLastSeqNr();
+            if (lastSeqNr < 0)
+            {
+                historyChanges = history.readChanges(lastUpdated);
+            }
+            else if (untilSeqNr == lastSeqNr)
+            {
+                return new Changes(lastUpdated, connectionTimestamp, lastSeqNr, untilSeqNr, Collections.emptyList(),
+                        Collections.emptyList());
+            }
+            else
+            {
+                historyChanges = history.readChanges(lastSeqNr, untilSeqNr);
+            }
         }
         finally
         {
             history.removeConnection();
         }
+        final List<PreferencePatch> patches = lastSeqNr < 0 ? getPatches(c, lastUpdated) : getPatches(c, lastSeqNr, untilSeqNr);
+        return new Changes(lastUpdated, connectionTimestamp, lastSeqNr, untilSeqNr, historyChanges, patches);
+    }
+
+    /** returns the sequence number of the last committed change */
+    public long readLastSeqNr(Connection c) throws SQLException
+    {
+        changeSequenceStorage.setConnection(c, null);
+        try
+        {
+            return changeSequenceStorage.readLastSeqNr();
+        }
+        finally
+        {
+            changeSequenceStorage.removeConnection();
+        }
+    }
+
+    /** adds the read changes to the entity history and returns the ids of the changed entities */
+    public Collection<ReferenceInfo> addToHistory(Changes changes)
+    {
+        return history.addToHistory(changes.historyChanges);
     }
 
     public List<PreferencePatch> getPatches(Connection c, Date lastUpdated) throws SQLException, RaplaException
@@ -386,6 +615,19 @@ class RaplaSQL
         }
     }
 
+    public List<PreferencePatch> getPatches(Connection c, long afterSeqNr, long untilSeqNr) throws SQLException, RaplaException
+    {
+        try
+        {
+            preferencesStorage.setConnection(c, null);
+            return preferencesStorage.getPatches(afterSeqNr, untilSeqNr);
+        }
+        finally
+        {
+            preferencesStorage.setConnection(null, null);
+        }
+    }
+
     public Map<String,ImportExportEntity> getImportExportEntities(String id, int importExportDirection, Connection con) throws RaplaException
     {
         try
@@ -839,6 +1081,68 @@ class LockStorage extends AbstractTableStorage
     }
 }
 
+/**
+ * Counter for the sequence numbers of the rows in the CHANGES table. The counter row stays locked until the writing transaction
+ * commits, so the sequence numbers are committed in ascending order and a node that polls for changes after a sequence number
+ * doesn't miss rows of transactions that are still running. Because the lock serializes the writers, the numbers are reserved as the
+ * last statement before the commit.
+ */
+class ChangeSequenceStorage extends AbstractTableStorage
+{
+    static final String CHANGES_SEQUENCE = "CHANGES";
+    private final String incrementSql = "UPDATE CHANGES_SEQUENCE SET SEQ_NR = SEQ_NR + ? WHERE ID = ?";
+    private final String readSql = "SELECT SEQ_NR FROM CHANGES_SEQUENCE WHERE ID = ?";
+
+    public ChangeSequenceStorage(Logger logger)
+    {
+        super("CHANGES_SEQUENCE", logger, new String[] { "ID VARCHAR(255) NOT NULL PRIMARY KEY", "SEQ_NR BIGINT NOT NULL" }, false);
+    }
+
+    @Override
+    public void createOrUpdateIfNecessary(Map<String, TableDef> schema) throws SQLException, RaplaException
+    {
+        super.createOrUpdateIfNecessary(schema);
+        if (readLastSeqNr() < 0)
+        {
+            try (PreparedStatement stmt = con.prepareStatement(insertSql))
+            {
+                stmt.setString(1, CHANGES_SEQUENCE);
+                stmt.setLong(2, 0);
+                stmt.execute();
+            }
+            con.commit();
+        }
+    }
+
+    /** reserves count sequence numbers and returns the first one */
+    public long reserve(int count) throws SQLException
+    {
+        try (PreparedStatement stmt = con.prepareStatement(incrementSql))
+        {
+            stmt.setLong(1, count);
+            stmt.setString(2, CHANGES_SEQUENCE);
+            if (stmt.executeUpdate() != 1)
+            {
+                throw new SQLException("Sequence " + CHANGES_SEQUENCE + " not found in table " + tableName);
+            }
+        }
+        return readLastSeqNr() - count + 1;
+    }
+
+    /** returns the last committed sequence number or -1 if the sequence is not initialized*/
+    public long readLastSeqNr() throws SQLException
+    {
+        try (PreparedStatement stmt = con.prepareStatement(readSql))
+        {
+            stmt.setString(1, CHANGES_SEQUENCE);
+            try (ResultSet result = stmt.executeQuery())
+            {
+                return result.next() ? result.getLong(1) : -1;
+            }
+        }
+    }
+}
+
 abstract class RaplaTypeStorage<T extends Entity<T>> extends EntityStorage<T>
 {
     Class<? extends Entity> raplaType;
@@ -1641,24 +1945,24 @@ class AppointmentStorage extends RaplaTypeStorage<Appointment>
     {
         // look for all appointment ids, as the sub storages must be deleted with appointment id
         final Set<String> ids = new HashSet<String>();
-        final String sql = "SELECT ID FROM APPOINTMENT WHERE EVENT_ID=?";
-        for (String eventId : reservationIds)
+        for (List<String> eventIds : splitInLists(reservationIds))
         {
-            ResultSet rset = null;
+            final String sql = "SELECT ID FROM APPOINTMENT WHERE EVENT_ID IN (" + getMarkerList(eventIds.size()) + ")";
             try (final PreparedStatement stmt = con.prepareStatement(sql))
             {
-                setString(stmt, 1, eventId);
-                rset = stmt.executeQuery();
-                while (rset.next())
+                int column = 1;
+                for (String eventId : eventIds)
                 {
-                    String appointmentId = readId(rset, 1, Appointment.class).getId();
-                    ids.add(appointmentId);
+                    setString(stmt, column++, eventId);
+                }
+                try (ResultSet rset = stmt.executeQuery())
+                {
+                    while (rset.next())
+                    {
+                        String appointmentId = readId(rset, 1, Appointment.class).getId();
+                        ids.add(appointmentId);
+                    }
                 }
-            }
-            finally
-            {
-                if (rset != null)
-                    rset.close();
             }
         }
         // and delete them
@@ -1995,23 +2299,44 @@ class DynamicTypeStorage extends RaplaTypeStorage<DynamicType>
 class PreferenceStorage extends RaplaTypeStorage<Preferences>
 {
     private final String updateSql;
+    private final String updateBySeqNrSql;
 
     public PreferenceStorage(RaplaXMLContext context) throws RaplaException
     {
         super(context, Preferences.class, "PREFERENCE",
                 new String[] { "USER_ID VARCHAR(255) KEY", "ROLE VARCHAR(255) NOT NULL", "STRING_VALUE VARCHAR(10000)", "XML_VALUE TEXT",
-                        "LAST_CHANGED TIMESTAMP KEY" }, false);
+                        "LAST_CHANGED TIMESTAMP KEY", "SEQ_NR BIGINT KEY" }, false);
         this.updateSql = "SELECT USER_ID, ROLE, STRING_VALUE, XML_VALUE, LAST_CHANGED FROM PREFERENCE WHERE LAST_CHANGED > ?";
+        this.updateBySeqNrSql = "SELECT USER_ID, ROLE, STRING_VALUE, XML_VALUE, LAST_CHANGED FROM PREFERENCE WHERE SEQ_NR > ? AND SEQ_NR <= ?";
     }
 
+    /** reads the patches by timestamp. Prefer getPatches(long, long), because the timestamp is taken before the writer commits */
     public List<PreferencePatch> getPatches(Date lastUpdated) throws SQLException, RaplaException
     {
-        Map<String, PreferencePatch> userIdToPatch = new HashMap<String, PreferencePatch>();
-        final ArrayList<PreferencePatch> patches = new ArrayList<PreferencePatch>();
         try (final PreparedStatement stmt = con.prepareStatement(updateSql))
         {
             stmt.setTimestamp(1, new java.sql.Timestamp(lastUpdated.getTime()));
-            final ResultSet result = stmt.executeQuery();
+            return readPatches(stmt);
+        }
+    }
+
+    /** reads the patches with sequence numbers after afterSeqNr up to untilSeqNr (see ChangeSequenceStorage) */
+    public List<PreferencePatch> getPatches(long afterSeqNr, long untilSeqNr) throws SQLException, RaplaException
+    {
+        try (final PreparedStatement stmt = con.prepareStatement(updateBySeqNrSql))
+        {
+            stmt.setLong(1, afterSeqNr);
+            stmt.setLong(2, untilSeqNr);
+            return readPatches(stmt);
+        }
+    }
+
+    private List<PreferencePatch> readPatches(PreparedStatement stmt) throws SQLException, RaplaException
+    {
+        Map<String, PreferencePatch> userIdToPatch = new HashMap<String, PreferencePatch>();
+        final ArrayList<PreferencePatch> patches = new ArrayList<PreferencePatch>();
+        try (final ResultSet result = stmt.executeQuery())
+        {
             while (result.next())
             {
                 final String userId = result.getString(1);
@@ -2052,9 +2377,51 @@ class PreferenceStorage extends RaplaTypeStorage<Preferences>
     {
         super.createOrUpdateIfNecessary(schema);
         checkAndAdd(schema, "LAST_CHANGED");
+        checkAndAdd(schema, "SEQ_NR");
         checkAndDrop(schema, "DELETED");
     }
 
+    /** sets the change sequence number on the rows of the stored patches */
+    public void setSeqNr(List<PreferencePatch> preferencePatches, long seqNr) throws SQLException
+    {
+        try (final PreparedStatement userStmt = con.prepareStatement("UPDATE " + getTableName() + " SET SEQ_NR = ? WHERE USER_ID = ? AND ROLE = ?");
+             final PreparedStatement systemStmt = con.prepareStatement("UPDATE " + getTableName() + " SET SEQ_NR = ? WHERE USER_ID IS NULL AND ROLE = ?"))
+        {
+            int userCount = 0;
+            int systemCount = 0;
+            for (PreferencePatch patch : preferencePatches)
+            {
+                final String userId = patch.getUserId();
+                for (String role : patch.keySet())
+                {
+                    if (userId != null)
+                    {
+                        userStmt.setLong(1, seqNr);
+                        setString(userStmt, 2, userId);
+                        setString(userStmt, 3, role);
+                        userStmt.addBatch();
+                        userCount++;
+                    }
+                    else
+                    {
+                        systemStmt.setLong(1, seqNr);
+                        setString(systemStmt, 2, role);
+                        systemStmt.addBatch();
+                        systemCount++;
+                    }
+                }
+            }
+            if (userCount > 0)
+            {
+                userStmt.executeBatch();
+            }
+            if (systemCount > 0)
+            {
+                systemStmt.executeBatch();
+            }
+        }
+    }
+
     public void storePatches(List<PreferencePatch> preferencePatches) throws RaplaException, SQLException
     {
         for (PreferencePatch patch : preferencePatches)
@@ -2217,6 +2584,8 @@ class PreferenceStorage extends RaplaTypeStorage<Preferences>
         setString(stmt, 3, entryString);
         setText(stmt, 4, xml);
         setTimestamp(stmt, 5, lastChanged);
+        // set just before the commit, see setSeqNr
+        setLong(stmt, 6, null);
         stmt.addBatch();
     }
 
@@ -2556,13 +2925,40 @@ class HistoryStorage<T extends Entity<T>> extends RaplaTypeStorage<T>
     private JsonParserWrapper.JsonParser gson;
     private final Date supportTimestamp;
     private final String loadAllUpdatesSql;
+    private final String loadUpdatesBySeqNrSql;
+    private ChangeSequenceStorage changeSequence;
+    private long nextSeqNr;
+    // rows of the current transaction, written with their sequence numbers just before the commit
+    private final List<PendingChange> pendingChanges = new ArrayList<PendingChange>();
+
+    /** a row of the changes table, that is not yet written */
+    private static final class PendingChange
+    {
+        final String id;
+        final String type;
+        final String entityClass;
+        final String json;
+        final Date changedAt;
+        final boolean isDelete;
+
+        PendingChange(String id, String type, String entityClass, String json, Date changedAt, boolean isDelete)
+        {
+            this.id = id;
+            this.type = type;
+            this.entityClass = entityClass;
+            this.json = json;
+            this.changedAt = changedAt;
+            this.isDelete = isDelete;
+        }
+    }
 
     HistoryStorage(RaplaXMLContext context) throws RaplaException
     {
         super(context, null, "CHANGES",
                 new String[] { "ID VARCHAR(255) KEY", "TYPE VARCHAR(50)", "ENTITY_CLASS VARCHAR(255)", "XML_VALUE TEXT NOT NULL", "CHANGED_AT TIMESTAMP KEY",
-                        "ISDELETE INTEGER NOT NULL" });
+                        "ISDELETE INTEGER NOT NULL", "SEQ_NR BIGINT KEY" });
         loadAllUpdatesSql = "SELECT ID, TYPE, ENTITY_CLASS, XML_VALUE, CHANGED_AT, ISDELETE FROM CHANGES WHERE CHANGED_AT >= ? ORDER BY CHANGED_AT ASC";
+        loadUpdatesBySeqNrSql = "SELECT ID, TYPE, ENTITY_CLASS, XML_VALUE, CHANGED_AT, ISDELETE FROM CHANGES WHERE SEQ_NR > ? AND SEQ_NR <= ? ORDER BY SEQ_NR ASC";
         Class[] additionalClasses = new Class[] { RaplaMapImpl.class };
         gson = JsonParserWrapper.defaultJson().get();
         if (context.has(Date.class))
@@ -2621,6 +3017,32 @@ class HistoryStorage<T extends Entity<T>> extends RaplaTypeStorage<T>
         }
     }
 
+    void setChangeSequence(ChangeSequenceStorage changeSequence)
+    {
+        this.changeSequence = changeSequence;
+    }
+
+    @Override
+    public void setConnection(Connection con, Date connectionTimestamp) throws SQLException
+    {
+        super.setConnection(con, connectionTimestamp);
+        changeSequence.setConnection(con, connectionTimestamp);
+    }
+
+    @Override
+    public void removeConnection()
+    {
+        super.removeConnection();
+        changeSequence.removeConnection();
+    }
+
+    @Override
+    public void createOrUpdateIfNecessary(Map<String, TableDef> schema) throws SQLException, RaplaException
+    {
+        super.createOrUpdateIfNecessary(schema);
+        checkAndAdd(schema, "SEQ_NR");
+    }
+
     @Override
     protected void createSQL(Collection<ColumnDef> entries)
     {
@@ -2641,6 +3063,7 @@ class HistoryStorage<T extends Entity<T>> extends RaplaTypeStorage<T>
         {
             return;
         }
+        nextSeqNr = changeSequence.reserve(entites.size());
         try (PreparedStatement stmt = con.prepareStatement(insertSql))
         {
             for (Entity entity : entites)
@@ -2690,24 +3113,39 @@ class HistoryStorage<T extends Entity<T>> extends RaplaTypeStorage<T>
         return resolvedEntities;
     }
 
-    private void insert(Iterable<T> entities, boolean asDelete) throws SQLException, RaplaException
+    /** the rows are only buffered, see {@link #writePendingChanges(boolean)} */
+    private void insert(Iterable<T> entities, boolean asDelete)
     {
-        try (PreparedStatement stmt = con.prepareStatement(insertSql))
+        for (T entity : entities)
         {
-            int count = 0;
-            for (T entity : entities)
-            {
-                count += write(stmt, entity, asDelete);
-            }
-            if (count > 0)
+            pendingChanges.add(createChange(entity, asDelete));
+        }
+    }
+
+    /** reserves the sequence numbers and writes the buffered rows. If reserveForPatches is true, one more number is reserved for the
+     * preference patches of the transaction.
+     * @return the number reserved for the patches or -1 */
+    long writePendingChanges(boolean reserveForPatches) throws SQLException
+    {
+        final int count = pendingChanges.size() + (reserveForPatches ? 1 : 0);
+        if (count == 0)
+        {
+            return -1;
+        }
+        nextSeqNr = changeSequence.reserve(count);
+        if (!pendingChanges.isEmpty())
+        {
+            try (PreparedStatement stmt = con.prepareStatement(insertSql))
             {
+                for (PendingChange change : pendingChanges)
+                {
+                    write(stmt, change);
+                }
                 stmt.executeBatch();
             }
+            pendingChanges.clear();
         }
-        catch (SQLException ex)
-        {
-            throw ex;
-        }
+        return reserveForPatches ? nextSeqNr : -1;
     }
 
     @Override
@@ -2730,18 +3168,73 @@ class HistoryStorage<T extends Entity<T>> extends RaplaTypeStorage<T>
 
     protected int write(PreparedStatement stmt, T entity, boolean asDeletion) throws SQLException, RaplaException
     {
-        stmt.setString(1, entity.getId());
-        stmt.setString(2, RaplaType.getLocalName(entity));
-        stmt.setString(3, entity.getClass().getCanonicalName());
+        write(stmt, createChange(entity, asDeletion));
+        return 1;
+    }
+
+    private PendingChange createChange(T entity, boolean asDeletion)
+    {
         final String xml = gson.toJson(entity);
-        setText(stmt, 4, xml);
-        stmt.setTimestamp(5, new java.sql.Timestamp(getConnectionTimestamp().getTime()));
-        setInt(stmt, 6, asDeletion ? 1 : 0);
+        return new PendingChange(entity.getId(), RaplaType.getLocalName(entity), entity.getClass().getCanonicalName(), xml, getConnectionTimestamp(),
+                asDeletion);
+    }
+
+    private void write(PreparedStatement stmt, PendingChange change) throws SQLException
+    {
+        stmt.setString(1, change.id);
+        stmt.setString(2, change.type);
+        stmt.setString(3, change.entityClass);
+        setText(stmt, 4, change.json);
+        stmt.setTimestamp(5, new java.sql.Timestamp(change.changedAt.getTime()));
+        setInt(stmt, 6, change.isDelete ? 1 : 0);
+        stmt.setLong(7, nextSeqNr++);
         stmt.addBatch();
-        return 1;
     }
 
-    public Collection<ReferenceInfo> update(Date lastUpdated) throws SQLException, RaplaException
+    /** a row of the changes table, that is read but not yet added to the entity history */
+    static final class Change
+    {
+        final ReferenceInfo id;
+        final String json;
+        final Date lastChanged;
+        final boolean isDelete;
+
+        Change(ReferenceInfo id, String json, Date lastChanged, boolean isDelete)
+        {
+            this.id = id;
+            this.json = json;
+            this.lastChanged = lastChanged;
+            this.isDelete = isDelete;
+        }
+    }
+
+    /** returns the sequence number of the last committed change */
+    public long readLastSeqNr() throws SQLException
+    {
+        return changeSequence.readLastSeqNr();
+    }
+
+    /** reads the changes with sequence numbers after afterSeqNr up to untilSeqNr without modifying the entity history */
+    public List<Change> readChanges(long afterSeqNr, long untilSeqNr) throws SQLException, RaplaException
+    {
+        try (final PreparedStatement stmt = con.prepareStatement(loadUpdatesBySeqNrSql))
+        {
+            stmt.setLong(1, afterSeqNr);
+            stmt.setLong(2, untilSeqNr);
+            List<Change> changes = new ArrayList<Change>();
+            try (ResultSet result = stmt.executeQuery())
+            {
+                while (result.next())
+                {
+                    changes.add(readChange(result));
+                }
+            }
+            return changes;
+        }
+    }
+
+    /** reads the changes since lastUpdated without modifying the entity history */
+    public List<Change> readChanges(Date lastUpdated) throws SQLException, RaplaException
     {
         try (final PreparedStatement stmt = con.prepareStatement(loadAllUpdatesSql))
         {
@@ -2751,74 +3244,101 @@ class HistoryStorage<T extends Entity<T>> extends RaplaTypeStorage<T>
             {
                 return Collections.emptyList();
             }
-            Collection<ReferenceInfo> ids = new HashSet<ReferenceInfo>();
+            List<Change> changes = new ArrayList<Change>();
             while (result.next())
             {
-                load(result);
-                final String id = result.getString(1);
-                final String raplaTypeLocalName = result.getString(2);
-                final Class<? extends Entity> typeClass = RaplaType.find(raplaTypeLocalName);
-                ids.add(new ReferenceInfo(id, typeClass));
+                changes.add(readChange(result));
             }
-            return ids;
+            return changes;
+        }
+    }
+
+    /** adds the changes to the entity history and returns the ids of the changed entities */
+    public Collection<ReferenceInfo> addToHistory(List<Change> changes)
+    {
+        Collection<ReferenceInfo> ids = new HashSet<ReferenceInfo>();
+        for (Change change : changes)
+        {
+            history.addHistoryEntry(change.id, change.json, change.lastChanged, change.isDelete);
+            ids.add(change.id);
         }
+        return ids;
     }
 
     @Override
     public void loadAll() throws SQLException, RaplaException
     {
-        try (Statement stmt = con.createStatement(); ResultSet rset = stmt.executeQuery(selectSql))
+        loadEntries();
+        restoreFromHistory();
+    }
+
+    /** reads the history table into the entity history. Doesn't access other stores, so it can run in parallel to their loading. */
+    void loadEntries() throws SQLException, RaplaException
+    {
+        try (Statement stmt = con.createStatement())
         {
-            final HashSet<String> finishedIdsToLoad = new HashSet<String>();
-            while (rset.next())
+            stmt.setFetchSize(LOAD_FETCH_SIZE);
+            try (ResultSet rset = stmt.executeQuery(selectSql))
             {
-                final String id = rset.getString(1);
-                if (finishedIdsToLoad.contains(id))
-                {
-                    continue;
-                }
-                load(rset);
-                // the select is ordered desc by last_changed, so if we get to early in time, we do not need to load it
-                final Date timestamp = getTimestamp(rset, 5, false);
-                if (supportTimestamp != null && timestamp != null && timestamp.getTime() < supportTimestamp.getTime())
-                {
-                    finishedIdsToLoad.add(id);
-                }
+                loadEntries(rset);
             }
         }
+    }
+
+    private void loadEntries(ResultSet rset) throws SQLException, RaplaException
+    {
+        final HashSet<String> finishedIdsToLoad = new HashSet<String>();
+        while (rset.next())
         {
-            final Collection<ReferenceInfo> allIds = history.getAllIds();
-            final Date connectionTimestamp = getConnectionTimestamp();
-            for (ReferenceInfo id : allIds)
+            final String id = rset.getString(1);
+            if (finishedIdsToLoad.contains(id))
+            {
+                continue;
+            }
+            load(rset);
+            // the select is ordered desc by last_changed, so if we get to early in time, we do not need to load it
+            final Date timestamp = getTimestamp(rset, 5, false);
+            if (supportTimestamp != null && timestamp != null && timestamp.getTime() < supportTimestamp.getTime())
             {
-                final Entity<?> entity = entityStore.tryResolve(id);
-                if (entity == null)
+                finishedIdsToLoad.add(id);
+            }
+        }
+    }
+
+    /** replaces the loaded entities that changed after the connection timestamp with their version from the history. Must be called after all other stores are loaded. */
+    void restoreFromHistory() throws RaplaException
+    {
+        final Collection<ReferenceInfo> allIds = history.getAllIds();
+        final Date connectionTimestamp = getConnectionTimestamp();
+        for (ReferenceInfo id : allIds)
+        {
+            final Entity<?> entity = entityStore.tryResolve(id);
+            if (entity == null)
+            {
+                final HistoryEntry before = history.getLastChangedUntil(id, connectionTimestamp);
+                if (before != null && before.getTimestamp() >= connectionTimestamp.getTime())
                 {
-                    final HistoryEntry before = history.getLastChangedUntil(id, connectionTimestamp);
-                    if (before != null && before.getTimestamp() >= connectionTimestamp.getTime())
-                    {
-                        put(history.getEntity(before));
-                    }
-                    continue;
+                    put(history.getEntity(before));
                 }
-                if (entity instanceof Timestamp)
+                continue;
+            }
+            if (entity instanceof Timestamp)
+            {
+                final Date lastChanged = ((Timestamp) entity).getLastChanged();
+                if (lastChanged != null)
                 {
-                    final Date lastChanged = ((Timestamp) entity).getLastChanged();
-                    if (lastChanged != null)
-                    {
-                        if (lastChanged.after(connectionTimestamp))
-                        {// we need to restore from history
-                            final HistoryEntry before = history.getLastChangedUntil(id, connectionTimestamp);
-                            if (before != null)
-                            {
-                                put(history.getEntity(before));
-                            }
+                    if (lastChanged.after(connectionTimestamp))
+                    {// we need to restore from history
+                        final HistoryEntry before = history.getLastChangedUntil(id, connectionTimestamp);
+                        if (before != null)
+                        {
+                            put(history.getEntity(before));
                         }
                     }
-                    else
-                    {
-                        logger.debug("Ignoring entity without timestamp " + entity);
-                    }
+                }
+                else
+                {
+                    logger.debug("Ignoring entity without timestamp " + entity);
                 }
             }
         }
@@ -2826,15 +3346,20 @@ class HistoryStorage<T extends Entity<T>> extends RaplaTypeStorage<T>
 
     @Override
     protected void load(ResultSet rs) throws SQLException, RaplaException
+    {
+        final Change change = readChange(rs);
+        history.addHistoryEntry(change.id, change.json, change.lastChanged, change.isDelete);
+    }
+
+    private Change readChange(ResultSet rs) throws SQLException, RaplaException
     {
         final String id = rs.getString(1);
         final String raplaTypeLocalName = rs.getString(2);
         final Class<? extends Entity> typeClass = RaplaType.find(raplaTypeLocalName);
-        final String className = getString(rs, 3, null);
         final String json = getText(rs, 4);
         final Date lastChanged = new Date(rs.getTimestamp(5).getTime());
         final Integer isDelete = getInt(rs, 6);
-        history.addHistoryEntry(new ReferenceInfo(id, typeClass), json, lastChanged, isDelete != null && isDelete == 1);
+        return new Change(new ReferenceInfo(id, typeClass), json, lastChanged, isDelete != null && isDelete == 1);
     }
 
 }
@@ -0,0 +1,144 @@
+package org.rapla.storage.impl;
+
+import org.rapla.entities.storage.ReferenceInfo;
+import org.rapla.framework.RaplaException;
+import org.rapla.framework.RaplaSynchronizationException;
+import org.rapla.logger.Logger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Read/write locks for single entities, e.g. the allocatables and reservations that are affected by a dispatch.
+ * The entities are mapped to a fixed number of stripes, so two entities can share a lock.
+ * The stripes are always acquired in ascending order, so two threads locking overlapping sets of entities can't deadlock.
+ * If you also need the operator lock, acquire the stripes first.
+ */
+public class StripedRaplaLock
+{
+    public static final int DEFAULT_STRIPES = 64;
+    private final ReadWriteLock[] stripes;
+    private final Logger logger;
+
+    public StripedRaplaLock(Logger logger)
+    {
+        this(logger, DEFAULT_STRIPES);
+    }
+
+    public StripedRaplaLock(Logger logger, int stripeCount)
+    {
+        this.logger = logger;
+        stripes = new ReadWriteLock[stripeCount];
+        for (int i = 0; i < stripeCount; i++)
+        {
+            stripes[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    /** locks the stripes of the passed references for reading */
+    public RaplaLock.ReadLock readLock(Collection<? extends ReferenceInfo> references, int seconds) throws RaplaException
+    {
+        final long currentTime = System.currentTimeMillis();
+        final List<Lock> locks = lock(getStripes(references), seconds, true);
+        return new RaplaLock.ReadLock(locks, new StackTraceElement[] {}, currentTime);
+    }
+
+    /** locks the stripes of the passed references for writing. Pass null to lock all stripes, e.g. for changes that affect all entities*/
+    public RaplaLock.WriteLock writeLock(Collection<? extends ReferenceInfo> references, int seconds) throws RaplaException
+    {
+        final long currentTime = System.currentTimeMillis();
+        final List<Lock> locks = lock(getStripes(references), seconds, false);
+        return new RaplaLock.WriteLock(locks, new StackTraceElement[] {}, currentTime);
+    }
+
+    public void unlock(RaplaLock.ReadLock lock)
+    {
+        if (lock == null)
+        {
+            return;
+        }
+        unlock((List<Lock>) lock.lock);
+    }
+
+    public void unlock(RaplaLock.WriteLock lock)
+    {
+        if (lock == null)
+        {
+            return;
+        }
+        unlock((List<Lock>) lock.lock);
+    }
+
+    private Collection<Integer> getStripes(Collection<? extends ReferenceInfo> references)
+    {
+        final TreeSet<Integer> result = new TreeSet<Integer>();
+        if (references == null)
+        {
+            for (int i = 0; i < stripes.length; i++)
+            {
+                result.add(i);
+            }
+            return result;
+        }
+        for (ReferenceInfo reference : references)
+        {
+            if (reference == null || reference.getId() == null)
+            {
+                continue;
+            }
+            result.add((reference.getId().hashCode() & 0x7fffffff) % stripes.length);
+        }
+        return result;
+    }
+
+    private List<Lock> lock(Collection<Integer> stripeIndices, int seconds, boolean isRead) throws RaplaException
+    {
+        final List<Lock> locked = new ArrayList<Lock>(stripeIndices.size());
+        final long timeout = System.currentTimeMillis() + seconds * 1000l;
+        try
+        {
+            for (Integer index : stripeIndices)
+            {
+                final ReadWriteLock stripe = stripes[index];
+                final Lock lock = isRead ? stripe.readLock() : stripe.writeLock();
+                final long remaining = Math.max(0, timeout - System.currentTimeMillis());
+                if (!lock.tryLock() && !lock.tryLock(remaining, TimeUnit.MILLISECONDS))
+                {
+                    unlock(locked);
+                    logger.warn("Could not acquire " + (isRead ? "read" : "write") + " lock for " + stripeIndices.size() + " stripes in " + seconds + " seconds.");
+                    if (isRead)
+                    {
+                        throw new RaplaSynchronizationException("Someone is currently writing. Please try again! Can't acquire read lock.");
+                    }
+                    else
+                    {
+                        throw new RaplaSynchronizationException("Someone is currently reading or writing. Please try again! Can't acquire write lock.");
+                    }
+                }
+                locked.add(lock);
+            }
+        }
+        catch (InterruptedException ex)
+        {
+            unlock(locked);
+            throw new RaplaSynchronizationException(ex);
+        }
+        return locked;
+    }
+
+    private void unlock(List<Lock> locks)
+    {
+        // release in reverse order
+        for (int i = locks.size() - 1; i >= 0; i--)
+        {
+            locks.get(i).unlock();
+        }
+        locks.clear();
+    }
+}
@@ -4,9 +4,12 @@ import org.rapla.entities.domain.Allocatable;
 import org.rapla.entities.domain.Appointment;
 
 import java.util.Collection;
+import java.util.Date;
 import java.util.SortedSet;
 
 public interface AllocationMap {
 	SortedSet<Appointment> getAppointments(Allocatable allocatable);
+	/** returns the appointments of the allocatable that start before or at end and whose max end is after start. null means unbounded */
+	SortedSet<Appointment> getAppointments(Allocatable allocatable, Date start, Date end);
 	Collection<Allocatable> getAllocatables();
 }
@@ -0,0 +1,251 @@
+/*--------------------------------------------------------------------------*
+ | Copyright (C) 2014 Christopher Kohlhaas                                  |
+ |                                                                          |
+ | This program is free software; you can redistribute it and/or modify     |
+ | it under the terms of the GNU General Public License as published by the |
+ | Free Software Foundation. A copy of the license has been included with   |
+ | these distribution in the COPYING file, if not go to www.fsf.org         |
+ |                                                                          |
+ | As a special exception, you are granted the permissions to link this     |
+ | program with every library, which license fulfills the Open Source       |
+ | Definition as published by the Open Source Initiative (OSI).             |
+ *--------------------------------------------------------------------------*/
+package org.rapla.storage.impl.server;
+
+import org.rapla.entities.domain.Appointment;
+import org.rapla.entities.domain.internal.AppointmentImpl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Sweep line over the blocks of a set of appointments, that stores the blocks in parallel primitive arrays instead of
+ * {@link org.rapla.entities.domain.AppointmentBlock} objects. The blocks are sorted by start and swept with an int indexed active list.
+ * Each pair of appointments that has overlapping blocks is reported once.
+ * <p>
+ * Not thread safe, create one instance per calculation.
+ */
+final class AppointmentBlockSweep
+{
+    /** receives the pairs of appointments with overlapping blocks */
+    interface PairHandler
+    {
+        void overlap(Appointment appointment1, Appointment appointment2);
+    }
+
+    private final List<Appointment> appointments = new ArrayList<Appointment>();
+    private boolean[] changed = new boolean[16];
+    private final boolean onlyChanged;
+
+    private long[] starts = new long[64];
+    private long[] ends = new long[64];
+    private int[] owners = new int[64];
+    private int size;
+
+    /** @param onlyChanged if true only pairs that contain at least one appointment added as changed are reported */
+    public AppointmentBlockSweep(boolean onlyChanged)
+    {
+        this.onlyChanged = onlyChanged;
+    }
+
+    /** adds the appointment and its blocks between start and end.*/
+    public void addAppointment(Appointment appointment, long start, long end, boolean isChanged)
+    {
+        final int owner = addAppointment(appointment, isChanged);
+        ((AppointmentImpl) appointment).createBlocks(start, end, (blockStart, blockEnd, isException) -> addBlock(blockStart, blockEnd, owner));
+    }
+
+    /** adds only the appointment, the blocks must be added with {@link #addBlock(long, long, int)}
+     * @return the index of the appointment*/
+    public int addAppointment(Appointment appointment, boolean isChanged)
+    {
+        final int owner = appointments.size();
+        appointments.add(appointment);
+        if (owner >= changed.length)
+        {
+            changed = Arrays.copyOf(changed, changed.length * 2);
+        }
+        changed[owner] = isChanged;
+        return owner;
+    }
+
+    public void addBlock(long start, long end, int owner)
+    {
+        // blocks without a duration can't overlap
+        if (end <= start)
+        {
+            return;
+        }
+        if (size == starts.length)
+        {
+            final int newLength = size * 2;
+            starts = Arrays.copyOf(starts, newLength);
+            ends = Arrays.copyOf(ends, newLength);
+            owners = Arrays.copyOf(owners, newLength);
+        }
+        starts[size] = start;
+        ends[size] = end;
+        owners[size] = owner;
+        size++;
+    }
+
+    public int getBlockCount()
+    {
+        return size;
+    }
+
+    public void sweep(PairHandler handler)
+    {
+        final int[] order = new int[size];
+        for (int i = 0; i < size; i++)
+        {
+            order[i] = i;
+        }
+        sortByStart(order, new int[size], 0, size);
+        final LongHashSet reportedPairs = new LongHashSet();
+        int[] active = new int[16];
+        int activeSize = 0;
+        for (int i = 0; i < size; i++)
+        {
+            final int block = order[i];
+            final long start = starts[block];
+            final int owner1 = owners[block];
+            // remove all blocks that end before or at the start of the current block
+            int newActiveSize = 0;
+            for (int j = 0; j < activeSize; j++)
+            {
+                final int activeBlock = active[j];
+                if (ends[activeBlock] > start)
+                {
+                    active[newActiveSize++] = activeBlock;
+                }
+            }
+            activeSize = newActiveSize;
+            for (int j = 0; j < activeSize; j++)
+            {
+                final int owner2 = owners[active[j]];
+                if (owner1 == owner2)
+                {
+                    continue;
+                }
+                if (onlyChanged && !changed[owner1] && !changed[owner2])
+                {
+                    continue;
+                }
+                final long pair = owner1 < owner2 ? ((long) owner1 << 32) | owner2 : ((long) owner2 << 32) | owner1;
+                if (reportedPairs.add(pair))
+                {
+                    handler.overlap(appointments.get(owner1), appointments.get(owner2));
+                }
+            }
+            if (activeSize == active.length)
+            {
+                active = Arrays.copyOf(active, activeSize * 2);
+            }
+            active[activeSize++] = block;
+        }
+    }
+
+    /** stable merge sort of the block indices by their start */
+    private void sortByStart(int[] order, int[] buffer, int from, int to)
+    {
+        final int length = to - from;
+        if (length < 2)
+        {
+            return;
+        }
+        if (length < 16)
+        {
+            // insertion sort for small ranges
+            for (int i = from + 1; i < to; i++)
+            {
+                final int block = order[i];
+                final long start = starts[block];
+                int j = i - 1;
+                while (j >= from && starts[order[j]] > start)
+                {
+                    order[j + 1] = order[j];
+                    j--;
+                }
+                order[j + 1] = block;
+            }
+            return;
+        }
+        final int middle = (from + to) >>> 1;
+        sortByStart(order, buffer, from, middle);
+        sortByStart(order, buffer, middle, to);
+        if (starts[order[middle - 1]] <= starts[order[middle]])
+        {
+            return;
+        }
+        System.arraycopy(order, from, buffer, from, length);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++)
+        {
+            if (right >= to || (left < middle && starts[buffer[left]] <= starts[buffer[right]]))
+            {
+                order[i] = buffer[left++];
+            }
+            else
+            {
+                order[i] = buffer[right++];
+            }
+        }
+    }
+
+    /** open addressing hash set for the already reported appointment pairs */
+    private static final class LongHashSet
+    {
+        private static final long EMPTY = -1;
+        private long[] table = newTable(64);
+        private int count;
+
+        private static long[] newTable(int length)
+        {
+            final long[] table = new long[length];
+            Arrays.fill(table, EMPTY);
+            return table;
+        }
+
+        /** @return true if the value was not already in the set */
+        boolean add(long value)
+        {
+            if ((count + 1) * 2 > table.length)
+            {
+                final long[] oldTable = table;
+                table = newTable(oldTable.length * 2);
+                for (long oldValue : oldTable)
+                {
+                    if (oldValue != EMPTY)
+                    {
+                        insert(oldValue);
+                    }
+                }
+            }
+            if (insert(value))
+            {
+                count++;
+                return true;
+            }
+            return false;
+        }
+
+        private boolean insert(long value)
+        {
+            final int mask = table.length - 1;
+            int index = (int) (value ^ (value >>> 32)) * 0x9E3779B9 & mask;
+            while (table[index] != EMPTY)
+            {
+                if (table[index] == value)
+                {
+                    return false;
+                }
+                index = (index + 1) & mask;
+            }
+            table[index] = value;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,415 @@
+/*--------------------------------------------------------------------------*
+ | Copyright (C) 2014 Christopher Kohlhaas                                  |
+ |                                                                          |
+ | This program is free software; you can redistribute it and/or modify     |
+ | it under the terms of the GNU General Public License as published by the |
+ | Free Software Foundation. A copy of the license has been included with   |
+ | these distribution in the COPYING file, if not go to www.fsf.org         |
+ |                                                                          |
+ | As a special exception, you are granted the permissions to link this     |
+ | program with every library, which license fulfills the Open Source       |
+ | Definition as published by the Open Source Initiative (OSI).             |
+ *--------------------------------------------------------------------------*/
+package org.rapla.storage.impl.server;
+
+import org.rapla.entities.domain.Appointment;
+import org.rapla.entities.domain.AppointmentStartComparator;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Augmented AVL tree that stores appointments ordered by their start (the same order as {@link AppointmentStartComparator})
+ * and keeps the maximum end of each subtree. The end of an appointment is its {@link Appointment#getMaxEnd()}, repeatings without an end
+ * are stored as open ended. This allows to find all appointments that could overlap a time interval in O(log n + k)
+ * instead of scanning all appointments that start before the end of the interval.
+ * <p>
+ * Start and end are captured when the appointment is added, so only immutable appointments should be stored.
+ * The nodes are immutable and modifications copy the path to the changed node, so {@link #snapshot()} is O(1) and a snapshot
+ * can be read by other threads without locking while the original tree is modified. The tree itself is not thread safe.
+ */
+final class AppointmentIntervalTree implements Iterable<Appointment>
+{
+    private static final Comparator<Appointment> COMPARATOR = new AppointmentStartComparator();
+
+    private static final class Node
+    {
+        final Appointment appointment;
+        final long start;
+        final long end;
+        final long maxEnd;
+        final int height;
+        final Node left;
+        final Node right;
+
+        Node(Appointment appointment)
+        {
+            this.appointment = appointment;
+            this.start = appointment.getStart().getTime();
+            final Date maxEnd = appointment.getMaxEnd();
+            this.end = maxEnd != null ? maxEnd.getTime() : Long.MAX_VALUE;
+            this.maxEnd = end;
+            this.height = 1;
+            this.left = null;
+            this.right = null;
+        }
+
+        private Node(Node node, Node left, Node right)
+        {
+            this.appointment = node.appointment;
+            this.start = node.start;
+            this.end = node.end;
+            this.left = left;
+            this.right = right;
+            this.height = 1 + Math.max(height(left), height(right));
+            long maxEnd = end;
+            if (left != null && left.maxEnd > maxEnd)
+            {
+                maxEnd = left.maxEnd;
+            }
+            if (right != null && right.maxEnd > maxEnd)
+            {
+                maxEnd = right.maxEnd;
+            }
+            this.maxEnd = maxEnd;
+        }
+
+        /** returns a copy of the node with the new children or the node itself if the children didn't change */
+        Node with(Node left, Node right)
+        {
+            if (left == this.left && right == this.right)
+            {
+                return this;
+            }
+            return new Node(this, left, right);
+        }
+    }
+
+    private Node root;
+    private int size;
+
+    public AppointmentIntervalTree()
+    {
+    }
+
+    /** creates a balanced tree from a collection that is already sorted with the {@link AppointmentStartComparator} and contains no duplicates*/
+    AppointmentIntervalTree(List<Appointment> sortedAppointments)
+    {
+        root = build(sortedAppointments, 0, sortedAppointments.size() - 1);
+        size = sortedAppointments.size();
+    }
+
+    private AppointmentIntervalTree(Node root, int size)
+    {
+        this.root = root;
+        this.size = size;
+    }
+
+    /** returns a copy of the current state of the tree, that is not affected by later modifications */
+    public AppointmentIntervalTree snapshot()
+    {
+        return new AppointmentIntervalTree(root, size);
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    public boolean contains(Appointment appointment)
+    {
+        Node node = root;
+        while (node != null)
+        {
+            int cmp = compare(appointment, node);
+            if (cmp == 0)
+            {
+                return true;
+            }
+            node = cmp < 0 ? node.left : node.right;
+        }
+        return false;
+    }
+
+    /** @return true if the appointment was not already in the tree*/
+    public boolean add(Appointment appointment)
+    {
+        int sizeBefore = size;
+        root = insert(root, appointment);
+        return size != sizeBefore;
+    }
+
+    /** @return true if the appointment was found in the tree */
+    public boolean remove(Appointment appointment)
+    {
+        int sizeBefore = size;
+        root = delete(root, appointment);
+        return size != sizeBefore;
+    }
+
+    /** removes the appointment with a full search, this is only needed if the appointment changed after it was added.
+     * @return true if the appointment was found in the tree*/
+    public boolean removeWithFullSearch(Appointment appointment)
+    {
+        List<Appointment> remaining = new ArrayList<Appointment>(size);
+        boolean found = false;
+        for (Appointment app : this)
+        {
+            if (!found && app.equals(appointment))
+            {
+                found = true;
+                continue;
+            }
+            remaining.add(app);
+        }
+        if (found)
+        {
+            root = build(remaining, 0, remaining.size() - 1);
+            size = remaining.size();
+        }
+        return found;
+    }
+
+    /**
+     * Adds all appointments that start before or at end and whose max end is after start to the result in the order of their start.
+     * The caller still needs to check the overlap with {@link Appointment#overlaps(Date, Date)} as exceptions and
+     * gaps between repeatings are not considered here.
+     * @param start null means no lower bound
+     * @param end null means no upper bound
+     */
+    public void getOverlapping(Date start, Date end, Collection<? super Appointment> result)
+    {
+        long startTime = start != null ? start.getTime() : Long.MIN_VALUE;
+        long endTime = end != null ? end.getTime() : Long.MAX_VALUE;
+        collect(root, startTime, endTime, result);
+    }
+
+    private void collect(Node node, long start, long end, Collection<? super Appointment> result)
+    {
+        // no appointment in the subtree ends after start
+        if (node == null || node.maxEnd <= start)
+        {
+            return;
+        }
+        collect(node.left, start, end, result);
+        // the node and all appointments in the right subtree start after the end
+        if (node.start > end)
+        {
+            return;
+        }
+        if (node.end > start)
+        {
+            result.add(node.appointment);
+        }
+        collect(node.right, start, end, result);
+    }
+
+    /** iterates over all appointments sorted by start. Removal is not supported.*/
+    @Override
+    public Iterator<Appointment> iterator()
+    {
+        return new Iterator<Appointment>()
+        {
+            private final List<Node> stack = new ArrayList<Node>();
+
+            {
+                pushLeft(root);
+            }
+
+            private void pushLeft(Node node)
+            {
+                while (node != null)
+                {
+                    stack.add(node);
+                    node = node.left;
+                }
+            }
+
+            @Override
+            public boolean hasNext()
+            {
+                return !stack.isEmpty();
+            }
+
+            @Override
+            public Appointment next()
+            {
+                if (stack.isEmpty())
+                {
+                    throw new NoSuchElementException();
+                }
+                Node node = stack.remove(stack.size() - 1);
+                pushLeft(node.right);
+                return node.appointment;
+            }
+
+            @Override
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder buf = new StringBuilder("[");
+        for (Appointment appointment : this)
+        {
+            if (buf.length() > 1)
+            {
+                buf.append(", ");
+            }
+            buf.append(appointment);
+        }
+        buf.append("]");
+        return buf.toString();
+    }
+
+    private static int compare(Appointment appointment, Node node)
+    {
+        if (appointment.equals(node.appointment))
+        {
+            return 0;
+        }
+        long start = appointment.getStart().getTime();
+        if (start < node.start)
+        {
+            return -1;
+        }
+        if (start > node.start)
+        {
+            return 1;
+        }
+        return COMPARATOR.compare(appointment, node.appointment);
+    }
+
+    private Node build(List<Appointment> sortedAppointments, int from, int to)
+    {
+        if (from > to)
+        {
+            return null;
+        }
+        int middle = (from + to) >>> 1;
+        Node node = new Node(sortedAppointments.get(middle));
+        Node left = build(sortedAppointments, from, middle - 1);
+        Node right = build(sortedAppointments, middle + 1, to);
+        return node.with(left, right);
+    }
+
+    private Node insert(Node node, Appointment appointment)
+    {
+        if (node == null)
+        {
+            size++;
+            return new Node(appointment);
+        }
+        int cmp = compare(appointment, node);
+        if (cmp == 0)
+        {
+            return node;
+        }
+        if (cmp < 0)
+        {
+            return balance(node.with(insert(node.left, appointment), node.right));
+        }
+        else
+        {
+            return balance(node.with(node.left, insert(node.right, appointment)));
+        }
+    }
+
+    private Node delete(Node node, Appointment appointment)
+    {
+        if (node == null)
+        {
+            return null;
+        }
+        int cmp = compare(appointment, node);
+        if (cmp < 0)
+        {
+            return balance(node.with(delete(node.left, appointment), node.right));
+        }
+        else if (cmp > 0)
+        {
+            return balance(node.with(node.left, delete(node.right, appointment)));
+        }
+        size--;
+        if (node.left == null)
+        {
+            return node.right;
+        }
+        if (node.right == null)
+        {
+            return node.left;
+        }
+        // replace with the smallest node of the right subtree
+        Node successor = node.right;
+        while (successor.left != null)
+        {
+            successor = successor.left;
+        }
+        return balance(new Node(successor, node.left, deleteMin(node.right)));
+    }
+
+    private Node deleteMin(Node node)
+    {
+        if (node.left == null)
+        {
+            return node.right;
+        }
+        return balance(node.with(deleteMin(node.left), node.right));
+    }
+
+    private static int height(Node node)
+    {
+        return node != null ? node.height : 0;
+    }
+
+    private static Node balance(Node node)
+    {
+        int balance = height(node.left) - height(node.right);
+        if (balance > 1)
+        {
+            Node left = node.left;
+            if (height(left.left) < height(left.right))
+            {
+                left = rotateLeft(left);
+            }
+            return rotateRight(node.with(left, node.right));
+        }
+        if (balance < -1)
+        {
+            Node right = node.right;
+            if (height(right.right) < height(right.left))
+            {
+                right = rotateRight(right);
+            }
+            return rotateLeft(node.with(node.left, right));
+        }
+        return node;
+    }
+
+    private static Node rotateRight(Node node)
+    {
+        Node left = node.left;
+        return left.with(left.left, node.with(left.right, node.right));
+    }
+
+    private static Node rotateLeft(Node node)
+    {
+        Node right = node.right;
+        return right.with(node.with(node.left, right.left), right.right);
+    }
+}
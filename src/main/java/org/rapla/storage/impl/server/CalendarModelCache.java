@@ -8,6 +8,10 @@ import org.rapla.entities.configuration.CalendarModelConfiguration;
 import org.rapla.entities.configuration.Preferences;
 import org.rapla.entities.domain.Allocatable;
 import org.rapla.entities.domain.Appointment;
+import org.rapla.entities.domain.Reservation;
+import org.rapla.entities.dynamictype.Classification;
+import org.rapla.entities.dynamictype.ClassificationFilter;
+import org.rapla.entities.dynamictype.DynamicType;
 import org.rapla.entities.storage.ReferenceInfo;
 import org.rapla.facade.internal.CalendarModelImpl;
 import org.rapla.framework.RaplaException;
@@ -35,7 +39,71 @@ public class CalendarModelCache
 {
     RaplaLock lockManager;
 
+    /** the selection of an exported calendar model, precomputed so that a change can be routed without evaluating the model */
+    static final class ExportSelection
+    {
+        final ReferenceInfo<User> userId;
+        // empty if the model shows the events of all allocatables
+        final Set<String> allocatableIds;
+        // null if the model shows all event types
+        final Map<String, List<ClassificationFilter>> filtersByEventType;
+
+        ExportSelection(ReferenceInfo<User> userId, CalendarModelImpl model) throws RaplaException
+        {
+            this.userId = userId;
+            allocatableIds = new HashSet<String>();
+            for (Allocatable allocatable : model.getAllAllocatables())
+            {
+                allocatableIds.add(allocatable.getId());
+            }
+            if (model.isDefaultEventTypes())
+            {
+                filtersByEventType = null;
+            }
+            else
+            {
+                filtersByEventType = new HashMap<String, List<ClassificationFilter>>();
+                for (ClassificationFilter filter : model.getReservationFilter())
+                {
+                    final DynamicType type = filter.getType();
+                    List<ClassificationFilter> filters = filtersByEventType.get(type.getId());
+                    if (filters == null)
+                    {
+                        filters = new ArrayList<ClassificationFilter>();
+                        filtersByEventType.put(type.getId(), filters);
+                    }
+                    filters.add(filter);
+                }
+            }
+        }
+
+        boolean matchesEventType(Classification classification)
+        {
+            if (filtersByEventType == null)
+            {
+                return true;
+            }
+            final List<ClassificationFilter> filters = filtersByEventType.get(classification.getType().getId());
+            if (filters == null)
+            {
+                return false;
+            }
+            for (ClassificationFilter filter : filters)
+            {
+                if (filter.matches(classification))
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
     private final Map<ReferenceInfo<User>, List<CalendarModelImpl>> calendarModels = new HashMap<ReferenceInfo<User>, List<CalendarModelImpl>>();
+    private final Map<ReferenceInfo<User>, List<ExportSelection>> selectionsByUser = new HashMap<ReferenceInfo<User>, List<ExportSelection>>();
+    // inverted index from the allocatable ids to the exports that show their events
+    private final Map<String, Set<ExportSelection>> selectionsByAllocatable = new HashMap<String, Set<ExportSelection>>();
+    private final Set<ExportSelection> selectionsOfAllAllocatables = new HashSet<ExportSelection>();
     final CachableStorageOperator operator;
     final RaplaResources i18n;
     final Logger logger;
@@ -56,6 +124,7 @@ public class CalendarModelCache
         try
         {
             this.calendarModels.remove(userId);
+            putSelections(userId, Collections.<ExportSelection>emptyList());
         }
         finally
         {
@@ -63,6 +132,96 @@ public class CalendarModelCache
         }
     }
 
+    /** replaces the selections of the user in the index. Must be called with the write lock */
+    private void putSelections(ReferenceInfo<User> userId, List<ExportSelection> selections)
+    {
+        final List<ExportSelection> oldSelections = selections.isEmpty() ? selectionsByUser.remove(userId) : selectionsByUser.put(userId, selections);
+        if (oldSelections != null)
+        {
+            for (ExportSelection selection : oldSelections)
+            {
+                selectionsOfAllAllocatables.remove(selection);
+                for (String allocatableId : selection.allocatableIds)
+                {
+                    final Set<ExportSelection> set = selectionsByAllocatable.get(allocatableId);
+                    if (set != null)
+                    {
+                        set.remove(selection);
+                        if (set.isEmpty())
+                        {
+                            selectionsByAllocatable.remove(allocatableId);
+                        }
+                    }
+                }
+            }
+        }
+        for (ExportSelection selection : selections)
+        {
+            if (selection.allocatableIds.isEmpty())
+            {
+                selectionsOfAllAllocatables.add(selection);
+            }
+            for (String allocatableId : selection.allocatableIds)
+            {
+                Set<ExportSelection> set = selectionsByAllocatable.get(allocatableId);
+                if (set == null)
+                {
+                    set = new HashSet<ExportSelection>();
+                    selectionsByAllocatable.put(allocatableId, set);
+                }
+                set.add(selection);
+            }
+        }
+    }
+
+    private List<ExportSelection> createSelections(ReferenceInfo<User> userId, List<CalendarModelImpl> calendarModelList) throws RaplaException
+    {
+        final List<ExportSelection> selections = new ArrayList<ExportSelection>(calendarModelList.size());
+        for (CalendarModelImpl model : calendarModelList)
+        {
+            selections.add(new ExportSelection(userId, model));
+        }
+        return selections;
+    }
+
+    /** the selected allocatables of a model can change with the allocatables and types, e.g. if a resource type is exported,
+     * so the selections of all models are computed again */
+    private void updateAllSelections() throws RaplaException
+    {
+        final Map<ReferenceInfo<User>, List<CalendarModelImpl>> models;
+        final RaplaLock.ReadLock readLock = lockManager.readLock();
+        try
+        {
+            models = new HashMap<ReferenceInfo<User>, List<CalendarModelImpl>>(calendarModels);
+        }
+        finally
+        {
+            lockManager.unlock(readLock);
+        }
+        final Map<ReferenceInfo<User>, List<ExportSelection>> selections = new HashMap<ReferenceInfo<User>, List<ExportSelection>>();
+        for (Map.Entry<ReferenceInfo<User>, List<CalendarModelImpl>> entry : models.entrySet())
+        {
+            selections.put(entry.getKey(), createSelections(entry.getKey(), entry.getValue()));
+        }
+        final RaplaLock.WriteLock lock = lockManager.writeLock(60);
+        try
+        {
+            for (Map.Entry<ReferenceInfo<User>, List<ExportSelection>> entry : selections.entrySet())
+            {
+                final ReferenceInfo<User> userId = entry.getKey();
+                // skip users whose models were changed in the meantime
+                if (calendarModels.get(userId) == models.get(userId))
+                {
+                    putSelections(userId, entry.getValue());
+                }
+            }
+        }
+        finally
+        {
+            lockManager.unlock(lock);
+        }
+    }
+
     private boolean hasExchangeExport(CalendarModelConfiguration modelConfig)
     {
         String option = modelConfig.getOptionMap().get(ExchangeConnectorPlugin.EXCHANGE_EXPORT);
@@ -81,30 +240,14 @@ public class CalendarModelCache
         final Preferences preferences = operator.getPreferences(user, createIfNotNull);
         if (preferences == null)
         {
-            final RaplaLock.WriteLock lock = lockManager.writeLock(60);
-            try
-            {
-                this.calendarModels.remove(userId);
-            }
-            finally
-            {
-                lockManager.unlock(lock);
-            }
+            removeCalendarModelFor(userId);
             return; //calendarModelList;
         }
         final CalendarModelConfiguration modelConfig = preferences.getEntry(CalendarModelConfiguration.CONFIG_ENTRY);
         final Map<String, CalendarModelConfiguration> exportMap = preferences.getEntry(CalendarModelConfiguration.EXPORT_ENTRY);
         if (modelConfig == null && exportMap == null)
         {
-            final RaplaLock.WriteLock lock = lockManager.writeLock(60);
-            try
-            {
-                this.calendarModels.remove(userId);
-            }
-            finally
-            {
-                lockManager.unlock(lock);
-            }
+            removeCalendarModelFor(userId);
             return;// calendarModelList;
         }
         final List<CalendarModelConfiguration> configList = new ArrayList<CalendarModelConfiguration>();
@@ -135,6 +278,7 @@ public class CalendarModelCache
             }
         }
 
+        final List<ExportSelection> selections = createSelections(userId, calendarModelList);
         final RaplaLock.WriteLock lock = lockManager.writeLock(60);
         try
         {
@@ -146,6 +290,7 @@ public class CalendarModelCache
             {
                 this.calendarModels.remove(userId);
             }
+            putSelections(userId, selections);
         }
         finally
         {
@@ -158,24 +303,32 @@ public class CalendarModelCache
     public Collection<ReferenceInfo<User>> findMatchingUser(Appointment appointment) throws RaplaException
     {
         Set<ReferenceInfo<User>> result = new HashSet<ReferenceInfo<User>>();
+        final Reservation reservation = appointment.getReservation();
+        if (reservation == null)
+        {
+            return result;
+        }
+        final Classification classification = reservation.getClassification();
         RaplaLock.ReadLock readLock = lockManager.readLock();
         try
         {
-            for (ReferenceInfo<User> userId : calendarModels.keySet())
+            // TODO check wether the user can see the appointment or no
+            final Set<ExportSelection> candidates = new HashSet<ExportSelection>(selectionsOfAllAllocatables);
+            for (Allocatable allocatable : reservation.getAllocatablesFor(appointment))
             {
-                // TODO check wether the user can see the appointment or no
-                //
-                List<CalendarModelImpl> list = calendarModels.get(userId);
-                for (CalendarModelImpl conf : list)
+                final Set<ExportSelection> selections = selectionsByAllocatable.get(allocatable.getId());
+                if (selections != null)
                 {
-                    if (conf.isMatchingSelectionAndFilter(appointment))
-                    {
-                        result.add(userId);
-                        break;
-                    }
+                    candidates.addAll(selections);
+                }
+            }
+            for (ExportSelection selection : candidates)
+            {
+                if (!result.contains(selection.userId) && selection.matchesEventType(classification))
+                {
+                    result.add(selection.userId);
                 }
             }
-
         }
         finally
         {
@@ -191,19 +344,14 @@ public class CalendarModelCache
         RaplaLock.ReadLock lock = lockManager.readLock();
         try
         {
-            for (ReferenceInfo<User> userId : calendarModels.keySet())
+            final Set<ExportSelection> selections = selectionsByAllocatable.get(allocatable.getId());
+            if (selections != null)
             {
-                List<CalendarModelImpl> list = calendarModels.get(userId);
-                for (CalendarModelImpl model : list)
+                for (ExportSelection selection : selections)
                 {
-                    if (model.getAllAllocatables().contains(allocatable))
-                    {
-                        result.add(userId);
-                        break;
-                    }
+                    result.add(selection.userId);
                 }
             }
-
         }
         finally
         {
@@ -249,9 +397,14 @@ public class CalendarModelCache
 
     public  void synchronizeCalendars(UpdateResult evt) throws RaplaException
     {
+        boolean allocatablesChanged = false;
         for (UpdateOperation operation : evt.getOperations())
         {
             final Class<? extends Entity> raplaType = operation.getType();
+            if (raplaType == Allocatable.class || raplaType == DynamicType.class)
+            {
+                allocatablesChanged = true;
+            }
 
             // the exported calendars could have changed
             if (raplaType == Preferences.class)
@@ -291,6 +444,10 @@ public class CalendarModelCache
                 }
             }
         }
+        if (allocatablesChanged)
+        {
+            updateAllSelections();
+        }
     }
 
 }
@@ -19,7 +19,6 @@ import org.rapla.entities.domain.Appointment;
 import org.rapla.entities.domain.AppointmentBlock;
 import org.rapla.entities.domain.Reservation;
 import org.rapla.entities.domain.ResourceAnnotations;
-import org.rapla.entities.domain.internal.AppointmentImpl;
 import org.rapla.entities.dynamictype.DynamicType;
 import org.rapla.entities.storage.EntityResolver;
 import org.rapla.entities.storage.ReferenceInfo;
@@ -42,9 +41,12 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
-import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
 
 class ConflictFinder {
 	AllocationMap  allocationMap;
@@ -60,16 +62,92 @@ class ConflictFinder {
     	conflictMap = new HashMap<ReferenceInfo<Allocatable>, Map<ReferenceInfo<Conflict>,Conflict>>();
     	long startTime = System.currentTimeMillis();
     	int conflictSize = 0;
-        for (Allocatable allocatable:allocationMap.getAllocatables())
+    	final List<Allocatable> allocatables = new ArrayList<Allocatable>(allocationMap.getAllocatables());
+    	final List<Map<ReferenceInfo<Conflict>,Conflict>> calculated = calculateInParallel(allocatables.size(), (index) -> calculateConflicts(allocatables.get(index), today), true);
+        for (int i=0;i<allocatables.size();i++)
 		{
-        	Map<ReferenceInfo<Conflict>,Conflict> newConflicts = calculateConflicts(allocatable, today);
-        	conflictMap.put( allocatable.getReference(), newConflicts);
+        	Map<ReferenceInfo<Conflict>,Conflict> newConflicts = calculated.get( i);
+        	conflictMap.put( allocatables.get(i).getReference(), newConflicts);
         	conflictSize+= newConflicts.size();
 		}
         logger.info("Conflict initialization found " + conflictSize + " conflicts and took " + (System.currentTimeMillis()- startTime) + "ms. " ); 
         this.resolver = resolver;
 	}
     
+    /** number of allocatables that are calculated in one fork join task */
+    private static final int ALLOCATABLES_PER_TASK = 4;
+
+    /** function that calculates the conflicts of the allocatable with the passed index */
+    private interface ConflictCalculation
+    {
+        Map<ReferenceInfo<Conflict>,Conflict> calculate(int index);
+    }
+
+    /**
+     * The conflicts of each allocatable can be calculated independently, so we split the allocatables into fork join tasks
+     * that run on all cores. The result list contains the conflicts in the order of the indices.
+     */
+    private List<Map<ReferenceInfo<Conflict>,Conflict>> calculateInParallel(final int count, final ConflictCalculation calculation, final boolean logProgress)
+    {
+        final List<Map<ReferenceInfo<Conflict>,Conflict>> result = new ArrayList<Map<ReferenceInfo<Conflict>,Conflict>>( Collections.<Map<ReferenceInfo<Conflict>,Conflict>>nCopies(count, null));
+        if ( count < 2 * ALLOCATABLES_PER_TASK)
+        {
+            for (int i=0;i<count;i++)
+            {
+                result.set( i, calculation.calculate( i));
+            }
+            return result;
+        }
+        final AtomicInteger finished = new AtomicInteger();
+        final int logInterval = Math.max(1, count / 10);
+        final long startTime = System.currentTimeMillis();
+        class CalculationTask extends RecursiveAction
+        {
+            private static final long serialVersionUID = 1L;
+            private final int from;
+            private final int to;
+
+            CalculationTask(int from, int to)
+            {
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected void compute()
+            {
+                if ( to - from <= ALLOCATABLES_PER_TASK)
+                {
+                    for (int i=from;i<to;i++)
+                    {
+                        result.set( i, calculation.calculate( i));
+                        final int finishedCount = finished.incrementAndGet();
+                        if ( logProgress && finishedCount % logInterval == 0 && finishedCount < count)
+                        {
+                            logger.info("Calculated conflicts for " + finishedCount + " of " + count + " resources in " + (System.currentTimeMillis() - startTime) + "ms.");
+                        }
+                    }
+                    return;
+                }
+                int middle = (from + to) >>> 1;
+                invokeAll( new CalculationTask(from, middle), new CalculationTask(middle, to));
+            }
+        }
+        ForkJoinPool.commonPool().invoke( new CalculationTask(0, count));
+        return result;
+    }
+
+    /** returns the stored conflicts of the allocatable */
+    Map<ReferenceInfo<Conflict>,Conflict> getConflictMap(ReferenceInfo<Allocatable> allocatable)
+    {
+        final Map<ReferenceInfo<Conflict>,Conflict> conflicts = conflictMap.get( allocatable);
+        if ( conflicts == null)
+        {
+            return Collections.emptyMap();
+        }
+        return conflicts;
+    }
+
     public Conflict findConflict(ReferenceInfo<Conflict> ref)
     {
         Date dummyLastChanged = new Date();
@@ -95,7 +173,7 @@ class ConflictFinder {
         }
     }
 
-    private Map<ReferenceInfo<Conflict>,Conflict> calculateConflicts(Allocatable allocatable,Date today )
+    Map<ReferenceInfo<Conflict>,Conflict> calculateConflicts(Allocatable allocatable,Date today )
     {
         if ( isConflictIgnored(allocatable))
         {
@@ -231,8 +309,8 @@ class ConflictFinder {
 //    }
     
     private  Map<ReferenceInfo<Conflict>,Conflict>  updateConflicts(Allocatable allocatable, Date today, Set<Appointment> allAppointments) {
-        Collection<AppointmentBlock> allAppointmentBlocks =new LinkedList<AppointmentBlock>(); 
-        createBlocks(today,allAppointments,allAppointmentBlocks);
+        AppointmentBlockSweep sweep = new AppointmentBlockSweep(false);
+        createBlocks(today,allAppointments,sweep, null);
 //        Collection<AppointmentBlock> appointmentBlocks =  new LinkedList<AppointmentBlock>();
 //        createBlocks(today,changedAppointments,appointmentBlocks, null);
 //        long startTime = 0;
@@ -240,7 +318,7 @@ class ConflictFinder {
 //        {
 //            startTime = System.nanoTime();
 //        }
-        return sweepLine(allocatable,today, allAppointmentBlocks);
+        return sweepLine(allocatable,today, sweep);
 //        if ( startTime > 0 )
 //        {
 //            long time = System.nanoTime() - startTime;
@@ -249,84 +327,94 @@ class ConflictFinder {
     }
 
 
- // helper class for events in sweep line algorithm
-    public static class Event implements Comparable<Event> {
-        long time;
-        AppointmentBlock interval;
-
-        public Event(long time, AppointmentBlock interval) {
-            this.time     = time;
-            this.interval = interval;
+    /**
+     * Keeps the conflicts of the unchanged appointments and only checks the blocks of the changed appointments
+     * against the blocks of the appointments that overlap them, instead of expanding all appointments of the allocatable.
+     */
+    private Map<ReferenceInfo<Conflict>,Conflict> updateConflicts(Allocatable allocatable, Date today, Map<ReferenceInfo<Conflict>,Conflict> conflictsBefore, AllocationChange change)
+    {
+        if ( isConflictIgnored(allocatable))
+        {
+            return Collections.emptyMap();
         }
-
-        public int compareTo(Event b) {
-            Event a = this;
-            if      (a.time < b.time) return -1;
-            else if (a.time > b.time) return +1;
-            else                      return  0; 
+        Set<ReferenceInfo<Appointment>> changedIds = new HashSet<ReferenceInfo<Appointment>>();
+        for (Appointment appointment:change.toRemove)
+        {
+            changedIds.add( appointment.getReference());
+        }
+        for (Appointment appointment:change.toChange)
+        {
+            changedIds.add( appointment.getReference());
         }
+        Map<ReferenceInfo<Conflict>,Conflict> result = new LinkedHashMap<ReferenceInfo<Conflict>,Conflict>();
+        for (Conflict conflict:conflictsBefore.values())
+        {
+            if ( !changedIds.contains( conflict.getAppointment1()) && !changedIds.contains( conflict.getAppointment2()))
+            {
+                result.put( conflict.getReference(), conflict);
+            }
+        }
+        long maxCheck = getMaxCheck();
+        Set<Appointment> toCheck = new HashSet<Appointment>();
+        for (Appointment appointment:change.toChange)
+        {
+            Date start = appointment.getStart();
+            if ( start.before( today))
+            {
+                start = today;
+            }
+            Date end = appointment.getMaxEnd();
+            if ( end == null || end.getTime() > maxCheck)
+            {
+                end = new Date( maxCheck);
+            }
+            if ( end.before( start))
+            {
+                continue;
+            }
+            // only appointments that overlap the changed appointment can conflict with it
+            toCheck.addAll( allocationMap.getAppointments( allocatable, start, end));
+            toCheck.add( appointment);
+        }
+        if ( toCheck.isEmpty())
+        {
+            return result;
+        }
+        AppointmentBlockSweep sweep = new AppointmentBlockSweep(true);
+        createBlocks(today, toCheck, sweep, change.toChange);
+        result.putAll( sweepLine(allocatable, today, sweep));
+        return result;
     }
 
-
     // the sweep-line algorithm
     public static Map<ReferenceInfo<Conflict>,Conflict> sweepLine(Allocatable allocatable, Date today, Collection<AppointmentBlock> intervals) {
-        Map<ReferenceInfo<Conflict>,Conflict> conflictList =  new HashMap<ReferenceInfo<Conflict>,Conflict>( );//conflictMap.get(allocatable);
-        Set<String> foundConflictIds = new HashSet<String>();
-        // generate N random intervals
-
-        // create events
-        MinPQ<Event> pq = new MinPQ<Event>();
+        AppointmentBlockSweep sweep = new AppointmentBlockSweep(false);
+        Map<Appointment,Integer> owners = new HashMap<Appointment,Integer>();
         for (AppointmentBlock block:intervals) {
-            Event e1 = new Event(block.getStart(),  block);
-            Event e2 = new Event(block.getEnd(), block);
-            pq.insert(e1);
-            pq.insert(e2);
+            final Appointment appointment = block.getAppointment();
+            Integer owner = owners.get( appointment);
+            if ( owner == null)
+            {
+                owner = sweep.addAppointment( appointment, false);
+                owners.put( appointment, owner);
+            }
+            sweep.addBlock( block.getStart(), block.getEnd(), owner);
         }
+        return sweepLine(allocatable, today, sweep);
+    }
 
-        // run sweep-line algorithm
-        HashSet<AppointmentBlock> st = new HashSet<AppointmentBlock>();
-        while (!pq.isEmpty()) {
-            Event e = pq.delMin();
-            long time = e.time;
-            AppointmentBlock appBlock = e.interval;
-            Appointment appointment1 = appBlock.getAppointment();
-
-            // next event is the right endpoint of interval i
-            if (time == appBlock.getEnd())
-                st.remove(appBlock);
-
-            // next event is the left endpoint of interval i
-            else {
-                for (AppointmentBlock appBlock2 : st) {
-                    final Appointment appointment2 = appBlock2.getAppointment();
-                    if ( appBlock == appBlock2 || appointment1.equals( appointment2) )
-                    {
-                        continue;
-                    }
-                    if ( appointment2.overlapsAppointment(appointment1))
-                    {
-                        String id = ConflictImpl.createId(allocatable.getReference(), appointment1.getReference(), appointment2.getReference());
-                        if ( foundConflictIds.contains(id ))
-                        {
-                            continue;
-                        }
-                        // Add appointments to conflict list
-                        if (ConflictImpl.isConflictWithoutCheck(appointment1, appointment2, today))
-                        {
-                            // create a new conflict
-                            final ConflictImpl conflict = new ConflictImpl(allocatable,appointment1, appointment2, today, id);
-                            conflictList.put(conflict.getReference(), conflict);
-                            foundConflictIds.add( id);
-//                            System.out.println("Conflict " + appointment1 + " and " + appointment2);
-                        }                       
-                    }
-
-                }
-                st.add(appBlock);
+    /** checks each pair of appointments with overlapping blocks and only creates conflict objects for real conflicts */
+    private static Map<ReferenceInfo<Conflict>,Conflict> sweepLine(final Allocatable allocatable, final Date today, AppointmentBlockSweep sweep) {
+        final Map<ReferenceInfo<Conflict>,Conflict> conflictList =  new HashMap<ReferenceInfo<Conflict>,Conflict>( );
+        sweep.sweep((appointment1, appointment2) ->
+        {
+            if ( appointment2.overlapsAppointment(appointment1) && ConflictImpl.isConflictWithoutCheck(appointment1, appointment2, today))
+            {
+                final ConflictImpl conflict = new ConflictImpl(allocatable,appointment1, appointment2, today);
+                conflictList.put(conflict.getReference(), conflict);
             }
-        }
+        });
         return conflictList;
-
     }
 
     
@@ -413,9 +501,15 @@ class ConflictFinder {
 //        return( idList.contains( appointment1) || idList.contains( appointment2));
 //	}
 	
-    private void createBlocks(Date today, Collection<Appointment> appointmentSet,  Collection<AppointmentBlock> allAppointmentBlocks) {
+    private static long getMaxCheck()
+    {
         // overlaps will be checked  260 weeks (5 years) from now on
-		long maxCheck = System.currentTimeMillis() + DateTools.MILLISECONDS_PER_WEEK * 260;
+        return System.currentTimeMillis() + DateTools.MILLISECONDS_PER_WEEK * 260;
+    }
+
+    /** adds the blocks of the appointments to the sweep. If changedAppointments is not null only conflicts with them are calculated */
+    private void createBlocks(Date today, Collection<Appointment> appointmentSet,  AppointmentBlockSweep sweep, Set<Appointment> changedAppointments) {
+		long maxCheck = getMaxCheck();
 		//Appointment last = appointmentSet.last();
 		
 		// Get all time blocks of all appointments
@@ -456,7 +550,8 @@ class ConflictFinder {
 			{
 			    start = today;
 			}
-            ((AppointmentImpl)appointment).createBlocks(start, DateTools.fillDate(maxEnd), allAppointmentBlocks);
+            boolean isChanged = changedAppointments != null && changedAppointments.contains( appointment);
+            sweep.addAppointment( appointment, start.getTime(), DateTools.fillDate(maxEnd).getTime(), isChanged);
 		}
     }
 
@@ -596,27 +691,42 @@ class ConflictFinder {
 
     	Set<Conflict> added = new HashSet<Conflict>();
     	// this will recalculate the conflicts for that resource and the chan;ged appointments
-    	for ( Map.Entry<ReferenceInfo<Allocatable>, AllocationChange> entry:toUpdate.entrySet())
+    	final List<ReferenceInfo<Allocatable>> allocatableIds = new ArrayList<ReferenceInfo<Allocatable>>( toUpdate.keySet());
+    	final List<Map<ReferenceInfo<Conflict>,Conflict>> conflictListsBefore = new ArrayList<Map<ReferenceInfo<Conflict>,Conflict>>();
+    	final List<Boolean> incremental = new ArrayList<Boolean>();
+    	for ( ReferenceInfo<Allocatable> allocatableId:allocatableIds)
     	{
-            ReferenceInfo<Allocatable> allocatableId = entry.getKey();
-    		
-    		AllocationChange changedAppointments = entry.getValue();
+    		AllocationChange changedAppointments = toUpdate.get( allocatableId);
     		if ( changedAppointments == null)
 			{
 				conflictMap.remove( allocatableId);
 			}
-			
+    		// the other conflicts of the allocatable are still valid, so we only check the changed appointments
+    		incremental.add( changedAppointments != null && conflictMap.containsKey( allocatableId));
     		Map<ReferenceInfo<Conflict>,Conflict> conflictListBefore =  conflictMap.get(allocatableId);
     		if ( conflictListBefore == null)
     		{
     			conflictListBefore = new LinkedHashMap<ReferenceInfo<Conflict>,Conflict>();
     		}
+    		conflictListsBefore.add( conflictListBefore);
+    	}
+    	// the allocatables are independent, so the conflicts can be recalculated in parallel, e.g. after a conflict annotation of a type changed
+    	final List<Map<ReferenceInfo<Conflict>,Conflict>> conflictListsAfter = calculateInParallel( allocatableIds.size(), (index) ->
+        {
+            final ReferenceInfo<Allocatable> allocatableId = allocatableIds.get( index);
             Allocatable allocatable = resolver.tryResolve( allocatableId);
-			Map<ReferenceInfo<Conflict>,Conflict> conflictListAfter;
-            if  (allocatable != null)
-             conflictListAfter = calculateConflicts( allocatable , today);
+            if  (allocatable == null)
+                return Collections.emptyMap();
+            else if ( incremental.get( index))
+                return updateConflicts( allocatable, today, conflictListsBefore.get( index), toUpdate.get( allocatableId));
             else
-             conflictListAfter= Collections.emptyMap();
+                return calculateConflicts( allocatable , today);
+        }, false);
+    	for ( int index = 0;index < allocatableIds.size();index++)
+    	{
+            ReferenceInfo<Allocatable> allocatableId = allocatableIds.get( index);
+    		Map<ReferenceInfo<Conflict>,Conflict> conflictListBefore =  conflictListsBefore.get( index);
+			Map<ReferenceInfo<Conflict>,Conflict> conflictListAfter = conflictListsAfter.get( index);
 			conflictMap.put( allocatableId, conflictListAfter);
 			//User user = evt.getUserFromRequest();
 		
@@ -11,12 +11,16 @@ import org.rapla.entities.dynamictype.DynamicType;
 import org.rapla.entities.dynamictype.internal.DynamicTypeImpl;
 import org.rapla.entities.internal.CategoryImpl;
 import org.rapla.entities.internal.UserImpl;
+import org.rapla.entities.storage.RefEntity;
 import org.rapla.entities.storage.ReferenceInfo;
 import org.rapla.facade.Conflict;
 import org.rapla.facade.internal.ConflictImpl;
 import org.rapla.framework.RaplaException;
 import org.rapla.rest.JsonParserWrapper;
 
+import java.io.ByteArrayOutputStream;
+import java.lang.ref.SoftReference;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -27,6 +31,9 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 public class EntityHistory
 {
@@ -45,8 +52,11 @@ public class EntityHistory
     {
         private long timestamp;
         ReferenceInfo ref;
-        private String json;
+        // the json of the entity, deflated to keep the history small
+        private byte[] data;
         private boolean isDelete;
+        // the decoded entity, shared by all readers and released when memory gets low
+        private volatile SoftReference<Entity> decoded;
 
         private HistoryEntry()
         {
@@ -58,7 +68,7 @@ public class EntityHistory
             this.ref = id;
             this.isDelete = isDelete;
             this.timestamp = timestamp;
-            this.json = json;
+            this.data = encode(json);
         }
 
         public ReferenceInfo getId()
@@ -76,12 +86,77 @@ public class EntityHistory
             return isDelete;
         }
 
+        String getJson()
+        {
+            return decode(data);
+        }
+
         @Override public String toString()
         {
             return "HistoryEntry [timestamp=" + timestamp + ", id=" + ref + "]";
         }
     }
 
+    static byte[] encode(String json)
+    {
+        if (json == null)
+        {
+            return null;
+        }
+        final byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try
+        {
+            deflater.setInput(bytes);
+            deflater.finish();
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4 + 16);
+            final byte[] buffer = new byte[4096];
+            while (!deflater.finished())
+            {
+                final int count = deflater.deflate(buffer);
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        }
+        finally
+        {
+            deflater.end();
+        }
+    }
+
+    static String decode(byte[] data)
+    {
+        if (data == null)
+        {
+            return null;
+        }
+        final Inflater inflater = new Inflater();
+        try
+        {
+            inflater.setInput(data);
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+            final byte[] buffer = new byte[4096];
+            while (!inflater.finished())
+            {
+                final int count = inflater.inflate(buffer);
+                if (count == 0 && inflater.needsInput())
+                {
+                    throw new IllegalStateException("Truncated history entry");
+                }
+                out.write(buffer, 0, count);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+        catch (DataFormatException ex)
+        {
+            throw new IllegalStateException("Corrupt history entry " + ex.getMessage(), ex);
+        }
+        finally
+        {
+            inflater.end();
+        }
+    }
+
     private final Map<ReferenceInfo, List<EntityHistory.HistoryEntry>> map = new LinkedHashMap<ReferenceInfo, List<EntityHistory.HistoryEntry>>();
     private final JsonParserWrapper.JsonParser gson;
 
@@ -106,7 +181,8 @@ public class EntityHistory
         return result;
     }
 
-    /** returns the history entry with a timestamp<= since or null if no such entry exists*/
+    /** returns the history entry with a timestamp<= since or null if no such entry exists.
+     * The returned entity is read only and shared, see {@link #getReadOnlyEntity(HistoryEntry)} */
     public Entity get(ReferenceInfo id, Date since) throws RaplaException
     {
         final List<EntityHistory.HistoryEntry> historyEntries = map.get(id);
@@ -137,7 +213,7 @@ public class EntityHistory
             return null;
         }
         EntityHistory.HistoryEntry entry = historyEntries.get(index);
-        return getEntity(entry);
+        return getReadOnlyEntity(entry);
     }
 
     Map<Class<? extends Entity>, Class<? extends Entity>> typeImpl = new HashMap<Class<? extends Entity>, Class<? extends Entity>>();
@@ -158,15 +234,35 @@ public class EntityHistory
         typeImpl.put(type, impl);
     }
 
+    /** returns a new instance of the entity in the entry, that can be resolved and modified */
     public Entity getEntity(HistoryEntry entry)
     {
-        String json = entry.json;
+        String json = entry.getJson();
         final Class typeClass = entry.getId().getType();
         final Class<? extends Entity> implementingClass = typeImpl.get(typeClass);
         final Entity entity = gson.fromJson(json, implementingClass);
         return entity;
     }
 
+    /** returns the entity in the entry as read only instance. The entity is only decoded once and shared by all callers,
+     * as long as there is enough memory. Use {@link #getEntity(HistoryEntry)} if you need to resolve or modify the entity.*/
+    public Entity getReadOnlyEntity(HistoryEntry entry)
+    {
+        final SoftReference<Entity> decoded = entry.decoded;
+        Entity entity = decoded != null ? decoded.get() : null;
+        if (entity == null)
+        {
+            entity = getEntity(entry);
+            if (entity == null)
+            {
+                return null;
+            }
+            ((RefEntity) entity).setReadOnly();
+            entry.decoded = new SoftReference<Entity>(entity);
+        }
+        return entity;
+    }
+
     public EntityHistory.HistoryEntry addHistoryEntry(ReferenceInfo id, String json, Date timestamp, boolean isDelete)
     {
         List<EntityHistory.HistoryEntry> historyEntries = map.get(id);
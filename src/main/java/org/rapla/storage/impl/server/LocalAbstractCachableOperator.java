@@ -91,6 +91,7 @@ import org.rapla.framework.RaplaLocale;
 import org.rapla.logger.Logger;
 import org.rapla.rest.JsonParserWrapper;
 import org.rapla.scheduler.CommandScheduler;
+import org.rapla.scheduler.CompletablePromise;
 import org.rapla.scheduler.Observable;
 import org.rapla.scheduler.Promise;
 import org.rapla.scheduler.ResolvedPromise;
@@ -114,6 +115,7 @@ import org.rapla.storage.impl.AbstractCachableOperator;
 import org.rapla.storage.impl.DefaultRaplaLock;
 import org.rapla.storage.impl.EntityStore;
 import org.rapla.storage.impl.RaplaLock;
+import org.rapla.storage.impl.StripedRaplaLock;
 
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -144,6 +146,8 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
     InitStatus connectStatus = InitStatus.Disconnected;
     // some indexMaps
     AppointmentMapClass appointmentBindings;
+    /** number of reservations removed with one dispatch in {@link #removeReservationsEndingBefore(Date)} */
+    static final int REMOVE_BATCH_SIZE = 1000;
     private BidiMap<String, ReferenceInfo> externalIds;
 
     protected enum InitStatus
@@ -164,11 +168,15 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
      * are "sha" or "md5".
      */
     private String encryption = "sha-1";
-    private ConflictFinder conflictFinder;
+    ConflictFinder conflictFinder;
     //private SortedSet<LastChangedTimestamp> timestampSet;
     // we need a bidi to sort the values instead of the keys
     protected final EntityHistory history;
     private SortedBidiMap<String, DeleteUpdateEntry> deleteUpdateSet;
+    // incremented on every change to the deleteUpdateSet. Only written under the write lock
+    private volatile long changeCount;
+    // promises of the clients waiting for the next change, see waitForChange
+    private final List<CompletablePromise<Long>> changeWaiters = new ArrayList<>();
 
     private TimeZone systemTimeZone = TimeZone.getDefault();
     private CommandScheduler scheduler;
@@ -176,6 +184,8 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
     private CalendarModelCache calendarModelCache;
     private Date connectStart;
     private final DefaultRaplaLock disconnectLock;
+    /** locks for the allocatables and reservations changed by a dispatch. Must be acquired before the lockManager*/
+    protected final StripedRaplaLock allocatableLocks;
     private final PromiseWait promiseWait;
 
     public LocalAbstractCachableOperator(Logger logger, PromiseWait promiseWait, RaplaResources i18n, RaplaLocale raplaLocale, CommandScheduler scheduler,
@@ -185,6 +195,7 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
         this.scheduler = scheduler;
         this.promiseWait = promiseWait;
         disconnectLock = new DefaultRaplaLock(logger);
+        allocatableLocks = new StripedRaplaLock(logger);
         //context.lookupDeprecated( CommandScheduler.class);
         this.history = new EntityHistory();
         appointmentBindings = new AppointmentMapClass(logger);
@@ -362,6 +373,70 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
         return connectStart;
     }
 
+    @Override
+    public long getChangeCount()
+    {
+        return changeCount;
+    }
+
+    @Override
+    public Promise<Long> waitForChange(long changeCount, long timeout)
+    {
+        final CompletablePromise<Long> promise = scheduler.createCompletable();
+        synchronized (changeWaiters)
+        {
+            // the count is incremented before the waiters are notified, so a change after the check still completes the promise
+            if (this.changeCount != changeCount)
+            {
+                promise.complete(this.changeCount);
+                return promise;
+            }
+            changeWaiters.add(promise);
+        }
+        // only the timer runs on the maintenance pool, the waiting request is completed on the request pool
+        scheduler.schedule(() ->
+        {
+            final boolean waiting;
+            synchronized (changeWaiters)
+            {
+                waiting = changeWaiters.remove(promise);
+            }
+            if (waiting)
+            {
+                scheduler.supply(() ->
+                {
+                    promise.complete(this.changeCount);
+                    return null;
+                });
+            }
+        }, timeout);
+        return promise;
+    }
+
+    private void notifyChangeWaiters()
+    {
+        final List<CompletablePromise<Long>> waiters;
+        synchronized (changeWaiters)
+        {
+            if (changeWaiters.isEmpty())
+            {
+                return;
+            }
+            waiters = new ArrayList<>(changeWaiters);
+            changeWaiters.clear();
+        }
+        // complete on the request pool outside the caller's write lock, the waiting requests will read the changes
+        final long count = changeCount;
+        scheduler.supply(() ->
+        {
+            for (CompletablePromise<Long> waiter : waiters)
+            {
+                waiter.complete(count);
+            }
+            return null;
+        });
+    }
+
     protected void setConnectStart(Date connectStart)
     {
         this.connectStart = connectStart;
@@ -429,6 +504,105 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
         }
     }
 
+    /**
+     * Locks the allocatables and reservations that are changed by the event for writing, so only readers of these allocatables have to wait
+     * until the dispatch is finished. Changes of dynamic types and categories and removals of allocatables affect all entities and lock all stripes.
+     * The lock must be acquired before the lockManager.
+     */
+    protected RaplaLock.WriteLock writeLockAffectedAllocatables(UpdateEvent evt) throws RaplaException
+    {
+        final Collection<ReferenceInfo> references;
+        RaplaLock.ReadLock readLock = lockManager.readLock();
+        try
+        {
+            references = getAffectedReferences(evt);
+        }
+        finally
+        {
+            lockManager.unlock(readLock);
+        }
+        return allocatableLocks.writeLock(references, DefaultRaplaLock.DEFAULT_WRITELOCK_TIMEOUT_SECONDS);
+    }
+
+    /** waits for all dispatches that change one of the allocatables. The lock must be acquired before the lockManager*/
+    protected RaplaLock.ReadLock readLockAllocatables(Collection<Allocatable> allocatables) throws RaplaException
+    {
+        Collection<ReferenceInfo> references = new ArrayList<ReferenceInfo>();
+        for (Allocatable allocatable : allocatables)
+        {
+            references.add(allocatable.getReference());
+        }
+        return allocatableLocks.readLock(references, DefaultRaplaLock.DEFAULT_READLOCK_TIMEOUT_SECONDS);
+    }
+
+    /** all user stores lock this stripe, because the username must be unique among all users (see checkUnique) */
+    private static final ReferenceInfo<User> USERNAME_STRIPE = new ReferenceInfo<User>("usernames", User.class);
+
+    /** @return the references of all changed entities and the allocatables of changed reservations or null if all entities are affected*/
+    private Collection<ReferenceInfo> getAffectedReferences(UpdateEvent evt) throws RaplaException
+    {
+        Set<ReferenceInfo> references = new HashSet<ReferenceInfo>();
+        for (Entity entity : evt.getStoreObjects())
+        {
+            final Class<? extends Entity> typeClass = entity.getTypeClass();
+            if (typeClass == DynamicType.class || typeClass == Category.class)
+            {
+                return null;
+            }
+            final ReferenceInfo reference = entity.getReference();
+            references.add(reference);
+            if (typeClass == Reservation.class)
+            {
+                addAllocatableReferences((Reservation) entity, references);
+                addAllocatableReferences(cache.tryResolve((ReferenceInfo<Reservation>) reference), references);
+            }
+            else if (typeClass == Allocatable.class)
+            {
+                references.addAll(cache.getDependentRef((ReferenceInfo<Allocatable>) reference));
+            }
+            else if (typeClass == User.class)
+            {
+                references.add(USERNAME_STRIPE);
+            }
+        }
+        for (ReferenceInfo reference : evt.getRemoveIds())
+        {
+            final Class<? extends Entity> typeClass = reference.getType();
+            // removing allocatables changes all reservations that allocate them, removing users changes the entities they last changed
+            if (typeClass == DynamicType.class || typeClass == Category.class || typeClass == Allocatable.class || typeClass == User.class)
+            {
+                return null;
+            }
+            references.add(reference);
+            if (typeClass == Reservation.class)
+            {
+                addAllocatableReferences(cache.tryResolve((ReferenceInfo<Reservation>) reference), references);
+            }
+        }
+        for (PreferencePatch patch : evt.getPreferencePatches())
+        {
+            references.add(patch.getReference());
+        }
+        return references;
+    }
+
+    private void addAllocatableReferences(Reservation reservation, Collection<ReferenceInfo> references)
+    {
+        if (reservation == null)
+        {
+            return;
+        }
+        for (Appointment appointment : reservation.getAppointments())
+        {
+            references.addAll(((ReservationImpl) reservation).getAllocatableIdsFor(appointment));
+        }
+        final String templateId = reservation.getAnnotation(RaplaObjectAnnotations.KEY_TEMPLATE);
+        if (templateId != null)
+        {
+            references.add(new ReferenceInfo<Allocatable>(templateId, Allocatable.class));
+        }
+    }
+
     /**
      * @param user the owner of the reservation or null for reservations from all users
      */
@@ -444,16 +618,18 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
             boolean isResourceTemplate = allocs.size() == 1 && (allocs.iterator().next().getClassification().getType().getKey().equals(RAPLA_TEMPLATE));
             for (Allocatable allocatable : allocs)
             {
+                final Set<ReferenceInfo<Allocatable>> allocatableIds;
                 RaplaLock.ReadLock readLock = lockManager.readLock();
-                SortedSet<Appointment> appointments;
                 try
                 {
-                    appointments = getAppointments(allocatable);
+                    allocatableIds = cache.getDependentRef(allocatable.getReference());
                 }
                 finally
                 {
                     lockManager.unlock(readLock);
                 }
+                // the appointment bindings are read from the last published snapshot, so we don't need to wait for running dispatches
+                SortedSet<Appointment> appointments = getAppointments(allocatableIds, start, end);
                 SortedSet<Appointment> appointmentSet = AppointmentImpl.getAppointments(appointments, user, start, end, excludeExceptions);
                 for (Appointment appointment : appointmentSet)
                 {
@@ -993,6 +1169,11 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
                 return LocalAbstractCachableOperator.this.getAppointments(allocatable);
             }
 
+            public SortedSet<Appointment> getAppointments(Allocatable allocatable, Date start, Date end)
+            {
+                return LocalAbstractCachableOperator.this.getAppointments(allocatable, start, end);
+            }
+
             @SuppressWarnings("unchecked")
             public Collection<Allocatable> getAllocatables()
             {
@@ -1043,7 +1224,7 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
         }
         calendarModelCache.initCalendarMap();
         scheduleConnectedTasks(cleanUpConflicts, delay, DateTools.MILLISECONDS_PER_HOUR);
-        final int refreshPeriod = 1000 * 9;
+        final long refreshPeriod = getRefreshPeriod();
         scheduleConnectedTasks(()->
             {
                 try
@@ -1085,6 +1266,12 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
 
     abstract protected void refreshWithoutLock();
 
+    /** the period in milliseconds for reading changes of other servers from the storage */
+    protected long getRefreshPeriod()
+    {
+        return 1000 * 9;
+    }
+
     @Override
     synchronized public void disconnect() throws RaplaException
     {
@@ -1418,12 +1605,13 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
             appointmentBindings.initAppointmentBindings(cache.getReservations());
         }
         appointmentBindings.checkAbandonedAppointments(cache);
+        appointmentBindings.publish();
         return bindingResult;
     }
 
     protected void addToDeleteUpdate(EntityHistory.HistoryEntry historyEntry)
     {
-        Entity current = history.getEntity(historyEntry);
+        Entity current = history.getReadOnlyEntity(historyEntry);
         final boolean isDelete = historyEntry.isDelete();
         final Date timestamp = new Date(historyEntry.getTimestamp());
         ReferenceInfo ref = historyEntry.getId();
@@ -1485,6 +1673,7 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
             }
         }
         deleteUpdateSet.put(entry.getId(), entry);
+        changeCount++;
     }
 
     private void addPermissions(DeleteUpdateEntry entry, ReferenceInfo<Reservation> reservation)
@@ -1856,41 +2045,48 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
         }
     }
 
-    static final SortedSet<Appointment> EMPTY_SORTED_SET = Collections.unmodifiableSortedSet(new TreeSet<Appointment>());
-
     /** returs all appointments for the allocatable and all groupMembers and belongsTo*/
     protected SortedSet<Appointment> getAppointments(Allocatable allocatable)
+    {
+        return getAppointments(allocatable, null, null);
+    }
+
+    /** returns all appointments for the allocatable and all groupMembers and belongsTo that start before or at end and end after start.
+     * The appointments still need to be checked with {@link Appointment#overlaps(Date, Date)}
+     * @param start null means no lower bound
+     * @param end null means no upper bound
+     * */
+    protected SortedSet<Appointment> getAppointments(Allocatable allocatable, Date start, Date end)
     {
         final ReferenceInfo<Allocatable> reference = allocatable != null ? allocatable.getReference() : null;
         Set<ReferenceInfo<Allocatable>> allocatableIds = cache.getDependentRef(reference);
+        return getAppointments(allocatableIds, start, end);
+    }
+
+    /** returns all appointments for the passed allocatable ids that start before or at end and end after start. An empty collection returns the appointments without allocatables.
+     * This method reads from the last published snapshot of the appointment bindings and doesn't need a lock.*/
+    protected SortedSet<Appointment> getAppointments(Collection<ReferenceInfo<Allocatable>> allocatableIds, Date start, Date end)
+    {
+        SortedSet<Appointment> result = new TreeSet<Appointment>(new AppointmentStartComparator());
         if (allocatableIds.size() == 0)
         {
-            SortedSet<Appointment> s = appointmentBindings.getAppointments(null);
-            if (s != null)
-            {
-                return s;
-            }
-            return EMPTY_SORTED_SET;
+            appointmentBindings.getAppointments(Collections.singleton((ReferenceInfo<Allocatable>) null), start, end, result);
         }
         else
         {
-            SortedSet<Appointment> transitive = new TreeSet<Appointment>(new AppointmentStartComparator());
-            for (ReferenceInfo<Allocatable> allocatableId : allocatableIds)
-            {
-                SortedSet<Appointment> s = appointmentBindings.getAppointments(allocatableId);
-                for (Appointment appointment : s)
-                {
-                    transitive.add(appointment);
-                }
-            }
-            return transitive;
+            appointmentBindings.getAppointments(allocatableIds, start, end, result);
         }
+        return result;
     }
 
     static final class AppointmentMapClass
     {
         final private Logger logger;
-        private Map<ReferenceInfo<Allocatable>, SortedSet<Appointment>> appointmentMap;
+        // only modified by the writer that holds the write lock
+        private Map<ReferenceInfo<Allocatable>, AppointmentIntervalTree> appointmentMap;
+        private final Set<ReferenceInfo<Allocatable>> changedSincePublish = new HashSet<ReferenceInfo<Allocatable>>();
+        // immutable snapshot of the appointmentMap that can be read without a lock. It is replaced on publish
+        private volatile Map<ReferenceInfo<Allocatable>, AppointmentIntervalTree> published = Collections.emptyMap();
 
         private AppointmentMapClass(Logger newLogger)
         {
@@ -1899,7 +2095,8 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
 
         private void initAppointmentBindings(Collection<Reservation> reservations)
         {
-            appointmentMap = new HashMap<ReferenceInfo<Allocatable>, SortedSet<Appointment>>();
+            // collect the appointments first so that we can build balanced trees from sorted lists
+            Map<ReferenceInfo<Allocatable>, List<Appointment>> bindings = new HashMap<ReferenceInfo<Allocatable>, List<Appointment>>();
             for (Reservation r : reservations)
             {
                 for (Appointment app : ((ReservationImpl) r).getAppointmentList())
@@ -1908,25 +2105,84 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
                     Collection<ReferenceInfo<Allocatable>> allocatables = reservation.getAllocatableIdsFor(app);
                     {
                         final ReferenceInfo<Allocatable> alloc = null;
-                        addAppointmentBinding(app, alloc);
+                        addInitialBinding(bindings, app, alloc);
                     }
                     for (ReferenceInfo<Allocatable> alloc : allocatables)
                     {
-                        addAppointmentBinding(app, alloc);
+                        addInitialBinding(bindings, app, alloc);
                     }
                     final String annotation = reservation.getAnnotation(RaplaObjectAnnotations.KEY_TEMPLATE);
                     if (annotation != null)
                     {
                         ReferenceInfo<Allocatable> alloc = new ReferenceInfo(annotation, Allocatable.class);
-                        addAppointmentBinding(app, alloc);
+                        addInitialBinding(bindings, app, alloc);
                     }
                 }
             }
+            final AppointmentStartComparator comparator = new AppointmentStartComparator();
+            appointmentMap = new HashMap<ReferenceInfo<Allocatable>, AppointmentIntervalTree>();
+            for (Map.Entry<ReferenceInfo<Allocatable>, List<Appointment>> entry : bindings.entrySet())
+            {
+                final List<Appointment> list = entry.getValue();
+                Collections.sort(list, comparator);
+                // remove duplicates, e.g. if the template is also allocated
+                final List<Appointment> sorted = new ArrayList<Appointment>(list.size());
+                for (Appointment app : list)
+                {
+                    if (sorted.isEmpty() || comparator.compare(sorted.get(sorted.size() - 1), app) != 0)
+                    {
+                        sorted.add(app);
+                    }
+                }
+                appointmentMap.put(entry.getKey(), new AppointmentIntervalTree(sorted));
+            }
+            changedSincePublish.clear();
+            Map<ReferenceInfo<Allocatable>, AppointmentIntervalTree> snapshot = new HashMap<ReferenceInfo<Allocatable>, AppointmentIntervalTree>(appointmentMap.size());
+            for (Map.Entry<ReferenceInfo<Allocatable>, AppointmentIntervalTree> entry : appointmentMap.entrySet())
+            {
+                snapshot.put(entry.getKey(), entry.getValue().snapshot());
+            }
+            published = snapshot;
+        }
+
+        /** makes all changes since the last publish visible to the readers at once */
+        private void publish()
+        {
+            if (changedSincePublish.isEmpty())
+            {
+                return;
+            }
+            Map<ReferenceInfo<Allocatable>, AppointmentIntervalTree> snapshot = new HashMap<ReferenceInfo<Allocatable>, AppointmentIntervalTree>(published);
+            for (ReferenceInfo<Allocatable> allocatableId : changedSincePublish)
+            {
+                final AppointmentIntervalTree tree = appointmentMap.get(allocatableId);
+                if (tree != null)
+                {
+                    snapshot.put(allocatableId, tree.snapshot());
+                }
+                else
+                {
+                    snapshot.remove(allocatableId);
+                }
+            }
+            changedSincePublish.clear();
+            published = snapshot;
+        }
+
+        private void addInitialBinding(Map<ReferenceInfo<Allocatable>, List<Appointment>> bindings, Appointment app, ReferenceInfo<Allocatable> allocationId)
+        {
+            List<Appointment> list = bindings.get(allocationId);
+            if (list == null)
+            {
+                list = new ArrayList<Appointment>();
+                bindings.put(allocationId, list);
+            }
+            list.add(app);
         }
 
         private void removeAppointmentBinding(Appointment app, ReferenceInfo<Allocatable> allocationId)
         {
-            Collection<Appointment> appointmentSet = appointmentMap.get(allocationId);
+            AppointmentIntervalTree appointmentSet = appointmentMap.get(allocationId);
             if (appointmentSet == null)
             {
                 return;
@@ -1935,18 +2191,12 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
             // binary search could fail if the appointment has changed since the last add, which should not
             // happen as we only put and search immutable objects in the map. But the method is left here as a failsafe
             // with a log messaget
+            changedSincePublish.add(allocationId);
             if (!appointmentSet.remove(app))
             {
-                logger.error("Appointent has changed, so its not found in indexed binding map. Removing via full search");
-                // so we need to traverse all appointment
-                Iterator<Appointment> it = appointmentSet.iterator();
-                while (it.hasNext())
+                if (appointmentSet.removeWithFullSearch(app))
                 {
-                    if (app.equals(it.next()))
-                    {
-                        it.remove();
-                        break;
-                    }
+                    logger.error("Appointent has changed, so its not found in indexed binding map. Removed via full search");
                 }
             }
         }
@@ -1955,23 +2205,25 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
         {
             for (ReferenceInfo<Allocatable> alloc : removedAllocatables)
             {
-                SortedSet<Appointment> sortedSet = appointmentMap.get(alloc);
+                AppointmentIntervalTree sortedSet = appointmentMap.get(alloc);
                 if (sortedSet != null && !sortedSet.isEmpty())
                 {
                     logger.error("Removing non empty appointment map for resource " + alloc + " Appointments:" + sortedSet);
                 }
                 appointmentMap.remove(alloc);
+                changedSincePublish.add(alloc);
             }
         }
 
         private void addAppointmentBinding(Appointment appRef, ReferenceInfo<Allocatable> allocationId)
         {
-            SortedSet<Appointment> set = appointmentMap.get(allocationId);
+            AppointmentIntervalTree set = appointmentMap.get(allocationId);
             if (set == null)
             {
-                set = new TreeSet<Appointment>(new AppointmentStartComparator());
+                set = new AppointmentIntervalTree();
                 appointmentMap.put(allocationId, set);
             }
+            changedSincePublish.add(allocationId);
             set.add(appRef);
         }
 
@@ -1984,11 +2236,13 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
             {
                 for (Allocatable allocatable : allocatables)
                 {
-                    SortedSet<Appointment> appointmentSet = this.appointmentMap.get(allocatable.getReference());
+                    AppointmentIntervalTree appointmentSet = this.appointmentMap.get(allocatable.getReference());
                     if (appointmentSet == null)
                     {
                         continue;
                     }
+                    // the tree can't be modified while iterating, so we collect the abandoned appointments first
+                    List<Appointment> toRemove = new ArrayList<Appointment>();
                     for (Appointment app : appointmentSet)
                     {
                         Reservation reservation = app.getReservation();
@@ -1997,14 +2251,14 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
                         if (reservation == null)
                         {
                             logger.error("Appointment without a reservation stored in cache " + app);
-                            appointmentSet.remove(app);
+                            toRemove.add(app);
                             continue;
                         }
                         else if (!reservation.hasAllocatedOn(allocatable, app) && (template == null || !template.equals(allocatable)))
                         {
                             logger.error(
                                     "Allocation is not stored correctly for " + reservation + " " + app + " " + allocatable + " removing binding for " + app);
-                            appointmentSet.remove(app);
+                            toRemove.add(app);
                             continue;
                         }
                         else
@@ -2031,13 +2285,24 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
                                 else
                                 {
                                     logger.error("Reservation not stored in cache " + original + " removing binding for " + app);
-                                    appointmentSet.remove(app);
+                                    toRemove.add(app);
                                     continue;
                                 }
                             }
 
                         }
                     }
+                    if (!toRemove.isEmpty())
+                    {
+                        changedSincePublish.add(allocatable.getReference());
+                    }
+                    for (Appointment app : toRemove)
+                    {
+                        if (!appointmentSet.remove(app))
+                        {
+                            appointmentSet.removeWithFullSearch(app);
+                        }
+                    }
                 }
             }
             catch (Exception ex)
@@ -2046,23 +2311,29 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
             }
         }
 
-        final SortedSet<Appointment> EMPTY_SORTED_REF_SET = Collections.unmodifiableSortedSet(new TreeSet<Appointment>());
-
-        public SortedSet<Appointment> getAppointments(ReferenceInfo<Allocatable> allocatableId)
+        /** adds all appointments of the allocatables that start before or at end and end after start to the result.
+         * Reads the last published snapshot, so no lock is needed and all allocatables are read from the same version.
+         * @param start null means no lower bound
+         * @param end null means no upper bound
+         * */
+        public void getAppointments(Collection<ReferenceInfo<Allocatable>> allocatableIds, Date start, Date end, Collection<? super Appointment> result)
         {
-            final SortedSet<Appointment> referenceInfos = appointmentMap.get(allocatableId);
-            if (referenceInfos != null)
+            final Map<ReferenceInfo<Allocatable>, AppointmentIntervalTree> snapshot = published;
+            for (ReferenceInfo<Allocatable> allocatableId : allocatableIds)
             {
-                return referenceInfos;
+                final AppointmentIntervalTree appointments = snapshot.get(allocatableId);
+                if (appointments != null)
+                {
+                    appointments.getOverlapping(start, end, result);
+                }
             }
-            return EMPTY_SORTED_REF_SET;
         }
     }
 
     protected UpdateResult refresh(Date since, Date until, Collection<Entity> storeObjects, Collection<PreferencePatch> preferencePatches,
             Collection<ReferenceInfo> removedIds) throws RaplaException
     {
-
+        final long changeCountBefore = changeCount;
         UpdateResult update = super.update(since, until, storeObjects, preferencePatches, removedIds);
         final Collection<ConflictFinder.ConflictChangeOperation> updateOperations = updateIndizes(update);
         for (ConflictFinder.ConflictChangeOperation op : updateOperations)
@@ -2070,9 +2341,72 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
             // conflicts
             update.addOperation(op.getNewConflict(), op.getOldConflict(), op.getOperation());
         }
+        // a refresh without changes, e.g. the periodic one, must not wake up the waiting clients
+        if (changeCount != changeCountBefore || update.getOperations().iterator().hasNext())
+        {
+            notifyChangeWaiters();
+        }
         return update;
     }
 
+    @Override
+    public int removeReservationsEndingBefore(Date endDate) throws RaplaException
+    {
+        final List<ReferenceInfo<Reservation>> toRemove = new ArrayList<ReferenceInfo<Reservation>>();
+        final RaplaLock.ReadLock readLock = lockManager.readLock();
+        try
+        {
+            for (Reservation reservation : cache.getReservations())
+            {
+                if (!RaplaComponent.isTemplate(reservation) && endsBefore(reservation, endDate))
+                {
+                    toRemove.add(reservation.getReference());
+                }
+            }
+        }
+        finally
+        {
+            lockManager.unlock(readLock);
+        }
+        if (toRemove.isEmpty())
+        {
+            return 0;
+        }
+        getLogger().info("Removing " + toRemove.size() + " reservations ending before " + endDate);
+        // each batch is written with one dispatch, so the indexes are updated once per batch. The removed appointments are in the
+        // past, so the incremental conflict update doesn't find new conflicts for them
+        for (int i = 0; i < toRemove.size(); i += REMOVE_BATCH_SIZE)
+        {
+            final UpdateEvent evt = new UpdateEvent();
+            for (ReferenceInfo<Reservation> id : toRemove.subList(i, Math.min(toRemove.size(), i + REMOVE_BATCH_SIZE)))
+            {
+                evt.putRemoveId(id);
+            }
+            dispatch(evt);
+        }
+        return toRemove.size();
+    }
+
+    static private boolean endsBefore(Reservation reservation, Date endDate)
+    {
+        final Appointment[] appointments = reservation.getAppointments();
+        // reservations without appointments have no end
+        if (appointments.length == 0)
+        {
+            return false;
+        }
+        for (Appointment appointment : appointments)
+        {
+            final Date start = appointment.getStart();
+            final Date end = appointment.getMaxEnd();
+            if (start == null || end == null || end.after(endDate) || start.after(endDate))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private void removeOldHistory() throws RaplaException
     {
         final RaplaLock.WriteLock writeLock = writeLockIfLoaded();
@@ -3334,15 +3668,23 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
     private Map<Allocatable, Collection<Appointment>> getFirstAllocatableBindingsMap(Collection<Allocatable> allocatables, Collection<Appointment> appointments,
             Collection<Reservation> ignoreList) throws RaplaException
     {
-        final RaplaLock.ReadLock readLock = lockManager.readLock();
+        final RaplaLock.ReadLock allocatableLock = readLockAllocatables(allocatables);
         Map<Allocatable, Map<Appointment, Collection<Appointment>>> allocatableBindings;
         try
         {
-            allocatableBindings = getAllocatableBindings(allocatables, appointments, ignoreList, true);
+            final RaplaLock.ReadLock readLock = lockManager.readLock();
+            try
+            {
+                allocatableBindings = getAllocatableBindings(allocatables, appointments, ignoreList, true);
+            }
+            finally
+            {
+                lockManager.unlock(readLock);
+            }
         }
         finally
         {
-            lockManager.unlock(readLock);
+            allocatableLocks.unlock(allocatableLock);
         }
         Map<Allocatable, Collection<Appointment>> map = new HashMap<Allocatable, Collection<Appointment>>();
         for (Map.Entry<Allocatable, Map<Appointment, Collection<Appointment>>> entry : allocatableBindings.entrySet())
@@ -3360,16 +3702,24 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
     {
         return scheduler.supply(() ->
         {
-            RaplaLock.ReadLock readLock = lockManager.readLock();
+            RaplaLock.ReadLock allocatableLock = readLockAllocatables(allocatables);
             try
             {
-                Map<Allocatable, Map<Appointment, Collection<Appointment>>> allocatableBindings = getAllocatableBindings(allocatables, appointments, ignoreList,
-                        false);
-                return allocatableBindings;
+                RaplaLock.ReadLock readLock = lockManager.readLock();
+                try
+                {
+                    Map<Allocatable, Map<Appointment, Collection<Appointment>>> allocatableBindings = getAllocatableBindings(allocatables, appointments,
+                            ignoreList, false);
+                    return allocatableBindings;
+                }
+                finally
+                {
+                    lockManager.unlock(readLock);
+                }
             }
             finally
             {
-                lockManager.unlock(readLock);
+                allocatableLocks.unlock(allocatableLock);
             }
         });
     }
@@ -3388,14 +3738,11 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
                     continue;
                 }
                 // TODO check also parents and children from allocatables
-                SortedSet<Appointment> appointmentSet = getAppointments(allocatable);
-                if (appointmentSet == null)
-                {
-                    continue;
-                }
                 map.put(allocatable, new HashMap<>());
                 for (Appointment appointment : appointments)
                 {
+                    // only the appointments that can overlap need to be checked
+                    SortedSet<Appointment> appointmentSet = getAppointments(allocatable, appointment.getStart(), appointment.getMaxEnd());
                     Set<Appointment> conflictingAppointments = AppointmentImpl
                             .getConflictingAppointments(appointmentSet, appointment, ignoreList, onlyFirstConflictingAppointment);
                     if (conflictingAppointments.size() > 0)
@@ -3421,9 +3768,12 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
     {
         Promise<Date> promise = scheduler.supply(() ->
         {
-            RaplaLock.ReadLock readLock = lockManager.readLock();
+            // the allocatables must be locked before the lockManager, because isAllocated locks them again
+            RaplaLock.ReadLock allocatableLock = readLockAllocatables(allocatables);
+            RaplaLock.ReadLock readLock = null;
             try
             {
+                readLock = lockManager.readLock();
                 Appointment newState = appointment;
                 Date firstStart = appointment.getStart();
                 boolean startDateExcluded = isExcluded(excludedDays, firstStart);
@@ -3455,6 +3805,7 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
             finally
             {
                 lockManager.unlock(readLock);
+                allocatableLocks.unlock(allocatableLock);
             }
         });
         return promise;
@@ -3818,7 +4169,7 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
                 final EntityHistory.HistoryEntry latest = history.getLatest(update);
                 if (latest != null)
                 {
-                    oldEntity = history.getEntity(latest);
+                    oldEntity = history.getReadOnlyEntity(latest);
                 }
                 else
                 {
@@ -0,0 +1,48 @@
+package org.rapla.framework.internal;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.rapla.logger.ConsoleLogger;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(JUnit4.class)
+public class TestDefaultScheduler
+{
+    @Test
+    public void requestWorkNotBlockedByMaintenance() throws Exception
+    {
+        DefaultScheduler scheduler = new DefaultScheduler(new ConsoleLogger(), 1, 1);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        try
+        {
+            // occupies the only maintenance thread
+            scheduler.execute(() -> {
+                try
+                {
+                    blocked.await();
+                }
+                catch (InterruptedException e)
+                {
+                }
+            });
+            final CompletableFuture<String> result = new CompletableFuture<String>();
+            scheduler.supply(() -> "done").thenAccept((value) -> result.complete(value));
+            Assert.assertEquals("done", result.get(5, TimeUnit.SECONDS));
+
+            final TaskStatistics statistics = scheduler.getRequestStatistics();
+            Assert.assertEquals(1, statistics.getFinished());
+            Assert.assertEquals(0, statistics.getQueueDepth());
+            Assert.assertEquals(0, statistics.getRunning());
+        }
+        finally
+        {
+            blocked.countDown();
+            scheduler.dispose();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package org.rapla.plugin.export2ical.server;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.rapla.AbstractTestWithServer;
+import org.rapla.components.util.DateTools;
+import org.rapla.components.util.IOUtil;
+import org.rapla.entities.User;
+import org.rapla.entities.domain.Allocatable;
+import org.rapla.entities.domain.Reservation;
+import org.rapla.entities.dynamictype.DynamicTypeAnnotations;
+import org.rapla.facade.CalendarSelectionModel;
+import org.rapla.facade.RaplaFacade;
+import org.rapla.plugin.export2ical.Export2iCalPlugin;
+
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Date;
+
+@RunWith(JUnit4.class)
+public class TestExport2iCalServlet extends AbstractTestWithServer
+{
+    RaplaFacade facade;
+    User user;
+    Allocatable allocatable;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        facade = getServerRaplaFacade();
+        user = facade.getUser("homer");
+        allocatable = facade.getAllocatables()[0];
+        final CalendarSelectionModel model = facade.newCalendarModel(user);
+        model.setSelectedObjects(Collections.singletonList(allocatable));
+        model.setOption(Export2iCalPlugin.ICAL_EXPORT, "true");
+        model.save("feed");
+    }
+
+    private Reservation storeReservation(String name) throws Exception
+    {
+        final Reservation reservation = facade.newReservation(
+                facade.getDynamicTypes(DynamicTypeAnnotations.VALUE_CLASSIFICATION_TYPE_RESERVATION)[0].newClassification(), user);
+        reservation.getClassification().setValue("name", name);
+        final Date start = new Date(DateTools.addDays(facade.today(), 1).getTime() + DateTools.MILLISECONDS_PER_HOUR * 10);
+        reservation.addAppointment(facade.newAppointmentWithUser(start, new Date(start.getTime() + DateTools.MILLISECONDS_PER_HOUR), user));
+        reservation.addAllocatable(allocatable);
+        facade.store(reservation);
+        return reservation;
+    }
+
+    private HttpURLConnection request(String header, String value) throws Exception
+    {
+        final URL url = new URL("http://127.0.0.1:" + getPort() + "/rapla/" + Export2iCalPlugin.GENERATOR + "?user=homer&file=feed");
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        if (header != null)
+        {
+            connection.setRequestProperty(header, value);
+        }
+        connection.connect();
+        return connection;
+    }
+
+    private String readContent(HttpURLConnection connection) throws Exception
+    {
+        try (InputStream in = connection.getInputStream())
+        {
+            return new String(IOUtil.readBytes(in), "UTF-8");
+        }
+    }
+
+    @Test
+    public void testRemovedReservationWithIfModifiedSince() throws Exception
+    {
+        final Reservation reservation = storeReservation("removed event");
+        final HttpURLConnection first = request(null, null);
+        Assert.assertEquals(HttpURLConnection.HTTP_OK, first.getResponseCode());
+        Assert.assertTrue(readContent(first).contains("removed event"));
+        final String lastModified = first.getHeaderField("Last-Modified");
+        Assert.assertNotNull(lastModified);
+
+        facade.remove(reservation);
+        // the last modified date is calculated from the remaining reservations, so it can't tell that the feed has changed
+        final HttpURLConnection second = request("If-Modified-Since", lastModified);
+        Assert.assertEquals(HttpURLConnection.HTTP_OK, second.getResponseCode());
+        Assert.assertFalse(readContent(second).contains("removed event"));
+    }
+
+    @Test
+    public void testETag() throws Exception
+    {
+        storeReservation("first event");
+        final HttpURLConnection first = request(null, null);
+        Assert.assertEquals(HttpURLConnection.HTTP_OK, first.getResponseCode());
+        readContent(first);
+        final String etag = first.getHeaderField("ETag");
+        Assert.assertNotNull(etag);
+
+        final HttpURLConnection unchanged = request("If-None-Match", etag);
+        Assert.assertEquals(HttpURLConnection.HTTP_NOT_MODIFIED, unchanged.getResponseCode());
+
+        storeReservation("second event");
+        final HttpURLConnection changed = request("If-None-Match", etag);
+        Assert.assertEquals(HttpURLConnection.HTTP_OK, changed.getResponseCode());
+        Assert.assertTrue(readContent(changed).contains("second event"));
+        Assert.assertNotEquals(etag, changed.getHeaderField("ETag"));
+    }
+}
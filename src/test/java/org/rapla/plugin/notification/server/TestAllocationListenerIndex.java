@@ -0,0 +1,143 @@
+package org.rapla.plugin.notification.server;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.rapla.entities.User;
+import org.rapla.entities.configuration.Preferences;
+import org.rapla.entities.domain.Allocatable;
+import org.rapla.facade.RaplaFacade;
+import org.rapla.logger.Logger;
+import org.rapla.plugin.notification.NotificationPlugin;
+import org.rapla.storage.CachableStorageOperator;
+import org.rapla.storage.dbfile.tests.FileOperatorTest;
+import org.rapla.test.util.RaplaTestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+@RunWith(JUnit4.class)
+public class TestAllocationListenerIndex
+{
+    RaplaFacade facade;
+    CachableStorageOperator operator;
+    AllocationListenerIndex index;
+    Allocatable allocatable1;
+    Allocatable allocatable2;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Logger logger = RaplaTestCase.initLoger();
+        String resolvedPath = RaplaTestCase.getTestDataFile("/testdefault.xml");
+        // the data must survive a reconnect
+        facade = RaplaTestCase.createFacadeWithFile(logger, resolvedPath, new FileOperatorTest.MyFileIO(resolvedPath, logger));
+        operator = (CachableStorageOperator) facade.getOperator();
+        index = new AllocationListenerIndex(operator);
+        allocatable1 = facade.getAllocatables()[0];
+        allocatable2 = facade.getAllocatables()[1];
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        RaplaTestCase.dispose(facade);
+    }
+
+    private void subscribe(User user, boolean notifyIfOwner, Allocatable... allocatables) throws Exception
+    {
+        final Preferences preferences = facade.edit(facade.getPreferences(user));
+        preferences.putEntry(NotificationPlugin.ALLOCATIONLISTENERS_CONFIG, facade.newRaplaMap(Arrays.asList(allocatables)));
+        preferences.putEntry(NotificationPlugin.NOTIFY_IF_OWNER_CONFIG, notifyIfOwner);
+        facade.store(preferences);
+    }
+
+    @Test
+    public void testSubscribeAndUnsubscribe() throws Exception
+    {
+        final User homer = facade.getUser("homer");
+        index.update();
+        Assert.assertTrue(index.getListeners(allocatable1.getId()).isEmpty());
+
+        subscribe(homer, false, allocatable1);
+        index.update();
+        Assert.assertEquals(Collections.singleton(homer.getId()), index.getListeners(allocatable1.getId()));
+        Assert.assertNotNull(index.getSubscription(homer.getId()));
+
+        subscribe(homer, false);
+        index.update();
+        Assert.assertTrue(index.getListeners(allocatable1.getId()).isEmpty());
+        Assert.assertNull(index.getSubscription(homer.getId()));
+    }
+
+    @Test
+    public void testNotifyIfOwnerChange() throws Exception
+    {
+        final User homer = facade.getUser("homer");
+        subscribe(homer, false, allocatable1);
+        index.update();
+        Assert.assertFalse(index.getSubscription(homer.getId()).notifyIfOwner);
+
+        subscribe(homer, true, allocatable1);
+        index.update();
+        Assert.assertTrue(index.getSubscription(homer.getId()).notifyIfOwner);
+        Assert.assertEquals(Collections.singleton(homer.getId()), index.getListeners(allocatable1.getId()));
+    }
+
+    @Test
+    public void testUserRemoved() throws Exception
+    {
+        User user = facade.newUser();
+        user.setUsername("listener");
+        user.setName("Listener");
+        facade.store(user);
+        user = facade.getUser("listener");
+        subscribe(user, false, allocatable1);
+        index.update();
+        Assert.assertEquals(Collections.singleton(user.getId()), index.getListeners(allocatable1.getId()));
+
+        facade.remove(user);
+        index.update();
+        Assert.assertTrue(index.getListeners(allocatable1.getId()).isEmpty());
+        Assert.assertNull(index.getSubscription(user.getId()));
+    }
+
+    @Test
+    public void testRebuildAfterHistoryExpired() throws Exception
+    {
+        final User homer = facade.getUser("homer");
+        subscribe(homer, true, allocatable1);
+        index.update();
+        final AllocationListenerIndex.Subscription subscription = index.getSubscription(homer.getId());
+        // nothing changed, so the subscription is kept
+        index.update();
+        Assert.assertSame(subscription, index.getSubscription(homer.getId()));
+
+        // the history starts again on connect, so the index can't be updated from it
+        operator.disconnect();
+        Thread.sleep(10);
+        operator.connect();
+        index.update();
+        final AllocationListenerIndex.Subscription rebuilt = index.getSubscription(homer.getId());
+        Assert.assertNotSame(subscription, rebuilt);
+        Assert.assertEquals(subscription.allocatableIds, rebuilt.allocatableIds);
+        Assert.assertTrue(rebuilt.notifyIfOwner);
+    }
+
+    @Test
+    public void testChangeRoutedToSubscribedUsers() throws Exception
+    {
+        final User homer = facade.getUser("homer");
+        final User monty = facade.getUser("monty");
+        subscribe(homer, false, allocatable1);
+        subscribe(monty, false, allocatable1, allocatable2);
+        index.update();
+        Assert.assertEquals(new HashSet<>(Arrays.asList(homer.getId(), monty.getId())), index.getListeners(allocatable1.getId()));
+        Assert.assertEquals(Collections.singleton(monty.getId()), index.getListeners(allocatable2.getId()));
+        Assert.assertTrue(index.getListeners(facade.getAllocatables()[2].getId()).isEmpty());
+    }
+}
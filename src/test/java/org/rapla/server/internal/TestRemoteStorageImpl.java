@@ -15,6 +15,7 @@ import org.rapla.entities.Category;
 import org.rapla.entities.Entity;
 import org.rapla.entities.User;
 import org.rapla.entities.domain.Allocatable;
+import org.rapla.entities.domain.Appointment;
 import org.rapla.entities.domain.Reservation;
 import org.rapla.entities.dynamictype.Classification;
 import org.rapla.entities.dynamictype.DynamicTypeAnnotations;
@@ -25,15 +26,21 @@ import org.rapla.facade.ModificationListener;
 import org.rapla.facade.RaplaFacade;
 import org.rapla.facade.internal.FacadeImpl;
 import org.rapla.framework.RaplaException;
+import org.rapla.storage.dbrm.RaplaConnectException;
 import org.rapla.test.util.RaplaTestCase;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicReference;
 
 @RunWith(JUnit4.class)
@@ -253,4 +260,85 @@ public class TestRemoteStorageImpl extends AbstractTestWithServer
         Assert.assertEquals(1, conflicts.size());
     }
 
+    @Test
+    public void testQueryAppointmentsRoundTrip() throws Exception
+    {
+        final RaplaFacade facade = clientFacade.getRaplaFacade();
+        final RaplaFacade serverFacade = getServerRaplaFacade();
+        final Allocatable allocatable = facade.getAllocatables()[0];
+        final Date start = DateTools.cutDate(new Date());
+        final Date end = DateTools.addDays(start, 7);
+        final Reservation first = storeReservation(serverFacade, allocatable, "first", DateTools.addDays(start, 1));
+        facade.refresh();
+
+        Map<Allocatable, Collection<Appointment>> result = RaplaTestCase
+                .waitForWithRaplaException(facade.getOperator().queryAppointments(clientFacade.getUser(), Collections.singleton(allocatable), start, end, null, (Map<String, String>) null), 10000);
+        Assert.assertEquals(Collections.singleton(first.getAppointments()[0].getId()), getAppointmentIds(result.get(allocatable)));
+
+        // the first reservation is now passed as known, so only the second is sent
+        final Reservation second = storeReservation(serverFacade, allocatable, "second", DateTools.addDays(start, 2));
+        facade.refresh();
+        result = RaplaTestCase
+                .waitForWithRaplaException(facade.getOperator().queryAppointments(clientFacade.getUser(), Collections.singleton(allocatable), start, end, null, (Map<String, String>) null), 10000);
+        Assert.assertEquals(new HashSet<String>(Arrays.asList(first.getAppointments()[0].getId(), second.getAppointments()[0].getId())),
+                getAppointmentIds(result.get(allocatable)));
+        for (Appointment appointment : result.get(allocatable))
+        {
+            Assert.assertNotNull(appointment.getReservation());
+        }
+    }
+
+    @Test
+    public void testFailingPromiseMapped() throws Exception
+    {
+        final RaplaFacade facade = clientFacade.getRaplaFacade();
+        final Allocatable allocatable = facade.getAllocatables()[0];
+        final long start = System.currentTimeMillis();
+        try
+        {
+            // the missing appointment lets the promise fail on the server after the request is suspended
+            RaplaTestCase.waitForWithRaplaException(facade.getOperator()
+                    .getNextAllocatableDate(Collections.singletonList(allocatable), null, Collections.<Reservation>emptyList(), null, null, null, null), 10000);
+            Assert.fail("Exception expected");
+        }
+        catch (RaplaConnectException ex)
+        {
+            Assert.fail("Exception not mapped to a response " + ex.getMessage());
+        }
+        catch (Exception ex)
+        {
+            Assert.assertFalse(ex.getCause() instanceof TimeoutException);
+        }
+        // the failure is sent right away, the request isn't kept suspended until the timeout
+        Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+        // the server still answers the next request
+        Assert.assertNotNull(RaplaTestCase.waitForWithRaplaException(facade.getOperator()
+                .queryAppointments(clientFacade.getUser(), Collections.singleton(allocatable), new Date(), DateTools.addDays(new Date(), 1), null, (Map<String, String>) null), 10000));
+    }
+
+    private Reservation storeReservation(RaplaFacade facade, Allocatable allocatable, String name, Date day) throws Exception
+    {
+        final User user = facade.getUser("homer");
+        final Reservation reservation = facade.newReservation(facade.getDynamicTypes(DynamicTypeAnnotations.VALUE_CLASSIFICATION_TYPE_RESERVATION)[0].newClassification(), user);
+        reservation.getClassification().setValue("name", name);
+        final Date start = new Date(day.getTime() + DateTools.MILLISECONDS_PER_HOUR * 10);
+        reservation.addAppointment(facade.newAppointmentWithUser(start, new Date(start.getTime() + DateTools.MILLISECONDS_PER_HOUR), user));
+        reservation.addAllocatable(facade.getOperator().resolve(allocatable.getReference()));
+        facade.store(reservation);
+        return reservation;
+    }
+
+    private static Set<String> getAppointmentIds(Collection<Appointment> appointments)
+    {
+        final Set<String> ids = new HashSet<String>();
+        if (appointments != null)
+        {
+            for (Appointment appointment : appointments)
+            {
+                ids.add(appointment.getId());
+            }
+        }
+        return ids;
+    }
+
 }
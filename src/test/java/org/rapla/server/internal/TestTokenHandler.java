@@ -0,0 +1,66 @@
+package org.rapla.server.internal;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.rapla.entities.EntityNotFoundException;
+import org.rapla.entities.User;
+import org.rapla.facade.RaplaFacade;
+import org.rapla.logger.Logger;
+import org.rapla.storage.RaplaInvalidTokenException;
+import org.rapla.test.util.RaplaTestCase;
+
+@RunWith(JUnit4.class)
+public class TestTokenHandler
+{
+    private RaplaFacade facade;
+    private TokenHandler tokenHandler;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Logger logger = RaplaTestCase.initLoger();
+        facade = RaplaTestCase.createFacadeWithFile(logger, "/testdefault.xml");
+        RaplaKeyStorageImpl keyStorage = new RaplaKeyStorageImpl(facade, logger);
+        tokenHandler = new TokenHandler(keyStorage, facade.getOperator());
+    }
+
+    @Test
+    public void validatedTokenFollowsUserChanges() throws Exception
+    {
+        User user = facade.newUser();
+        user.setUsername("tokenuser");
+        facade.store(user);
+        user = facade.getOperator().resolve(user.getReference());
+        final String token = tokenHandler.generateAccessToken(user).getAccessToken();
+        Assert.assertSame(user, tokenHandler.getUserWithAccessToken(token));
+        Assert.assertSame(user, tokenHandler.getUserWithAccessToken(token));
+
+        User editUser = facade.edit(user);
+        editUser.setName("changed");
+        facade.store(editUser);
+        final User changedUser = tokenHandler.getUserWithAccessToken(token);
+        Assert.assertNotSame(user, changedUser);
+        Assert.assertEquals("changed", changedUser.getName());
+
+        facade.remove(changedUser);
+        try
+        {
+            tokenHandler.getUserWithAccessToken(token);
+            Assert.fail("Should throw entity not found exception");
+        }
+        catch (EntityNotFoundException ex)
+        {
+        }
+    }
+
+    @Test(expected = RaplaInvalidTokenException.class)
+    public void forgedToken() throws Exception
+    {
+        User user = facade.getUser("homer");
+        final String token = tokenHandler.generateAccessToken(user).getAccessToken();
+        tokenHandler.getUserWithAccessToken(token.substring(0, token.indexOf('$')) + "$otheruser");
+    }
+}
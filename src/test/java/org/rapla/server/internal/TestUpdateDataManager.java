@@ -76,6 +76,19 @@ public class TestUpdateDataManager
         Assert.assertTrue(updateEvent.getStoreObjects().isEmpty());
     }
 
+    @Test
+    public void testUncachedEventNotShared() throws Exception
+    {
+        final User user = facade.getUser("homer");
+        final Date lastSynced = updateManager.createUpdateEvent(user, new Date()).getLastValidated();
+        final UpdateEvent cached = updateManager.createUpdateEvent(user, lastSynced);
+        Assert.assertSame(cached, updateManager.createUpdateEvent(user, lastSynced));
+        final UpdateEvent uncached = updateManager.createUncachedUpdateEvent(user, lastSynced);
+        Assert.assertNotSame(cached, uncached);
+        Assert.assertNotSame(uncached, updateManager.createUncachedUpdateEvent(user, lastSynced));
+        Assert.assertSame(cached, updateManager.createUpdateEvent(user, lastSynced));
+    }
+
     @Test
     @Ignore
     public void testInsertChangeAndDeleteSimple() throws Exception
@@ -0,0 +1,135 @@
+package org.rapla.server.provider;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.rapla.entities.EntityNotFoundException;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+@RunWith(JUnit4.class)
+public class TestContentEncodingInterceptor
+{
+    private static final String BODY = "{\"result\":\"some json\"}";
+
+    @Test
+    public void selectEncoding()
+    {
+        Assert.assertNull(ContentEncodingInterceptor.selectEncoding(null));
+        Assert.assertNull(ContentEncodingInterceptor.selectEncoding("identity"));
+        Assert.assertEquals("gzip", ContentEncodingInterceptor.selectEncoding("gzip, deflate"));
+        Assert.assertEquals("gzip", ContentEncodingInterceptor.selectEncoding("deflate;q=0.5, GZIP"));
+        Assert.assertEquals("deflate", ContentEncodingInterceptor.selectEncoding("gzip;q=0, deflate"));
+        Assert.assertEquals("gzip", ContentEncodingInterceptor.selectEncoding("*"));
+        Assert.assertEquals("deflate", ContentEncodingInterceptor.selectEncoding("gzip;q=0, *;q=0.1, deflate"));
+        Assert.assertNull(ContentEncodingInterceptor.selectEncoding("gzip; q=0, *"));
+    }
+
+    @Test
+    public void gzipResponse() throws Exception
+    {
+        final WriterContext context = new WriterContext(String.class);
+        createInterceptor("gzip, deflate", 200).aroundWriteTo(context.proxy());
+        Assert.assertEquals("gzip", context.headers.getFirst(HttpHeaders.CONTENT_ENCODING));
+        Assert.assertEquals(BODY, read(new GZIPInputStream(new ByteArrayInputStream(context.out.toByteArray()))));
+    }
+
+    @Test
+    public void errorResponseNotCompressed() throws Exception
+    {
+        final WriterContext errorStatus = new WriterContext(String.class);
+        createInterceptor("gzip, deflate", 500).aroundWriteTo(errorStatus.proxy());
+        Assert.assertFalse(errorStatus.headers.containsKey(HttpHeaders.CONTENT_ENCODING));
+        Assert.assertEquals(BODY, new String(errorStatus.out.toByteArray(), StandardCharsets.UTF_8));
+
+        final WriterContext exception = new WriterContext(EntityNotFoundException.class);
+        createInterceptor("gzip, deflate", 200).aroundWriteTo(exception.proxy());
+        Assert.assertFalse(exception.headers.containsKey(HttpHeaders.CONTENT_ENCODING));
+        Assert.assertEquals(BODY, new String(exception.out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    private ContentEncodingInterceptor createInterceptor(String acceptEncoding, int status)
+    {
+        final HttpServletRequest request = (HttpServletRequest) Proxy
+                .newProxyInstance(getClass().getClassLoader(), new Class[] { HttpServletRequest.class }, (proxy, method, args) -> {
+                    if (method.getName().equals("getHeader") && HttpHeaders.ACCEPT_ENCODING.equalsIgnoreCase((String) args[0]))
+                    {
+                        return acceptEncoding;
+                    }
+                    return null;
+                });
+        final HttpServletResponse response = (HttpServletResponse) Proxy
+                .newProxyInstance(getClass().getClassLoader(), new Class[] { HttpServletResponse.class }, (proxy, method, args) -> {
+                    if (method.getName().equals("getStatus"))
+                    {
+                        return status;
+                    }
+                    return null;
+                });
+        return new ContentEncodingInterceptor(request, response);
+    }
+
+    private static String read(InputStream in) throws IOException
+    {
+        final ByteArrayOutputStream result = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) >= 0)
+        {
+            result.write(buffer, 0, read);
+        }
+        return new String(result.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /** writes BODY like a message body writer when the interceptor proceeds */
+    private static class WriterContext
+    {
+        final Class<?> type;
+        final MultivaluedMap<String, Object> headers = new MultivaluedHashMap<String, Object>();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OutputStream current = out;
+
+        WriterContext(Class<?> type)
+        {
+            this.type = type;
+        }
+
+        WriterInterceptorContext proxy()
+        {
+            return (WriterInterceptorContext) Proxy
+                    .newProxyInstance(getClass().getClassLoader(), new Class[] { WriterInterceptorContext.class }, (proxy, method, args) -> {
+                        switch (method.getName())
+                        {
+                            case "getHeaders":
+                                return headers;
+                            case "getType":
+                                return type;
+                            case "getOutputStream":
+                                return current;
+                            case "setOutputStream":
+                                current = (OutputStream) args[0];
+                                return null;
+                            case "proceed":
+                                current.write(BODY.getBytes(StandardCharsets.UTF_8));
+                                current.flush();
+                                return null;
+                        }
+                        return null;
+                    });
+        }
+    }
+}
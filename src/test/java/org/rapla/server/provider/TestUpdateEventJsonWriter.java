@@ -0,0 +1,40 @@
+package org.rapla.server.provider;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.rapla.entities.internal.CategoryImpl;
+import org.rapla.entities.internal.UserImpl;
+import org.rapla.rest.JsonParserWrapper;
+import org.rapla.storage.UpdateEvent;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+@RunWith(JUnit4.class)
+public class TestUpdateEventJsonWriter
+{
+    @Test
+    public void sameJsonAsStringWriter() throws Exception
+    {
+        final Date timestamp = new Date();
+        CategoryImpl category = new CategoryImpl(timestamp, timestamp);
+        category.setId("testCategory");
+        category.setKey("test\u00e4");
+        UserImpl user = new UserImpl(timestamp, timestamp);
+        user.setId("testUser");
+        user.setUsername("test");
+        UpdateEvent evt = new UpdateEvent();
+        evt.setUserId(user.getId());
+        evt.addStore(category);
+        evt.addStore(user);
+        evt.setLastValidated(timestamp);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new UpdateEventJsonWriter().write(evt, out);
+        final String expected = JsonParserWrapper.defaultJson().get().toJson(evt);
+        Assert.assertEquals(expected, new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,188 @@
+package org.rapla.storage.dbfile.tests;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.rapla.entities.User;
+import org.rapla.entities.domain.Allocatable;
+import org.rapla.entities.dynamictype.DynamicTypeAnnotations;
+import org.rapla.facade.RaplaFacade;
+import org.rapla.logger.Logger;
+import org.rapla.storage.dbfile.FileOperator;
+import org.rapla.test.util.RaplaTestCase;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+/** tests that the changes appended to the journal survive a crash and are written to the storage file on compaction */
+@RunWith(JUnit4.class)
+public class FileOperatorJournalTest
+{
+    Logger logger;
+    String resolvedPath;
+    List<RaplaFacade> facades = new ArrayList<>();
+
+    /** keeps the storage file and the journal in memory */
+    public static class JournalFileIO extends FileOperatorTest.MyFileIO
+    {
+        List<String> journal = new ArrayList<>();
+        int writes;
+        boolean failClearJournal;
+
+        public JournalFileIO(String resolvedPath, Logger logger) throws IOException
+        {
+            super(resolvedPath, logger);
+        }
+
+        /** the state on the disk, e.g. after the server was killed */
+        JournalFileIO copy(String resolvedPath) throws IOException
+        {
+            JournalFileIO copy = new JournalFileIO(resolvedPath, logger);
+            copy.data = data;
+            copy.journal = new ArrayList<>(journal);
+            return copy;
+        }
+
+        @Override public void write(FileOperator.RaplaWriter writer, URI storageURL) throws IOException
+        {
+            super.write(writer, storageURL);
+            writes++;
+        }
+
+        @Override public boolean appendJournal(String record, URI storageURL)
+        {
+            journal.add(record);
+            return true;
+        }
+
+        @Override public List<String> readJournal(URI storageURL)
+        {
+            return new ArrayList<>(journal);
+        }
+
+        @Override public void clearJournal(URI storageURL) throws IOException
+        {
+            if (failClearJournal)
+            {
+                throw new IOException("killed before clearing the journal");
+            }
+            journal.clear();
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception
+    {
+        logger = RaplaTestCase.initLoger();
+        resolvedPath = RaplaTestCase.getTestDataFile("/testdefault.xml");
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        for (RaplaFacade facade : facades)
+        {
+            RaplaTestCase.dispose(facade);
+        }
+    }
+
+    private RaplaFacade connect(JournalFileIO fileIO) throws Exception
+    {
+        final RaplaFacade facade = RaplaTestCase.createFacadeWithFile(logger, resolvedPath, fileIO);
+        facades.add(facade);
+        return facade;
+    }
+
+    private Allocatable storeAllocatable(RaplaFacade facade, String name) throws Exception
+    {
+        final User user = facade.getUsers()[0];
+        final Allocatable allocatable = facade.newAllocatable(
+                facade.getDynamicTypes(DynamicTypeAnnotations.VALUE_CLASSIFICATION_TYPE_RESOURCE)[0].newClassification(), user);
+        allocatable.getClassification().setValue("name", name);
+        facade.store(allocatable);
+        return allocatable;
+    }
+
+    @Test
+    public void testReplayAfterCrash() throws Exception
+    {
+        final JournalFileIO fileIO = new JournalFileIO(resolvedPath, logger);
+        final RaplaFacade facade = connect(fileIO);
+        final int writes = fileIO.writes;
+        final Allocatable allocatable = storeAllocatable(facade, "journal test");
+        // only the change is written, not the whole file
+        Assert.assertEquals(1, fileIO.journal.size());
+        Assert.assertEquals(writes, fileIO.writes);
+
+        final JournalFileIO crashed = fileIO.copy(resolvedPath);
+        final RaplaFacade restarted = connect(crashed);
+        Assert.assertNotNull(restarted.getOperator().tryResolve(allocatable.getReference()));
+        // the replayed changes are written to the file, so they are not replayed again
+        Assert.assertTrue(crashed.journal.isEmpty());
+        Assert.assertEquals(1, crashed.writes);
+    }
+
+    @Test
+    public void testTruncatedLastRecordIgnored() throws Exception
+    {
+        final JournalFileIO fileIO = new JournalFileIO(resolvedPath, logger);
+        final RaplaFacade facade = connect(fileIO);
+        final Allocatable first = storeAllocatable(facade, "complete");
+        final Allocatable second = storeAllocatable(facade, "truncated");
+        Assert.assertEquals(2, fileIO.journal.size());
+
+        final JournalFileIO crashed = fileIO.copy(resolvedPath);
+        final String last = crashed.journal.get(1);
+        crashed.journal.set(1, last.substring(0, last.length() / 2));
+        final RaplaFacade restarted = connect(crashed);
+        Assert.assertNotNull(restarted.getOperator().tryResolve(first.getReference()));
+        Assert.assertNull(restarted.getOperator().tryResolve(second.getReference()));
+    }
+
+    @Test
+    public void testReplayAfterInterruptedCompaction() throws Exception
+    {
+        final JournalFileIO fileIO = new JournalFileIO(resolvedPath, logger);
+        final RaplaFacade facade = connect(fileIO);
+        final Allocatable kept = storeAllocatable(facade, "kept");
+        final Allocatable removed = storeAllocatable(facade, "removed");
+        facade.remove(removed);
+        Assert.assertEquals(3, fileIO.journal.size());
+
+        // the file is written on disconnect, but the server is killed before the journal is cleared
+        fileIO.failClearJournal = true;
+        final int writes = fileIO.writes;
+        facade.getOperator().disconnect();
+        Assert.assertEquals(writes + 1, fileIO.writes);
+        Assert.assertEquals(3, fileIO.journal.size());
+
+        // the journal is replayed on the file that already contains its changes
+        final JournalFileIO crashed = fileIO.copy(resolvedPath);
+        final RaplaFacade restarted = connect(crashed);
+        Assert.assertNotNull(restarted.getOperator().tryResolve(kept.getReference()));
+        Assert.assertNull(restarted.getOperator().tryResolve(removed.getReference()));
+        Assert.assertTrue(crashed.journal.isEmpty());
+    }
+
+    @Test
+    public void testCompactionClearsJournal() throws Exception
+    {
+        final JournalFileIO fileIO = new JournalFileIO(resolvedPath, logger);
+        final RaplaFacade facade = connect(fileIO);
+        final Allocatable allocatable = storeAllocatable(facade, "compacted");
+        Assert.assertEquals(1, fileIO.journal.size());
+        facade.getOperator().disconnect();
+        Assert.assertTrue(fileIO.journal.isEmpty());
+
+        final JournalFileIO restartedIO = fileIO.copy(resolvedPath);
+        final RaplaFacade restarted = connect(restartedIO);
+        Assert.assertNotNull(restarted.getOperator().tryResolve(allocatable.getReference()));
+        // nothing to replay, so the file is not written again
+        Assert.assertEquals(0, restartedIO.writes);
+    }
+}
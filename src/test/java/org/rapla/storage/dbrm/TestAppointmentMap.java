@@ -0,0 +1,133 @@
+package org.rapla.storage.dbrm;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.rapla.components.util.DateTools;
+import org.rapla.entities.User;
+import org.rapla.entities.domain.Allocatable;
+import org.rapla.entities.domain.Appointment;
+import org.rapla.entities.domain.Reservation;
+import org.rapla.entities.domain.internal.ReservationImpl;
+import org.rapla.entities.dynamictype.ClassificationFilter;
+import org.rapla.entities.dynamictype.DynamicType;
+import org.rapla.entities.dynamictype.DynamicTypeAnnotations;
+import org.rapla.facade.RaplaFacade;
+import org.rapla.logger.Logger;
+import org.rapla.test.util.RaplaTestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@RunWith(JUnit4.class)
+public class TestAppointmentMap
+{
+    RaplaFacade facade;
+    DynamicType eventType;
+    Allocatable allocatable;
+    User user;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Logger logger = RaplaTestCase.initLoger();
+        facade = RaplaTestCase.createFacadeWithFile(logger, "/testdefault.xml");
+        eventType = facade.getDynamicTypes(DynamicTypeAnnotations.VALUE_CLASSIFICATION_TYPE_RESERVATION)[0];
+        allocatable = facade.getAllocatables()[0];
+        user = facade.getUser("homer");
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        RaplaTestCase.dispose(facade);
+    }
+
+    private ReservationImpl newReservation(String name) throws Exception
+    {
+        final Reservation reservation = facade.newReservation(eventType.newClassification(), user);
+        reservation.getClassification().setValue("name", name);
+        final Date start = DateTools.addDays(facade.today(), 1);
+        reservation.addAppointment(facade.newAppointmentWithUser(start, new Date(start.getTime() + DateTools.MILLISECONDS_PER_HOUR), user));
+        reservation.addAllocatable(allocatable);
+        return (ReservationImpl) reservation;
+    }
+
+    private Map<Allocatable, Collection<Appointment>> toMap(Reservation... reservations)
+    {
+        final Collection<Appointment> appointments = new ArrayList<Appointment>();
+        for (Reservation reservation : reservations)
+        {
+            appointments.addAll(Arrays.asList(reservation.getAppointments()));
+        }
+        final Map<Allocatable, Collection<Appointment>> map = new LinkedHashMap<Allocatable, Collection<Appointment>>();
+        map.put(allocatable, appointments);
+        return map;
+    }
+
+    @Test
+    public void testIsKnown()
+    {
+        final Date lastChanged = new Date();
+        final ReservationImpl reservation = new ReservationImpl(lastChanged, lastChanged);
+        reservation.setId("event");
+        final Map<String, Date> known = new HashMap<String, Date>();
+        Assert.assertFalse(AppointmentMap.isKnown(reservation, null));
+        Assert.assertFalse(AppointmentMap.isKnown(reservation, known));
+        known.put("event", new Date(lastChanged.getTime()));
+        Assert.assertTrue(AppointmentMap.isKnown(reservation, known));
+        known.put("event", new Date(lastChanged.getTime() - 1000));
+        Assert.assertFalse(AppointmentMap.isKnown(reservation, known));
+        known.put("event", new Date(lastChanged.getTime() + 1000));
+        Assert.assertFalse(AppointmentMap.isKnown(reservation, known));
+    }
+
+    @Test
+    public void testResultWithKnownReservations() throws Exception
+    {
+        final ReservationImpl unchanged = newReservation("unchanged");
+        final ReservationImpl changed = newReservation("changed");
+        // the copies the client holds
+        final ReservationImpl unchangedClient = unchanged.clone();
+        final ReservationImpl changedClient = changed.clone();
+        final Map<String, Date> known = new HashMap<String, Date>();
+        known.put(unchanged.getId(), unchanged.getLastChanged());
+        known.put(changed.getId(), new Date(changed.getLastChanged().getTime() - 1000));
+
+        final AppointmentMap appointmentMap = new AppointmentMap(toMap(unchanged, changed), known);
+        appointmentMap.init(facade.getOperator(), Arrays.asList(unchangedClient, changedClient));
+
+        final Collection<Appointment> result = appointmentMap.getResult(null).get(allocatable);
+        Assert.assertEquals(2, result.size());
+        final Appointment[] appointments = result.toArray(Appointment.EMPTY_ARRAY);
+        // the unchanged reservation isn't sent, so its appointment is taken from the client copy. The changed one from the response
+        Assert.assertSame(unchangedClient.getAppointments()[0], appointments[0]);
+        Assert.assertSame(changed.getAppointments()[0], appointments[1]);
+        Assert.assertSame(unchangedClient, appointments[0].getReservation());
+
+        // the filters are applied to the known reservations as well
+        final ClassificationFilter filter = eventType.newClassificationFilter();
+        filter.addEqualsRule("name", "unchanged");
+        final Collection<Appointment> filtered = appointmentMap.getResult(new ClassificationFilter[] { filter }).get(allocatable);
+        Assert.assertEquals(Collections.singletonList(unchangedClient.getAppointments()[0]), new ArrayList<Appointment>(filtered));
+    }
+
+    @Test
+    public void testResultWithoutKnownReservations() throws Exception
+    {
+        final ReservationImpl reservation = newReservation("event");
+        final AppointmentMap appointmentMap = new AppointmentMap(toMap(reservation));
+        appointmentMap.init(facade.getOperator());
+        final Collection<Appointment> result = appointmentMap.getResult(null).get(allocatable);
+        Assert.assertEquals(Collections.singletonList(reservation.getAppointments()[0]), new ArrayList<Appointment>(result));
+    }
+}
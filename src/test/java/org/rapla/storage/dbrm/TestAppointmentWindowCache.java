@@ -0,0 +1,154 @@
+package org.rapla.storage.dbrm;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.rapla.components.util.DateTools;
+import org.rapla.components.util.TimeInterval;
+import org.rapla.entities.domain.Appointment;
+import org.rapla.entities.domain.internal.AppointmentImpl;
+import org.rapla.entities.domain.internal.ReservationImpl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+@RunWith(JUnit4.class)
+public class TestAppointmentWindowCache
+{
+    private final long base = DateTools.cutDate(new Date()).getTime();
+
+    private Date day(int i)
+    {
+        return new Date(base + i * DateTools.MILLISECONDS_PER_DAY);
+    }
+
+    private Appointment createAppointment(String id, int day)
+    {
+        AppointmentImpl appointment = new AppointmentImpl(new Date(day(day).getTime() + DateTools.MILLISECONDS_PER_HOUR * 8),
+                new Date(day(day).getTime() + DateTools.MILLISECONDS_PER_HOUR * 10));
+        appointment.setId(id);
+        return appointment;
+    }
+
+    @Test
+    public void coveredWindows()
+    {
+        AppointmentWindowCache cache = new AppointmentWindowCache();
+        Appointment app1 = createAppointment("app1", 1);
+        Appointment app2 = createAppointment("app2", 8);
+        Assert.assertNull(cache.get("room", day(0), day(7)));
+        cache.put("room", day(0), day(7), Collections.singletonList(app1), cache.getGeneration());
+        cache.put("room", day(7), day(14), Collections.singletonList(app2), cache.getGeneration());
+
+        Assert.assertEquals(Collections.singletonList(app1), toList(cache.get("room", day(0), day(7))));
+        // adjacent windows are merged
+        Assert.assertEquals(Arrays.asList(app1, app2), toList(cache.get("room", day(0), day(14))));
+        Assert.assertEquals(Collections.singletonList(app2), toList(cache.get("room", day(8), day(9))));
+        Assert.assertNull(cache.get("room", day(0), day(15)));
+        Assert.assertNull(cache.get("other", day(0), day(7)));
+    }
+
+    @Test
+    public void invalidate()
+    {
+        AppointmentWindowCache cache = new AppointmentWindowCache();
+        Appointment app1 = createAppointment("app1", 1);
+        Appointment app2 = createAppointment("app2", 30);
+        createReservation("event1", app1);
+        createReservation("event2", app2);
+        cache.put("room", day(0), day(7), Collections.singletonList(app1), cache.getGeneration());
+        cache.put("room", day(28), day(35), Collections.singletonList(app2), cache.getGeneration());
+
+        final long generation = cache.getGeneration();
+        cache.invalidate(new TimeInterval(day(2), day(3)));
+        Assert.assertNull(cache.get("room", day(0), day(7)));
+        Assert.assertEquals(Collections.singletonList(app2), toList(cache.get("room", day(28), day(35))));
+
+        // results of queries started before the invalidation are not stored
+        cache.put("room", day(0), day(7), Collections.singletonList(app1), generation);
+        Assert.assertNull(cache.get("room", day(0), day(7)));
+
+        cache.invalidate(new TimeInterval(null, null));
+        Assert.assertNull(cache.get("room", day(28), day(35)));
+        Assert.assertTrue(cache.getReservations(Collections.singletonList("room")).isEmpty());
+    }
+
+    @Test
+    public void replaceChangedAppointments()
+    {
+        AppointmentWindowCache cache = new AppointmentWindowCache();
+        cache.put("room", day(0), day(7), Collections.singletonList(createAppointment("app1", 1)), cache.getGeneration());
+        cache.invalidate(new TimeInterval(day(1), day(2)));
+        Appointment moved = createAppointment("app1", 3);
+        cache.put("room", day(0), day(7), Collections.singletonList(moved), cache.getGeneration());
+        Assert.assertEquals(Collections.singletonList(moved), toList(cache.get("room", day(0), day(7))));
+    }
+
+    @Test
+    public void knownReservationsSurviveInvalidation()
+    {
+        AppointmentWindowCache cache = new AppointmentWindowCache();
+        ReservationImpl reservation = new ReservationImpl(day(0), day(0));
+        reservation.setId("event");
+        Appointment appointment = createAppointment("app1", 1);
+        reservation.addAppointment(appointment);
+        cache.put("room", day(0), day(7), Collections.singletonList(appointment), cache.getGeneration());
+        cache.invalidate(new TimeInterval(day(1), day(2)));
+        Assert.assertNull(cache.get("room", day(0), day(7)));
+        Assert.assertSame(reservation, cache.getReservations(Collections.singletonList("room")).get("event"));
+        Assert.assertTrue(cache.getReservations(Collections.singletonList("other")).isEmpty());
+    }
+
+    @Test
+    public void knownReservationsPrunedAfterQuery()
+    {
+        AppointmentWindowCache cache = new AppointmentWindowCache();
+        Appointment app1 = createAppointment("app1", 1);
+        Appointment app2 = createAppointment("app2", 30);
+        createReservation("event1", app1);
+        createReservation("event2", app2);
+        cache.put("room", day(0), day(7), Collections.singletonList(app1), cache.getGeneration());
+        cache.put("room", day(28), day(35), Collections.singletonList(app2), cache.getGeneration());
+        cache.invalidate(new TimeInterval(day(1), day(2)));
+        Assert.assertEquals(2, cache.getReservations(Collections.singletonList("room")).size());
+
+        // the next query passed event1 as known, but the window is now queried elsewhere, so app1 isn't covered anymore
+        cache.put("room", day(14), day(21), Collections.<Appointment>emptyList(), cache.getGeneration());
+        Assert.assertEquals(Collections.singleton("event2"), cache.getReservations(Collections.singletonList("room")).keySet());
+        Assert.assertEquals(Collections.singletonList(app2), toList(cache.get("room", day(28), day(35))));
+    }
+
+    @Test
+    public void repeatedQueriesDontGrow()
+    {
+        AppointmentWindowCache cache = new AppointmentWindowCache();
+        // each week is queried and then changed
+        for (int i = 0; i < 10; i++)
+        {
+            Appointment appointment = createAppointment("app" + i, i * 7 + 1);
+            createReservation("event" + i, appointment);
+            cache.put("room", day(i * 7), day(i * 7 + 7), Collections.singletonList(appointment), cache.getGeneration());
+            cache.invalidate(new TimeInterval(day(i * 7 + 1), day(i * 7 + 2)));
+        }
+        Assert.assertEquals(Collections.singleton("event9"), cache.getReservations(Collections.singletonList("room")).keySet());
+    }
+
+    private static ReservationImpl createReservation(String id, Appointment appointment)
+    {
+        ReservationImpl reservation = new ReservationImpl(new Date(), new Date());
+        reservation.setId(id);
+        reservation.addAppointment(appointment);
+        return reservation;
+    }
+
+    private static List<Appointment> toList(Collection<Appointment> appointments)
+    {
+        Assert.assertNotNull(appointments);
+        return new ArrayList<Appointment>(appointments);
+    }
+}
@@ -0,0 +1,93 @@
+package org.rapla.storage.dbsql;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.rapla.entities.Entity;
+import org.rapla.entities.internal.CategoryImpl;
+import org.rapla.entities.internal.UserImpl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+@RunWith(JUnit4.class)
+public class TestCacheSnapshot
+{
+    private File file;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        file = File.createTempFile("rapla", ".snapshot");
+    }
+
+    @After
+    public void tearDown()
+    {
+        file.delete();
+    }
+
+    @Test
+    public void writeAndRead() throws Exception
+    {
+        final Date timestamp = new Date();
+        CategoryImpl category = new CategoryImpl(timestamp, timestamp);
+        category.setId("testCategory");
+        category.setKey("test");
+        UserImpl user = new UserImpl(timestamp, timestamp);
+        user.setId("testUser");
+        user.setUsername("test");
+        List<Entity> entities = new ArrayList<Entity>();
+        entities.add(category);
+        entities.add(user);
+        CacheSnapshot.write(file, timestamp, entities, Collections.singletonMap("testUser", "secret"));
+
+        final CacheSnapshot snapshot = CacheSnapshot.read(file);
+        Assert.assertEquals(timestamp, snapshot.getTimestamp());
+        final Collection<Entity> read = snapshot.getEntities();
+        Set<String> ids = new HashSet<String>();
+        for (Entity entity : read)
+        {
+            ids.add(entity.getId());
+        }
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("testCategory", "testUser")), ids);
+        Assert.assertEquals("secret", snapshot.getPasswords().get("testUser"));
+    }
+
+    @Test
+    public void missingFile() throws Exception
+    {
+        file.delete();
+        Assert.assertNull(CacheSnapshot.read(file));
+    }
+
+    @Test(expected = IOException.class)
+    public void corruptFile() throws Exception
+    {
+        final Date timestamp = new Date();
+        CategoryImpl category = new CategoryImpl(timestamp, timestamp);
+        category.setId("testCategory");
+        category.setKey("test");
+        CacheSnapshot.write(file, timestamp, Collections.<Entity>singletonList(category), Collections.<String, String>emptyMap());
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw"))
+        {
+            out.seek(out.length() - 1);
+            final int last = out.read();
+            out.seek(out.length() - 1);
+            out.write(last ^ 0xff);
+        }
+        CacheSnapshot.read(file);
+    }
+}
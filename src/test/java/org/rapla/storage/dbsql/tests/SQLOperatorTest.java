@@ -26,6 +26,7 @@ import org.rapla.entities.Category;
 import org.rapla.entities.Entity;
 import org.rapla.entities.RaplaType;
 import org.rapla.entities.User;
+import org.rapla.entities.configuration.Preferences;
 import org.rapla.entities.domain.Allocatable;
 import org.rapla.entities.domain.Appointment;
 import org.rapla.entities.domain.Period;
@@ -41,6 +42,7 @@ import org.rapla.entities.dynamictype.DynamicTypeAnnotations;
 import org.rapla.entities.storage.ReferenceInfo;
 import org.rapla.facade.RaplaFacade;
 import org.rapla.framework.RaplaException;
+import org.rapla.framework.TypedComponentRole;
 import org.rapla.logger.Logger;
 import org.rapla.storage.CachableStorageOperator;
 import org.rapla.storage.ImportExportManager;
@@ -52,12 +54,14 @@ import org.rapla.storage.dbsql.DBOperator;
 import org.rapla.storage.tests.AbstractOperatorTest;
 import org.rapla.test.util.RaplaTestCase;
 
+import java.io.File;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
+import java.sql.Timestamp;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
@@ -950,9 +954,142 @@ public class SQLOperatorTest extends AbstractOperatorTest
     	Assert.assertEquals(4,updates.getIds(UpdateResult.Remove.class).size());
     
     }
-}
 
+    private ReferenceInfo<Allocatable> storeResource(RaplaFacade facade, String name) throws RaplaException
+    {
+        final User user = facade.getUsers()[0];
+        final Allocatable resource = facade.newAllocatable(facade.getDynamicTypes(DynamicTypeAnnotations.VALUE_CLASSIFICATION_TYPE_RESOURCE)[0].newClassification(), user);
+        resource.getClassification().setValue("name", name);
+        facade.store(resource);
+        return resource.getReference();
+    }
 
+    /** changes the change sequence without writing rows, so the refresh of the other node sees a different sequence */
+    private void addToSequence(DBOperator operator, int delta) throws Exception
+    {
+        try (final Connection connection = operator.createConnection();
+                final PreparedStatement stmt = connection.prepareStatement("UPDATE CHANGES_SEQUENCE SET SEQ_NR = SEQ_NR + ?"))
+        {
+            stmt.setInt(1, delta);
+            stmt.executeUpdate();
+            connection.commit();
+        }
+    }
 
+    @Test
+    public void testRefreshBySequenceNumber() throws Exception
+    {
+        final DBOperator readOperator = (DBOperator) getOperator();
+        readOperator.refresh();
+        final RaplaFacade writeFacade = RaplaTestCase.createFacadeWithDatasource(logger, createDatasource(), null);
+        try
+        {
+            final ReferenceInfo<Allocatable> resourceId = storeResource(writeFacade, "sequence");
+            // the row gets the last sequence number, because the numbers are reserved just before the commit
+            try (final Connection connection = readOperator.createConnection();
+                    final PreparedStatement stmt = connection.prepareStatement(
+                            "SELECT C.SEQ_NR, S.SEQ_NR FROM CHANGES C, CHANGES_SEQUENCE S WHERE C.ID = ? ORDER BY C.SEQ_NR DESC"))
+            {
+                stmt.setString(1, resourceId.getId());
+                final ResultSet result = stmt.executeQuery();
+                Assert.assertTrue(result.next());
+                Assert.assertEquals(result.getLong(2), result.getLong(1));
+            }
+            readOperator.refresh();
+            Assert.assertNotNull(readOperator.tryResolve(resourceId));
+        }
+        finally
+        {
+            RaplaTestCase.dispose(writeFacade);
+        }
+    }
 
+    @Test
+    public void testIdleRefreshSkipsChanges() throws Exception
+    {
+        final DBOperator readOperator = (DBOperator) getOperator();
+        readOperator.refresh();
+        final RaplaFacade writeFacade = RaplaTestCase.createFacadeWithDatasource(logger, createDatasource(), null);
+        try
+        {
+            final ReferenceInfo<Allocatable> resourceId = storeResource(writeFacade, "idle");
+            // with the sequence reset, the refresh reads only the sequence and not the changes table
+            addToSequence(readOperator, -1);
+            readOperator.refresh();
+            Assert.assertNull(readOperator.tryResolve(resourceId));
+            addToSequence(readOperator, 1);
+            readOperator.refresh();
+            Assert.assertNotNull(readOperator.tryResolve(resourceId));
+        }
+        finally
+        {
+            RaplaTestCase.dispose(writeFacade);
+        }
+    }
 
+    @Test
+    public void testRefreshByTimestampAfterSnapshot() throws Exception
+    {
+        final DBOperator readOperator = (DBOperator) getOperator();
+        final File snapshotFile = new File("target/test/rapla-snapshot");
+        snapshotFile.delete();
+        readOperator.setSnapshotFile(snapshotFile);
+        // writes the snapshot
+        readOperator.disconnect();
+        Assert.assertTrue(snapshotFile.exists());
+        final RaplaFacade writeFacade = RaplaTestCase.createFacadeWithDatasource(logger, createDatasource(), null);
+        try
+        {
+            final ReferenceInfo<Allocatable> resourceId = storeResource(writeFacade, "snapshot");
+            // the sequence doesn't show the change, so it can only be found by its timestamp
+            addToSequence(readOperator, -1);
+            try
+            {
+                readOperator.connect();
+                Assert.assertNotNull(readOperator.tryResolve(resourceId));
+            }
+            finally
+            {
+                addToSequence(readOperator, 1);
+            }
+        }
+        finally
+        {
+            RaplaTestCase.dispose(writeFacade);
+            readOperator.setSnapshotFile(null);
+            snapshotFile.delete();
+        }
+    }
+
+    @Test
+    public void testPreferencePatchBySequenceNumber() throws Exception
+    {
+        final DBOperator readOperator = (DBOperator) getOperator();
+        readOperator.refresh();
+        final RaplaFacade writeFacade = RaplaTestCase.createFacadeWithDatasource(logger, createDatasource(), null);
+        try
+        {
+            final TypedComponentRole<String> role = new TypedComponentRole<String>("org.rapla.test.sequence");
+            final User user = writeFacade.getUsers()[0];
+            final Preferences preferences = writeFacade.edit(writeFacade.getPreferences(user));
+            preferences.putEntry(role, "patched");
+            writeFacade.store(preferences);
+            // the writer takes the timestamp before the commit, so the row can be older than the last refresh of the other node
+            try (final Connection connection = readOperator.createConnection();
+                    final PreparedStatement stmt = connection.prepareStatement("UPDATE PREFERENCE SET LAST_CHANGED = ? WHERE ROLE = ?"))
+            {
+                stmt.setTimestamp(1, new Timestamp(0));
+                stmt.setString(2, role.getId());
+                Assert.assertEquals(1, stmt.executeUpdate());
+                connection.commit();
+            }
+            readOperator.refresh();
+            final Preferences readPreferences = readOperator.getPreferences(readOperator.resolve(user.getReference()), false);
+            Assert.assertEquals("patched", readPreferences.getEntryAsString(role, null));
+        }
+        finally
+        {
+            RaplaTestCase.dispose(writeFacade);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package org.rapla.storage.impl;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.rapla.entities.domain.Allocatable;
+import org.rapla.entities.storage.ReferenceInfo;
+import org.rapla.framework.RaplaSynchronizationException;
+import org.rapla.logger.ConsoleLogger;
+
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+@RunWith(JUnit4.class)
+public class TestStripedRaplaLock
+{
+    private final StripedRaplaLock lock = new StripedRaplaLock(new ConsoleLogger(), 16);
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    @Test
+    public void disjointWritesDontBlockReaders() throws Exception
+    {
+        final ReferenceInfo<Allocatable> room1 = findReferenceInOtherStripe(null);
+        final ReferenceInfo<Allocatable> room2 = findReferenceInOtherStripe(room1);
+        final RaplaLock.WriteLock writeLock = lock.writeLock(Collections.singleton(room1), 1);
+        try
+        {
+            Assert.assertTrue(readInOtherThread(room2));
+            Assert.assertFalse(readInOtherThread(room1));
+        }
+        finally
+        {
+            lock.unlock(writeLock);
+        }
+        Assert.assertTrue(readInOtherThread(room1));
+        executor.shutdown();
+    }
+
+    @Test
+    public void globalWriteBlocksAllReaders() throws Exception
+    {
+        final ReferenceInfo<Allocatable> room1 = findReferenceInOtherStripe(null);
+        final RaplaLock.WriteLock writeLock = lock.writeLock(null, 1);
+        try
+        {
+            Assert.assertFalse(readInOtherThread(room1));
+        }
+        finally
+        {
+            lock.unlock(writeLock);
+        }
+        // double unlock is ignored
+        lock.unlock(writeLock);
+        Assert.assertTrue(readInOtherThread(room1));
+        executor.shutdown();
+    }
+
+    private boolean readInOtherThread(final ReferenceInfo<Allocatable> reference) throws Exception
+    {
+        final Future<Boolean> future = executor.submit(() ->
+        {
+            try
+            {
+                final RaplaLock.ReadLock readLock = lock.readLock(Collections.singleton(reference), 0);
+                lock.unlock(readLock);
+                return true;
+            }
+            catch (RaplaSynchronizationException ex)
+            {
+                return false;
+            }
+        });
+        return future.get();
+    }
+
+    private ReferenceInfo<Allocatable> findReferenceInOtherStripe(ReferenceInfo<Allocatable> other)
+    {
+        for (int i = 0; ; i++)
+        {
+            final ReferenceInfo<Allocatable> reference = new ReferenceInfo<Allocatable>("room" + i, Allocatable.class);
+            if (other == null || stripe(reference) != stripe(other))
+            {
+                return reference;
+            }
+        }
+    }
+
+    private static int stripe(ReferenceInfo<Allocatable> reference)
+    {
+        return (reference.getId().hashCode() & 0x7fffffff) % 16;
+    }
+}
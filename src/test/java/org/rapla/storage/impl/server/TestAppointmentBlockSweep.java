@@ -0,0 +1,138 @@
+package org.rapla.storage.impl.server;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.rapla.components.util.DateTools;
+import org.rapla.entities.domain.Appointment;
+import org.rapla.entities.domain.AppointmentBlock;
+import org.rapla.entities.domain.RepeatingType;
+import org.rapla.entities.domain.internal.AppointmentImpl;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+@RunWith(JUnit4.class)
+public class TestAppointmentBlockSweep
+{
+    private final long base = DateTools.cutDate(new Date()).getTime();
+    private final long end = base + DateTools.MILLISECONDS_PER_WEEK * 20;
+
+    @Test
+    public void findsAllOverlappingPairs()
+    {
+        List<Appointment> appointments = createAppointments();
+        AppointmentBlockSweep sweep = new AppointmentBlockSweep(false);
+        for (Appointment appointment : appointments)
+        {
+            sweep.addAppointment(appointment, base, end, false);
+        }
+        Assert.assertEquals(getOverlappingPairs(appointments, null), sweep(sweep));
+    }
+
+    @Test
+    public void onlyChangedPairs()
+    {
+        List<Appointment> appointments = createAppointments();
+        Set<Appointment> changed = new HashSet<Appointment>();
+        AppointmentBlockSweep sweep = new AppointmentBlockSweep(true);
+        for (int i = 0; i < appointments.size(); i++)
+        {
+            final Appointment appointment = appointments.get(i);
+            boolean isChanged = i % 7 == 0;
+            if (isChanged)
+            {
+                changed.add(appointment);
+            }
+            sweep.addAppointment(appointment, base, end, isChanged);
+        }
+        Assert.assertEquals(getOverlappingPairs(appointments, changed), sweep(sweep));
+    }
+
+    private Set<String> sweep(AppointmentBlockSweep sweep)
+    {
+        final Set<String> result = new HashSet<String>();
+        sweep.sweep((appointment1, appointment2) -> Assert.assertTrue(result.add(createKey(appointment1, appointment2))));
+        return result;
+    }
+
+    private Set<String> getOverlappingPairs(List<Appointment> appointments, Set<Appointment> changed)
+    {
+        Set<String> result = new HashSet<String>();
+        for (int i = 0; i < appointments.size(); i++)
+        {
+            for (int j = i + 1; j < appointments.size(); j++)
+            {
+                Appointment appointment1 = appointments.get(i);
+                Appointment appointment2 = appointments.get(j);
+                if (changed != null && !changed.contains(appointment1) && !changed.contains(appointment2))
+                {
+                    continue;
+                }
+                if (blocksOverlap(appointment1, appointment2))
+                {
+                    result.add(createKey(appointment1, appointment2));
+                }
+            }
+        }
+        return result;
+    }
+
+    private boolean blocksOverlap(Appointment appointment1, Appointment appointment2)
+    {
+        List<AppointmentBlock> blocks1 = new ArrayList<AppointmentBlock>();
+        appointment1.createBlocks(new Date(base), new Date(end), blocks1);
+        List<AppointmentBlock> blocks2 = new ArrayList<AppointmentBlock>();
+        appointment2.createBlocks(new Date(base), new Date(end), blocks2);
+        for (AppointmentBlock block1 : blocks1)
+        {
+            for (AppointmentBlock block2 : blocks2)
+            {
+                if (block1.getStart() < block2.getEnd() && block2.getStart() < block1.getEnd())
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private String createKey(Appointment appointment1, Appointment appointment2)
+    {
+        String id1 = appointment1.getId();
+        String id2 = appointment2.getId();
+        return id1.compareTo(id2) < 0 ? id1 + ";" + id2 : id2 + ";" + id1;
+    }
+
+    private List<Appointment> createAppointments()
+    {
+        List<Appointment> appointments = new ArrayList<Appointment>();
+        Random random = new Random(4711);
+        for (int i = 0; i < 120; i++)
+        {
+            long start = base + random.nextInt(24 * 7 * 4) * DateTools.MILLISECONDS_PER_HOUR;
+            long appEnd = start + (1 + random.nextInt(4)) * DateTools.MILLISECONDS_PER_HOUR;
+            final AppointmentImpl appointment;
+            if (i % 10 == 0)
+            {
+                appointment = new AppointmentImpl(new Date(start), new Date(appEnd), RepeatingType.WEEKLY, 0);
+            }
+            else if (i % 5 == 0)
+            {
+                appointment = new AppointmentImpl(new Date(start), new Date(appEnd), RepeatingType.DAILY, 10);
+            }
+            else
+            {
+                appointment = new AppointmentImpl(new Date(start), new Date(appEnd));
+            }
+            appointment.setId("app" + i);
+            appointments.add(appointment);
+        }
+        return appointments;
+    }
+}
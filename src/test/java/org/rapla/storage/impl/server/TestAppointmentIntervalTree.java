@@ -0,0 +1,171 @@
+package org.rapla.storage.impl.server;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.rapla.components.util.DateTools;
+import org.rapla.entities.domain.Appointment;
+import org.rapla.entities.domain.AppointmentStartComparator;
+import org.rapla.entities.domain.RepeatingType;
+import org.rapla.entities.domain.internal.AppointmentImpl;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+@RunWith(JUnit4.class)
+public class TestAppointmentIntervalTree
+{
+    private AppointmentIntervalTree tree;
+    private List<Appointment> appointments;
+    private final long base = DateTools.cutDate(new Date()).getTime();
+
+    @Before
+    public void setUp()
+    {
+        tree = new AppointmentIntervalTree();
+        appointments = new ArrayList<Appointment>();
+        Random random = new Random(4711);
+        for (int i = 0; i < 500; i++)
+        {
+            long start = base + random.nextInt(1000) * DateTools.MILLISECONDS_PER_HOUR;
+            long end = start + (1 + random.nextInt(5)) * DateTools.MILLISECONDS_PER_HOUR;
+            final AppointmentImpl appointment;
+            if (i % 50 == 0)
+            {
+                // repeats forever
+                appointment = new AppointmentImpl(new Date(start), new Date(end), RepeatingType.WEEKLY, 0);
+            }
+            else if (i % 10 == 0)
+            {
+                appointment = new AppointmentImpl(new Date(start), new Date(end), RepeatingType.DAILY, 5);
+            }
+            else
+            {
+                appointment = new AppointmentImpl(new Date(start), new Date(end));
+            }
+            appointment.setId("app" + i);
+            appointments.add(appointment);
+            Assert.assertTrue(tree.add(appointment));
+        }
+    }
+
+    @Test
+    public void addAndIterate()
+    {
+        Assert.assertEquals(appointments.size(), tree.size());
+        Assert.assertFalse(tree.add(appointments.get(0)));
+        Assert.assertEquals(appointments.size(), tree.size());
+        SortedSet<Appointment> expected = new TreeSet<Appointment>(new AppointmentStartComparator());
+        expected.addAll(appointments);
+        Iterator<Appointment> it = tree.iterator();
+        for (Appointment appointment : expected)
+        {
+            Assert.assertEquals(appointment, it.next());
+        }
+        Assert.assertFalse(it.hasNext());
+    }
+
+    @Test
+    public void overlapping()
+    {
+        Random random = new Random(815);
+        for (int i = 0; i < 100; i++)
+        {
+            Date start = new Date(base + random.nextInt(1200) * DateTools.MILLISECONDS_PER_HOUR);
+            Date end = new Date(start.getTime() + random.nextInt(200) * DateTools.MILLISECONDS_PER_HOUR);
+            assertOverlapping(start, end);
+        }
+        assertOverlapping(null, new Date(base + 100 * DateTools.MILLISECONDS_PER_HOUR));
+        assertOverlapping(new Date(base + 900 * DateTools.MILLISECONDS_PER_HOUR), null);
+        assertOverlapping(null, null);
+    }
+
+    @Test
+    public void remove()
+    {
+        for (int i = 0; i < appointments.size(); i += 2)
+        {
+            Assert.assertTrue(tree.remove(appointments.get(i)));
+        }
+        Assert.assertFalse(tree.remove(appointments.get(0)));
+        Assert.assertEquals(appointments.size() / 2, tree.size());
+        for (int i = 0; i < appointments.size(); i++)
+        {
+            Assert.assertEquals(i % 2 == 1, tree.contains(appointments.get(i)));
+        }
+        List<Appointment> remaining = new ArrayList<Appointment>();
+        for (int i = 1; i < appointments.size(); i += 2)
+        {
+            remaining.add(appointments.get(i));
+        }
+        appointments = remaining;
+        assertOverlapping(new Date(base + 300 * DateTools.MILLISECONDS_PER_HOUR), new Date(base + 400 * DateTools.MILLISECONDS_PER_HOUR));
+        Assert.assertTrue(tree.removeWithFullSearch(appointments.get(0)));
+        Assert.assertEquals(appointments.size() - 1, tree.size());
+    }
+
+    @Test
+    public void buildFromSortedList()
+    {
+        SortedSet<Appointment> sorted = new TreeSet<Appointment>(new AppointmentStartComparator());
+        sorted.addAll(appointments);
+        tree = new AppointmentIntervalTree(new ArrayList<Appointment>(sorted));
+        Assert.assertEquals(appointments.size(), tree.size());
+        assertOverlapping(new Date(base + 500 * DateTools.MILLISECONDS_PER_HOUR), new Date(base + 520 * DateTools.MILLISECONDS_PER_HOUR));
+        tree.add(new AppointmentImpl(new Date(base), new Date(base + DateTools.MILLISECONDS_PER_HOUR)));
+        Assert.assertEquals(appointments.size() + 1, tree.size());
+    }
+
+    @Test
+    public void snapshotIsNotModified()
+    {
+        AppointmentIntervalTree snapshot = tree.snapshot();
+        for (int i = 0; i < appointments.size(); i += 3)
+        {
+            Assert.assertTrue(tree.remove(appointments.get(i)));
+        }
+        tree.add(new AppointmentImpl(new Date(base), new Date(base + DateTools.MILLISECONDS_PER_HOUR)));
+        Assert.assertEquals(appointments.size(), snapshot.size());
+        Iterator<Appointment> it = snapshot.iterator();
+        SortedSet<Appointment> expected = new TreeSet<Appointment>(new AppointmentStartComparator());
+        expected.addAll(appointments);
+        for (Appointment appointment : expected)
+        {
+            Assert.assertEquals(appointment, it.next());
+        }
+        AppointmentIntervalTree current = tree;
+        tree = snapshot;
+        assertOverlapping(new Date(base + 100 * DateTools.MILLISECONDS_PER_HOUR), new Date(base + 300 * DateTools.MILLISECONDS_PER_HOUR));
+        Assert.assertEquals(appointments.size() - (appointments.size() + 2) / 3 + 1, current.size());
+    }
+
+    private void assertOverlapping(Date start, Date end)
+    {
+        SortedSet<Appointment> expected = new TreeSet<Appointment>(new AppointmentStartComparator());
+        for (Appointment appointment : appointments)
+        {
+            if (appointment.overlaps(start, end))
+            {
+                expected.add(appointment);
+            }
+        }
+        List<Appointment> result = new ArrayList<Appointment>();
+        tree.getOverlapping(start, end, result);
+        List<Appointment> overlapping = new ArrayList<Appointment>();
+        for (Appointment appointment : result)
+        {
+            if (appointment.overlaps(start, end))
+            {
+                overlapping.add(appointment);
+            }
+        }
+        Assert.assertEquals(new ArrayList<Appointment>(expected), overlapping);
+    }
+}
@@ -0,0 +1,293 @@
+package org.rapla.storage.impl.server;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.rapla.RaplaResources;
+import org.rapla.components.i18n.internal.DefaultBundleManager;
+import org.rapla.components.util.DateTools;
+import org.rapla.entities.User;
+import org.rapla.entities.configuration.CalendarModelConfiguration;
+import org.rapla.entities.configuration.Preferences;
+import org.rapla.entities.domain.Allocatable;
+import org.rapla.entities.domain.Appointment;
+import org.rapla.entities.domain.Reservation;
+import org.rapla.entities.dynamictype.Attribute;
+import org.rapla.entities.dynamictype.AttributeType;
+import org.rapla.entities.dynamictype.ClassificationFilter;
+import org.rapla.entities.dynamictype.DynamicType;
+import org.rapla.entities.dynamictype.DynamicTypeAnnotations;
+import org.rapla.entities.storage.ReferenceInfo;
+import org.rapla.facade.RaplaFacade;
+import org.rapla.facade.internal.CalendarModelImpl;
+import org.rapla.framework.internal.DefaultScheduler;
+import org.rapla.logger.Logger;
+import org.rapla.plugin.exchangeconnector.ExchangeConnectorPlugin;
+import org.rapla.storage.CachableStorageOperator;
+import org.rapla.test.util.RaplaTestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/** compares the index of the exported calendar models with the evaluation of each model */
+@RunWith(JUnit4.class)
+public class TestCalendarModelCache
+{
+    Logger logger;
+    RaplaFacade facade;
+    CachableStorageOperator operator;
+    DefaultScheduler scheduler;
+    CalendarModelCache cache;
+    User homer;
+    User monty;
+    DynamicType resourceType;
+    DynamicType eventType;
+    Allocatable allocatable1;
+    Allocatable allocatable2;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        logger = RaplaTestCase.initLoger();
+        facade = RaplaTestCase.createFacadeWithFile(logger, "/testdefault.xml");
+        operator = (CachableStorageOperator) facade.getOperator();
+        scheduler = new DefaultScheduler(logger);
+        cache = new CalendarModelCache(operator, new RaplaResources(new DefaultBundleManager()), logger, scheduler);
+        homer = facade.getUser("homer");
+        monty = facade.getUser("monty");
+        resourceType = facade.getDynamicTypes(DynamicTypeAnnotations.VALUE_CLASSIFICATION_TYPE_RESOURCE)[0];
+        eventType = facade.getDynamicTypes(DynamicTypeAnnotations.VALUE_CLASSIFICATION_TYPE_RESERVATION)[0];
+        final Allocatable[] allocatables = facade.getAllocatables();
+        allocatable1 = allocatables[0];
+        allocatable2 = allocatables[allocatables.length - 1];
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        scheduler.dispose();
+        RaplaTestCase.dispose(facade);
+    }
+
+    private CalendarModelImpl newModel(User user, Collection<?> selected) throws Exception
+    {
+        final CalendarModelImpl model = new CalendarModelImpl(Locale.ENGLISH, user, operator, logger);
+        model.setSelectedObjects(selected);
+        model.setOption(ExchangeConnectorPlugin.EXCHANGE_EXPORT, "true");
+        return model;
+    }
+
+    /** the events named match */
+    private ClassificationFilter[] matchFilter()
+    {
+        final ClassificationFilter filter = eventType.newClassificationFilter();
+        filter.addEqualsRule("name", "match");
+        return new ClassificationFilter[] { filter };
+    }
+
+    private void createExports() throws Exception
+    {
+        newModel(homer, Collections.singletonList(allocatable1)).save("allocatable");
+        newModel(homer, Collections.singletonList(resourceType)).save("type");
+        final CalendarModelImpl filtered = newModel(monty, Collections.singletonList(allocatable2));
+        filtered.setReservationFilter(matchFilter());
+        filtered.save("filtered");
+        // no selected allocatables, so all events named match
+        final CalendarModelImpl all = newModel(monty, Collections.emptyList());
+        all.setReservationFilter(matchFilter());
+        all.save("all");
+        // not exported to exchange, so not in the index
+        final CalendarModelImpl notExported = newModel(monty, Collections.singletonList(allocatable1));
+        notExported.setOption(ExchangeConnectorPlugin.EXCHANGE_EXPORT, "false");
+        notExported.save("notExported");
+    }
+
+    /** the exported models as evaluated before the index */
+    private List<CalendarModelImpl> getExportedModels(User user) throws Exception
+    {
+        final List<CalendarModelImpl> result = new ArrayList<CalendarModelImpl>();
+        final Preferences preferences = operator.getPreferences(user, false);
+        if (preferences == null)
+        {
+            return result;
+        }
+        final List<CalendarModelConfiguration> configList = new ArrayList<CalendarModelConfiguration>();
+        final CalendarModelConfiguration modelConfig = preferences.getEntry(CalendarModelConfiguration.CONFIG_ENTRY);
+        if (modelConfig != null)
+        {
+            configList.add(modelConfig);
+        }
+        final Map<String, CalendarModelConfiguration> exportMap = preferences.getEntry(CalendarModelConfiguration.EXPORT_ENTRY);
+        if (exportMap != null)
+        {
+            configList.addAll(exportMap.values());
+        }
+        for (CalendarModelConfiguration config : configList)
+        {
+            if ("true".equals(config.getOptionMap().get(ExchangeConnectorPlugin.EXCHANGE_EXPORT)))
+            {
+                final CalendarModelImpl model = new CalendarModelImpl(Locale.ENGLISH, user, operator, logger);
+                model.setConfiguration(config, null);
+                result.add(model);
+            }
+        }
+        return result;
+    }
+
+    private Set<ReferenceInfo<User>> evaluate(Appointment appointment) throws Exception
+    {
+        final Set<ReferenceInfo<User>> result = new HashSet<ReferenceInfo<User>>();
+        for (User user : operator.getUsers())
+        {
+            for (CalendarModelImpl model : getExportedModels(user))
+            {
+                if (model.isMatchingSelectionAndFilter(appointment))
+                {
+                    result.add(user.getReference());
+                }
+            }
+        }
+        return result;
+    }
+
+    private Set<ReferenceInfo<User>> evaluate(Allocatable allocatable) throws Exception
+    {
+        final Set<ReferenceInfo<User>> result = new HashSet<ReferenceInfo<User>>();
+        for (User user : operator.getUsers())
+        {
+            for (CalendarModelImpl model : getExportedModels(user))
+            {
+                if (model.getAllAllocatables().contains(allocatable))
+                {
+                    result.add(user.getReference());
+                }
+            }
+        }
+        return result;
+    }
+
+    private Appointment newAppointment(String name, Allocatable... allocatables) throws Exception
+    {
+        final Reservation reservation = facade.newReservation(eventType.newClassification(), homer);
+        reservation.getClassification().setValue("name", name);
+        final Date start = DateTools.addDays(operator.today(), 1);
+        final Appointment appointment = facade.newAppointmentWithUser(start, new Date(start.getTime() + DateTools.MILLISECONDS_PER_HOUR), homer);
+        reservation.addAppointment(appointment);
+        for (Allocatable allocatable : allocatables)
+        {
+            reservation.addAllocatable(allocatable);
+        }
+        return appointment;
+    }
+
+    private void assertSameUsers() throws Exception
+    {
+        final Allocatable[] allocatables = operator.getAllocatables(null).toArray(Allocatable.ALLOCATABLE_ARRAY);
+        final List<Appointment> appointments = new ArrayList<Appointment>();
+        for (String name : Arrays.asList("match", "other"))
+        {
+            appointments.add(newAppointment(name));
+            appointments.add(newAppointment(name, allocatables));
+            for (Allocatable allocatable : allocatables)
+            {
+                appointments.add(newAppointment(name, allocatable));
+            }
+        }
+        for (Appointment appointment : appointments)
+        {
+            final String message = appointment.getReservation().getName(Locale.ENGLISH) + " " + Arrays.asList(appointment.getReservation().getAllocatables());
+            Assert.assertEquals(message, evaluate(appointment), new HashSet<ReferenceInfo<User>>(cache.findMatchingUser(appointment)));
+        }
+        for (Allocatable allocatable : allocatables)
+        {
+            Assert.assertEquals(allocatable.toString(), evaluate(allocatable), new HashSet<ReferenceInfo<User>>(cache.findMatchingUsers(allocatable)));
+        }
+    }
+
+    private void synchronize(Date since) throws Exception
+    {
+        cache.synchronizeCalendars(operator.getUpdateResult(since));
+    }
+
+    @Test
+    public void testInitialIndex() throws Exception
+    {
+        createExports();
+        cache.initCalendarMap();
+        assertSameUsers();
+        // the export with the resource type and the filtered export of all allocatables are in both sets
+        Assert.assertEquals(new HashSet<ReferenceInfo<User>>(Arrays.asList(homer.getReference(), monty.getReference())),
+                new HashSet<ReferenceInfo<User>>(cache.findMatchingUser(newAppointment("match", allocatable1))));
+    }
+
+    @Test
+    public void testNoExports() throws Exception
+    {
+        cache.initCalendarMap();
+        assertSameUsers();
+        Assert.assertTrue(cache.findMatchingUser(newAppointment("match", allocatable1)).isEmpty());
+        Assert.assertTrue(cache.findMatchingUsers(allocatable1).isEmpty());
+    }
+
+    @Test
+    public void testPreferencesChanged() throws Exception
+    {
+        createExports();
+        cache.initCalendarMap();
+        Date since = operator.getCurrentTimestamp();
+        // the export now selects the other allocatable
+        newModel(homer, Collections.singletonList(allocatable2)).save("allocatable");
+        synchronize(since);
+        assertSameUsers();
+
+        since = operator.getCurrentTimestamp();
+        // the filter of all allocatables is removed, so all events are exported
+        final CalendarModelImpl all = newModel(monty, Collections.emptyList());
+        all.save("all");
+        synchronize(since);
+        assertSameUsers();
+
+        since = operator.getCurrentTimestamp();
+        final Preferences preferences = facade.edit(facade.getPreferences(monty));
+        preferences.putEntry(CalendarModelConfiguration.EXPORT_ENTRY, null);
+        facade.store(preferences);
+        synchronize(since);
+        assertSameUsers();
+        Assert.assertFalse(cache.findMatchingUsers(allocatable2).contains(monty.getReference()));
+    }
+
+    @Test
+    public void testDynamicTypeChanged() throws Exception
+    {
+        createExports();
+        cache.initCalendarMap();
+        Date since = operator.getCurrentTimestamp();
+        final DynamicType editType = facade.edit(resourceType);
+        final Attribute attribute = facade.newAttribute(AttributeType.STRING);
+        attribute.setKey("color");
+        editType.addAttribute(attribute);
+        facade.store(editType);
+        synchronize(since);
+        assertSameUsers();
+
+        // a new allocatable of the exported type
+        since = operator.getCurrentTimestamp();
+        final Allocatable allocatable = facade.newAllocatable(facade.getDynamicType(resourceType.getKey()).newClassification(), homer);
+        allocatable.getClassification().setValue("name", "new");
+        facade.store(allocatable);
+        synchronize(since);
+        assertSameUsers();
+        Assert.assertTrue(cache.findMatchingUsers(facade.getOperator().resolve(allocatable.getReference())).contains(homer.getReference()));
+    }
+}
@@ -0,0 +1,150 @@
+package org.rapla.storage.impl.server;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.rapla.components.util.DateTools;
+import org.rapla.entities.User;
+import org.rapla.entities.domain.Allocatable;
+import org.rapla.entities.domain.Appointment;
+import org.rapla.entities.domain.RepeatingType;
+import org.rapla.entities.domain.Reservation;
+import org.rapla.entities.dynamictype.DynamicType;
+import org.rapla.entities.dynamictype.DynamicTypeAnnotations;
+import org.rapla.entities.storage.ReferenceInfo;
+import org.rapla.facade.RaplaFacade;
+import org.rapla.facade.internal.ConflictImpl;
+import org.rapla.logger.Logger;
+import org.rapla.test.util.RaplaTestCase;
+
+import java.util.Date;
+
+/** compares the incremental update of the conflicts with a calculation of all conflicts of each allocatable */
+@RunWith(JUnit4.class)
+public class TestConflictFinder
+{
+    RaplaFacade facade;
+    LocalAbstractCachableOperator operator;
+    DynamicType eventType;
+    User user;
+    // Room A66.1 belongs to Room A66
+    Allocatable room;
+    Allocatable roomPart;
+    // the group DozGruppe is a package that contains Mr. Burns
+    Allocatable lecturer;
+    Allocatable lecturerGroup;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Logger logger = RaplaTestCase.initLoger();
+        facade = RaplaTestCase.createFacadeWithFile(logger, "/testdefault.xml");
+        operator = (LocalAbstractCachableOperator) facade.getOperator();
+        eventType = facade.getDynamicTypes(DynamicTypeAnnotations.VALUE_CLASSIFICATION_TYPE_RESERVATION)[0];
+        user = facade.getUser("homer");
+        room = resolve("c24ce517-4697-4e52-9917-ec000c84563c");
+        roomPart = resolve("rdd6b473-7c77-4344-a73d-1f27008341cb");
+        lecturer = resolve("f92e9a11-c342-4413-a924-81eee17ccf92");
+        lecturerGroup = resolve("r9b69d90-46a0-41bb-94fa-82079b424c03");
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        RaplaTestCase.dispose(facade);
+    }
+
+    private Allocatable resolve(String id) throws Exception
+    {
+        return operator.resolve(new ReferenceInfo<Allocatable>(id, Allocatable.class));
+    }
+
+    /** stores a reservation with an appointment that repeats daily 5 times */
+    private Reservation storeReservation(String name, int startHour, int endHour, Allocatable... allocatables) throws Exception
+    {
+        final Reservation reservation = facade.newReservation(eventType.newClassification(), user);
+        reservation.getClassification().setValue("name", name);
+        final Date day = DateTools.addDays(facade.today(), 1);
+        final Appointment appointment = facade.newAppointmentWithUser(new Date(day.getTime() + startHour * DateTools.MILLISECONDS_PER_HOUR),
+                new Date(day.getTime() + endHour * DateTools.MILLISECONDS_PER_HOUR), user);
+        appointment.setRepeatingEnabled(true);
+        appointment.getRepeating().setType(RepeatingType.DAILY);
+        appointment.getRepeating().setNumber(5);
+        reservation.addAppointment(appointment);
+        for (Allocatable allocatable : allocatables)
+        {
+            reservation.addAllocatable(allocatable);
+        }
+        facade.store(reservation);
+        return reservation;
+    }
+
+    private void assertConflictsUpToDate() throws Exception
+    {
+        final Date today = operator.today();
+        for (Allocatable allocatable : operator.getAllocatables(null))
+        {
+            Assert.assertEquals(allocatable.toString(), operator.conflictFinder.calculateConflicts(allocatable, today).keySet(),
+                    operator.conflictFinder.getConflictMap(allocatable.getReference()).keySet());
+        }
+    }
+
+    private boolean hasConflict(Allocatable allocatable, Reservation reservation1, Reservation reservation2)
+    {
+        final ReferenceInfo<Appointment> appointment1 = reservation1.getAppointments()[0].getReference();
+        final ReferenceInfo<Appointment> appointment2 = reservation2.getAppointments()[0].getReference();
+        for (ReferenceInfo conflictId : operator.conflictFinder.getConflictMap(allocatable.getReference()).keySet())
+        {
+            final String id = conflictId.getId();
+            if (id.equals(ConflictImpl.createId(allocatable.getReference(), appointment1, appointment2)) || id
+                    .equals(ConflictImpl.createId(allocatable.getReference(), appointment2, appointment1)))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void testUpdateConflicts() throws Exception
+    {
+        assertConflictsUpToDate();
+        // add
+        final Reservation roomEvent = storeReservation("room", 10, 12, room);
+        final Reservation roomPartEvent = storeReservation("room part", 11, 13, roomPart);
+        final Reservation groupEvent = storeReservation("group", 10, 12, lecturerGroup);
+        final Reservation lecturerEvent = storeReservation("lecturer", 11, 12, lecturer);
+        assertConflictsUpToDate();
+        // the part and the member are booked through the parent and the package
+        Assert.assertTrue(hasConflict(room, roomEvent, roomPartEvent));
+        Assert.assertTrue(hasConflict(lecturer, groupEvent, lecturerEvent));
+
+        // move, so the part doesn't overlap anymore
+        final Reservation movedEvent = facade.edit(roomPartEvent);
+        final Appointment appointment = movedEvent.getAppointments()[0];
+        appointment.move(new Date(appointment.getStart().getTime() + 2 * DateTools.MILLISECONDS_PER_HOUR),
+                new Date(appointment.getEnd().getTime() + 2 * DateTools.MILLISECONDS_PER_HOUR));
+        facade.store(movedEvent);
+        assertConflictsUpToDate();
+        Assert.assertFalse(hasConflict(room, roomEvent, roomPartEvent));
+
+        // change the allocation from the lecturer to the room
+        final Reservation changedEvent = facade.edit(lecturerEvent);
+        changedEvent.removeAllocatable(lecturer);
+        changedEvent.addAllocatable(room);
+        facade.store(changedEvent);
+        assertConflictsUpToDate();
+        Assert.assertFalse(hasConflict(lecturer, groupEvent, lecturerEvent));
+        Assert.assertTrue(hasConflict(room, roomEvent, lecturerEvent));
+
+        // remove
+        facade.remove(roomEvent);
+        assertConflictsUpToDate();
+        Assert.assertFalse(hasConflict(room, roomEvent, lecturerEvent));
+        facade.remove(groupEvent);
+        assertConflictsUpToDate();
+    }
+}
@@ -5,7 +5,9 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
+import org.rapla.entities.Entity;
 import org.rapla.entities.domain.Allocatable;
+import org.rapla.entities.internal.CategoryImpl;
 import org.rapla.entities.storage.ReferenceInfo;
 
 import java.util.Date;
@@ -54,4 +56,31 @@ public class TestEntityHistory
         entityHistory.addHistoryEntry(ref,json, timestamp, false);
         Assert.assertEquals(entityHistory.getHistoryList(ref)+"", 1, entityHistory.getHistoryList(ref).size());
     }
+
+    @Test
+    public void encoding()
+    {
+        String json = "{\"id\":\"test\",\"name\":\"R\u00e4ume \u20ac\"}";
+        Assert.assertEquals(json, EntityHistory.decode(EntityHistory.encode(json)));
+        Assert.assertNull(EntityHistory.decode(EntityHistory.encode(null)));
+    }
+
+    @Test
+    public void readOnlyEntityIsShared() throws Exception
+    {
+        final Date timestamp = new Date();
+        CategoryImpl category = new CategoryImpl(timestamp, timestamp);
+        category.setId("testCategory");
+        category.setKey("test");
+        final EntityHistory.HistoryEntry entry = entityHistory.addHistoryEntry(category, timestamp, false);
+        final Entity readOnly = entityHistory.getReadOnlyEntity(entry);
+        Assert.assertEquals(category.getId(), readOnly.getId());
+        Assert.assertTrue(readOnly.isReadOnly());
+        Assert.assertSame(readOnly, entityHistory.getReadOnlyEntity(entry));
+        Assert.assertSame(readOnly, entityHistory.get(category.getReference(), timestamp));
+        final Entity copy = entityHistory.getEntity(entry);
+        Assert.assertNotSame(readOnly, copy);
+        Assert.assertFalse(copy.isReadOnly());
+        Assert.assertEquals(category.getId(), copy.getId());
+    }
 }
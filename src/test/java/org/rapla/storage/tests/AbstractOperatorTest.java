@@ -14,11 +14,13 @@ package org.rapla.storage.tests;
 
 import org.junit.Assert;
 import org.junit.Test;
+import org.rapla.components.util.DateTools;
 import org.rapla.entities.Category;
 import org.rapla.entities.Entity;
 import org.rapla.entities.User;
 import org.rapla.entities.domain.Allocatable;
 import org.rapla.entities.domain.Appointment;
+import org.rapla.entities.domain.RaplaObjectAnnotations;
 import org.rapla.entities.domain.Repeating;
 import org.rapla.entities.domain.Reservation;
 import org.rapla.entities.dynamictype.Attribute;
@@ -184,9 +186,37 @@ public abstract class AbstractOperatorTest  {
 			Assert.assertEquals(10, app.getRepeating().getNumber());
         }
     }
-}
-
-
 
+	@Test
+	public void testRemoveReservationsEndingBefore() throws Exception {
+		RaplaFacade facade = getFacade();
+		final User user = facade.getUsers()[0];
+		final Date today = DateTools.cutDate(new Date());
+		final Date lastYear = DateTools.addDays(today, -365);
+		final Date nextYear = DateTools.addDays(today, 365);
+		final Reservation past = newReservation(facade, user, lastYear);
+		final Reservation future = newReservation(facade, user, nextYear);
+		final Reservation withoutAppointments = newReservation(facade, user, null);
+		final Reservation template = newReservation(facade, user, lastYear);
+		template.setAnnotation(RaplaObjectAnnotations.KEY_TEMPLATE, "testTemplate");
+		facade.storeAndRemove(new Entity[] { past, future, withoutAppointments, template }, Entity.ENTITY_ARRAY, user);
 
+		CachableStorageOperator operator = getOperator();
+		Assert.assertEquals(1, operator.removeReservationsEndingBefore(DateTools.addDays(today, -30)));
+		Assert.assertNull(operator.tryResolve(past.getReference()));
+		Assert.assertNotNull(operator.tryResolve(future.getReference()));
+		Assert.assertNotNull(operator.tryResolve(withoutAppointments.getReference()));
+		Assert.assertNotNull(operator.tryResolve(template.getReference()));
+	}
 
+	/** creates a reservation with one appointment on the day, or without appointments if day is null */
+	private Reservation newReservation(RaplaFacade facade, User user, Date day) throws RaplaException {
+		Reservation r = facade.newReservation(facade.getDynamicTypes(DynamicTypeAnnotations.VALUE_CLASSIFICATION_TYPE_RESERVATION)[0].newClassification(), user);
+		r.getClassification().setValue("name", "archive test");
+		if (day != null) {
+			r.addAppointment(facade.newAppointmentWithUser(new Date(day.getTime() + DateTools.MILLISECONDS_PER_HOUR * 8),
+					new Date(day.getTime() + DateTools.MILLISECONDS_PER_HOUR * 10), user));
+		}
+		return r;
+	}
+}
@@ -18,7 +18,7 @@ import org.eclipse.jetty.servlet.FilterHolder;
 import org.eclipse.jetty.servlet.ServletHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
 import org.eclipse.jetty.webapp.WebAppContext;
-import org.jboss.resteasy.plugins.server.servlet.HttpServletDispatcher;
+import org.jboss.resteasy.plugins.server.servlet.HttpServlet30Dispatcher;
 import org.jboss.resteasy.plugins.server.servlet.ResteasyBootstrap;
 import org.jetbrains.annotations.NotNull;
 import org.rapla.RaplaResources;
@@ -81,9 +81,11 @@ import java.net.HttpURLConnection;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
@@ -203,6 +205,7 @@ public abstract class RaplaTestCase
             }
         };
         final FilterHolder holder = new FilterHolder(filter);
+        holder.setAsyncSupported(true);
         context.addFilter(holder, "/*", EnumSet.allOf(DispatcherType.class));
         context.setInitParameter("resteasy.servlet.mapping.prefix", "/rapla");
         context.setInitParameter("resteasy.use.builtin.providers", "false");
@@ -210,8 +213,10 @@ public abstract class RaplaTestCase
         context.setResourceBase(webappFolder.getAbsolutePath());
         context.setMaxFormContentSize(64000000);
 
-        final ServletHolder servletHolder = new ServletHolder(HttpServletDispatcher.class);
-        servletHolder.setServlet(new HttpServletDispatcher());
+        // async supported as the MainServlet, so the promise-returning calls are answered with suspended requests
+        final ServletHolder servletHolder = new ServletHolder(HttpServlet30Dispatcher.class);
+        servletHolder.setServlet(new HttpServlet30Dispatcher());
+        servletHolder.setAsyncSupported(true);
         context.addServlet(servletHolder, "/rapla/*");
         jettyServer.start();
         Handler[] childHandlers = context.getChildHandlersByClass(ServletHandler.class);
@@ -484,6 +489,20 @@ public abstract class RaplaTestCase
         {
             return super.getInputSource(storageURL);
         }
+
+        @Override public boolean appendJournal(String record, URI storageURL) throws IOException
+        {
+            return false;
+        }
+
+        @Override public List<String> readJournal(URI storageURL) throws IOException
+        {
+            return Collections.emptyList();
+        }
+
+        @Override public void clearJournal(URI storageURL) throws IOException
+        {
+        }
     }
 
     /*